@@ -0,0 +1,48 @@
+plugins {
+	java
+	id("io.spring.dependency-management") version "1.1.6"
+	id("me.champeau.jmh") version "0.7.2"
+}
+
+group = "org.varamadon"
+version = "0.0.1-SNAPSHOT"
+
+java {
+	toolchain {
+		languageVersion = JavaLanguageVersion.of(21)
+	}
+}
+
+repositories {
+	mavenCentral()
+	maven { url = uri("https://repo.spring.io/milestone") }
+}
+
+dependencies {
+	jmhImplementation(project(":auto-refactor-server"))
+	jmhImplementation(project(":auto-refactor-shared"))
+	jmhImplementation("org.springframework.ai:spring-ai-core")
+	jmhImplementation("com.fasterxml.jackson.core:jackson-databind")
+	jmhImplementation("com.google.guava:guava:33.3.1-jre")
+	jmhImplementation("org.apache.commons:commons-lang3")
+}
+
+dependencyManagement {
+	imports {
+		mavenBom("org.springframework.boot:spring-boot-dependencies:3.3.5")
+		mavenBom("org.springframework.ai:spring-ai-bom:1.0.0-M3")
+	}
+}
+
+jmh {
+	jmhVersion = "1.37"
+	fork = 1
+	warmupIterations = 3
+	warmup = "2s"
+	iterations = 5
+	timeOnIteration = "2s"
+	// Allocation rates per operation are reported next to the times
+	profilers = listOf("gc")
+	resultFormat = "JSON"
+	resultsFile = layout.buildDirectory.file("results/jmh/results.json")
+}
@@ -0,0 +1,77 @@
+package org.varamadon.autorefactor.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Generates the inputs of the benchmarks. Files look like real Java classes, so string and hashing
+ * costs match the ones of real runs, and action plans mix all action item types.
+ */
+public final class BenchmarkData {
+  private static final long SEED = 42;
+
+  private BenchmarkData() {}
+
+  /** Generates a Java class of about the given number of lines. */
+  public static String javaFile(int linesCount) {
+    Random random = new Random(SEED + linesCount);
+    StringBuilder file = new StringBuilder();
+    file.append("package org.example.benchmark;\n\n");
+    file.append("public class Generated {\n");
+    int lines = 3;
+    int method = 0;
+    while (lines < linesCount - 1) {
+      file.append("  public int method").append(method++).append("(int value) {\n");
+      lines++;
+      int statements = 2 + random.nextInt(12);
+      for (int i = 0; i < statements && lines < linesCount - 3; i++) {
+        file.append("    if (value > ").append(random.nextInt(100)).append(") {\n");
+        file.append("      value = value * ")
+            .append(1 + random.nextInt(9))
+            .append(" + ")
+            .append(random.nextInt(1000))
+            .append(";\n");
+        file.append("    }\n");
+        lines += 3;
+      }
+      file.append("    return value;\n");
+      file.append("  }\n");
+      lines += 2;
+    }
+    file.append("}\n");
+    return file.toString();
+  }
+
+  /** Generates the JSON of a single-file action plan with the given number of action items. */
+  public static String actionPlan(int actionItemsCount) {
+    StringBuilder plan = new StringBuilder("[");
+    for (int i = 0; i < actionItemsCount; i++) {
+      if (i > 0) {
+        plan.append(',');
+      }
+      int line = 1 + i * 3;
+      switch (i % 3) {
+        case 0 ->
+            plan.append("{\"type\":\"addComment\",\"line\":")
+                .append(line)
+                .append(",\"content\":\"Explains what the method ")
+                .append(i)
+                .append(" computes\"}");
+        case 1 ->
+            plan.append("{\"type\":\"renameMethod\",\"line\":")
+                .append(line)
+                .append(",\"oldName\":\"method")
+                .append(i)
+                .append("\",\"newName\":\"computeValue")
+                .append(i)
+                .append("\"}");
+        default ->
+            plan.append("{\"type\":\"renameVariable\",\"line\":")
+                .append(line)
+                .append(",\"oldName\":\"value\",\"newName\":\"input")
+                .append(i)
+                .append("\"}");
+      }
+    }
+    return plan.append(']').toString();
+  }
+}
@@ -0,0 +1,38 @@
+package org.varamadon.autorefactor.server.agent;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.varamadon.autorefactor.benchmarks.BenchmarkData;
+import org.varamadon.autorefactor.shared.model.ActionItem;
+
+/** Measures the deserialization of the polymorphic action items of the plans from the brain. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ActionPlanBenchmark {
+  @Param({"1", "10", "50", "200"})
+  private int actionItems;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private String actionPlan;
+
+  @Setup
+  public void setUp() {
+    actionPlan = BenchmarkData.actionPlan(actionItems);
+  }
+
+  @Benchmark
+  public ImmutableList<ActionItem> readActionPlan() throws JsonProcessingException {
+    return RefactoringAgent.readActionPlan(objectMapper, actionPlan);
+  }
+}
@@ -0,0 +1,54 @@
+package org.varamadon.autorefactor.server.agent;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.hash.Hashing;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.varamadon.autorefactor.benchmarks.BenchmarkData;
+import org.varamadon.autorefactor.server.agent.content.LineIndex;
+
+/** Measures the work done by the agent for the content of every fetched file. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FileContentBenchmark {
+  @Param({"100", "1000", "5000", "20000"})
+  private int lines;
+
+  private String fileContent;
+  private LineIndex lineIndex;
+
+  @Setup
+  public void setUp() {
+    fileContent = BenchmarkData.javaFile(lines);
+    lineIndex = LineIndex.of(fileContent);
+  }
+
+  @Benchmark
+  public String appendLineNumbers() {
+    return RefactoringAgent.appendLineNumbers(fileContent);
+  }
+
+  @Benchmark
+  public LineIndex indexLines() {
+    return LineIndex.of(fileContent);
+  }
+
+  @Benchmark
+  public String resolveMiddleLine() {
+    return lineIndex.getLine(lineIndex.getLineCount() / 2);
+  }
+
+  @Benchmark
+  public String hashContent() {
+    return Hashing.sha256().hashString(fileContent, UTF_8).toString();
+  }
+}
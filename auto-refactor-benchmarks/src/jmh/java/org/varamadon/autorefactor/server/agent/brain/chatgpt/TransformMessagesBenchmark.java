@@ -0,0 +1,52 @@
+package org.varamadon.autorefactor.server.agent.brain.chatgpt;
+
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.ASSISTANT;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.SYSTEM;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.USER;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.ai.chat.messages.Message;
+import org.varamadon.autorefactor.benchmarks.BenchmarkData;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+
+/**
+ * Measures the conversion of a prompt to Spring AI messages. The prompt has the shape sent by the
+ * default conversation window: the previous file with its plan and the current file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TransformMessagesBenchmark {
+  @Param({"100", "1000", "5000", "20000"})
+  private int lines;
+
+  private List<BrainMessage> messages;
+
+  @Setup
+  public void setUp() {
+    String fileContent = BenchmarkData.javaFile(lines);
+    messages =
+        ImmutableList.of(
+            new BrainMessage(SYSTEM, "You are a great java developer."),
+            new BrainMessage(ASSISTANT, "nextFile"),
+            new BrainMessage(USER, fileContent),
+            new BrainMessage(ASSISTANT, BenchmarkData.actionPlan(10)),
+            new BrainMessage(ASSISTANT, "nextFile"),
+            new BrainMessage(USER, fileContent));
+  }
+
+  @Benchmark
+  public ImmutableList<Message> transformMessages() {
+    return ChatGPTAgentBrain.transformMessages(messages);
+  }
+}
@@ -0,0 +1,100 @@
+package org.varamadon.autorefactor.server.agent.memory.impl;
+
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.ASSISTANT;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.USER;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.varamadon.autorefactor.benchmarks.BenchmarkData;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+
+/**
+ * Measures storing the messages of one file in {@link InMemoryMessagesStore} and reading the
+ * history, as the agent does before every call to the brain. Histories are deleted after every
+ * {@value #FILES_PER_RUN} files, like at the end of a run. The previous implementation, which
+ * rebuilt the whole history on every append, is measured as the baseline, and the GC profiler
+ * compares the allocation of both.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessagesStoreBenchmark {
+  private static final String REPOSITORY_ID = "repositoryId";
+  private static final int FILES_PER_RUN = 1_000;
+
+  @Param({"100", "1000", "5000", "20000"})
+  private int lines;
+
+  private InMemoryMessagesStore store;
+  private CopyOnAppendStore copyOnAppendStore;
+  private BrainMessage fileMessage;
+  private BrainMessage planMessage;
+  private int storedFiles;
+
+  @Setup
+  public void setUp() {
+    fileMessage = new BrainMessage(USER, BenchmarkData.javaFile(lines));
+    planMessage = new BrainMessage(ASSISTANT, BenchmarkData.actionPlan(10));
+  }
+
+  @Setup(Level.Iteration)
+  public void createStore() {
+    store = new InMemoryMessagesStore();
+    copyOnAppendStore = new CopyOnAppendStore();
+    storedFiles = 0;
+  }
+
+  @Benchmark
+  public List<BrainMessage> storeFileMessages() {
+    if (storedFiles++ == FILES_PER_RUN) {
+      store.deleteMessages(REPOSITORY_ID);
+      storedFiles = 1;
+    }
+    store.storeMessage(REPOSITORY_ID, fileMessage);
+    store.getMessages(REPOSITORY_ID);
+    store.storeMessage(REPOSITORY_ID, planMessage);
+    return store.getMessages(REPOSITORY_ID);
+  }
+
+  @Benchmark
+  public List<BrainMessage> storeFileMessagesCopyOnAppend() {
+    if (storedFiles++ == FILES_PER_RUN) {
+      copyOnAppendStore.delete();
+      storedFiles = 1;
+    }
+    copyOnAppendStore.append(fileMessage);
+    return copyOnAppendStore.append(planMessage);
+  }
+
+  /** The previous implementation, which rebuilt the whole history on every append. */
+  private static class CopyOnAppendStore {
+    private final ConcurrentMap<String, ImmutableList<BrainMessage>> messages =
+        new ConcurrentHashMap<>();
+
+    List<BrainMessage> append(BrainMessage message) {
+      messages.compute(
+          REPOSITORY_ID,
+          (ignored, stored) ->
+              stored == null
+                  ? ImmutableList.of(message)
+                  : new ImmutableList.Builder<BrainMessage>().addAll(stored).add(message).build());
+      return messages.get(REPOSITORY_ID);
+    }
+
+    void delete() {
+      messages.remove(REPOSITORY_ID);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package org.varamadon.autorefactor.server.agent.memory.impl;
+
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.ASSISTANT;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.apache.commons.lang3.tuple.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+import org.varamadon.autorefactor.server.agent.memory.MessageContext;
+
+/**
+ * Measures how many pending messages per second {@link MappedMessagesStore} enqueues, dequeues and
+ * acknowledges when several repositories store their assistant messages at the same time, with and
+ * without group commit of the pending message log. Every operation stores a message before taking
+ * one, so taking never waits for a message that is not stored.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(16)
+public class PendingMessagesBenchmark {
+  private static final int SEGMENT_SIZE = 1 << 20;
+
+  @Param({"false", "true"})
+  private boolean groupCommit;
+
+  private Path directory;
+  private MappedMessagesStore store;
+
+  @Setup
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("pending-messages-benchmark");
+    store = new MappedMessagesStore(directory, SEGMENT_SIZE, groupCommit);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    store.close();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  @Benchmark
+  public Pair<BrainMessage, MessageContext> storeAndAcknowledge(RepositoryState repository)
+      throws InterruptedException {
+    store.storePendingMessageWithContext(
+        Pair.of(new BrainMessage(ASSISTANT, "nextFile"), repository.context));
+    Pair<BrainMessage, MessageContext> message = store.awaitNextPendingMessageWithContext();
+    store.acknowledgePendingMessage(message);
+    return message;
+  }
+
+  /** Repository of a benchmark thread. */
+  @State(Scope.Thread)
+  public static class RepositoryState {
+    private MessageContext context;
+
+    @Setup
+    public void setUp() {
+      context = new MessageContext("repository" + Thread.currentThread().getId(), "");
+    }
+  }
+}
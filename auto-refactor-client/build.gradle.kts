@@ -27,6 +27,7 @@ dependencies {
     implementation("io.ktor:ktor-server-core:2.3.0")
     implementation("io.ktor:ktor-server-netty:2.3.0")
     implementation("io.ktor:ktor-server-content-negotiation:2.3.0")
+    implementation("io.ktor:ktor-server-compression:2.3.0")
     implementation("io.ktor:ktor-serialization-kotlinx-json:2.3.0")
     implementation(project(":auto-refactor-shared"))
     intellijPlatform {
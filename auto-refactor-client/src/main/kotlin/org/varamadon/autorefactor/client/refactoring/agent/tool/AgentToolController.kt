@@ -15,13 +15,17 @@ import io.ktor.http.*
 import io.ktor.server.application.*
 import io.ktor.server.engine.*
 import io.ktor.server.netty.*
+import io.ktor.server.plugins.compression.*
 import io.ktor.server.request.*
 import io.ktor.server.response.*
 import io.ktor.server.routing.*
 import org.varamadon.autorefactor.client.refactoring.ChangesCollector
 import org.varamadon.autorefactor.client.refactoring.executor.RefactoringExecutor
 import org.varamadon.autorefactor.shared.model.ActionPlan
+import org.varamadon.autorefactor.shared.model.SourceFile
 import java.nio.charset.StandardCharsets
+import java.util.concurrent.ConcurrentHashMap
+import java.util.zip.GZIPInputStream
 
 /**
  * AgentToolController is responsible for managing the communication between the refactoring agent
@@ -35,27 +39,55 @@ class AgentToolController(
     private val fileQueue: ArrayDeque<VirtualFile>,
     port: Int
 ) {
-    private val filesByHash = mutableMapOf<String, VirtualFile>()
+    /**
+     * The server may fetch the next file while a plan for a previous one is being executed,
+     * so the map is accessed concurrently.
+     */
+    private val filesByHash = ConcurrentHashMap<String, VirtualFile>()
 
     init {
         embeddedServer(Netty, port = port) {
+            /**
+             * Responses are compressed with gzip if the agent accepts it,
+             * small responses are sent raw since compressing them saves less than it costs.
+             */
+            install(Compression) {
+                gzip {
+                    minimumSize(COMPRESSION_THRESHOLD_BYTES)
+                }
+            }
             routing {
                 /**
                  * This endpoint returns the next file in the queue as a string.
+                 * The SHA-256 hash of the content and its length are sent in headers,
+                 * so the agent doesn't need to hash it again.
                  *
                  * If there are no more files left in the queue, an empty response will be returned.
+                 *
+                 * If the `count` parameter is given, the endpoint returns a JSON array of up to `count`
+                 * next files with their hashes instead. The total size of their contents doesn't exceed
+                 * the `maxBytes` parameter, unless the first file alone is bigger.
+                 * If there are no more files left in the queue, an empty array will be returned.
                  */
                 get("/files/next") {
+                    val count = call.request.queryParameters["count"]?.toIntOrNull()
+                    if (count != null) {
+                        val maxBytes = call.request.queryParameters["maxBytes"]?.toIntOrNull() ?: Int.MAX_VALUE
+                        val files = nextFiles(count, maxBytes)
+                        call.respondText(objectMapper.writeValueAsString(files), ContentType.Application.Json)
+                        return@get
+                    }
                     val file = fileQueue.removeFirstOrNull()
                     if (file == null) {
                         call.respondText("", ContentType.Text.Plain)
                         return@get
                     }
                     val fileContent = file.getContent()
-                    val hash = Hashing.sha256()
-                        .hashString(fileContent, StandardCharsets.UTF_8).toString()
+                    val hash = fileContent.sha256()
                     filesByHash[hash] = file
 
+                    call.response.header(SourceFile.HASH_HEADER, hash)
+                    call.response.header(SourceFile.CHAR_COUNT_HEADER, fileContent.length)
                     call.respondText(fileContent, ContentType.Text.Plain)
                 }
 
@@ -71,7 +103,7 @@ class AgentToolController(
                  * an error message will be logged and a BadRequest response will be sent back to the agent.
                  */
                 post("/actions/execute") {
-                    val requestBody = call.receiveText()
+                    val requestBody = call.receiveDecompressedText()
                     val actionPlan = objectMapper.readValue<ActionPlan>(requestBody)
                     val file = filesByHash[actionPlan.fileHash]
                     if (file == null) {
@@ -99,6 +131,42 @@ class AgentToolController(
         }.start(wait = false)
     }
 
+    /**
+     * Takes up to [count] next files from the queue, as long as their total size fits into [maxBytes].
+     * At least one file is taken if the queue is not empty.
+     */
+    private fun nextFiles(count: Int, maxBytes: Int): List<SourceFile> {
+        val files = mutableListOf<SourceFile>()
+        var totalBytes = 0L
+        while (files.size < count) {
+            val file = fileQueue.firstOrNull() ?: break
+            val fileContent = file.getContent()
+            val fileBytes = fileContent.toByteArray(StandardCharsets.UTF_8).size
+            if (files.isNotEmpty() && totalBytes + fileBytes > maxBytes) {
+                break
+            }
+            fileQueue.removeFirst()
+            val hash = fileContent.sha256()
+            filesByHash[hash] = file
+            files.add(SourceFile(hash, fileContent.length, fileContent))
+            totalBytes += fileBytes
+        }
+        return files
+    }
+
+    private fun String.sha256(): String =
+        Hashing.sha256().hashString(this, StandardCharsets.UTF_8).toString()
+
+    /**
+     * Receives the request body as text, decompressing it if the agent sent it compressed with gzip.
+     */
+    private suspend fun ApplicationCall.receiveDecompressedText(): String {
+        if (request.headers[HttpHeaders.ContentEncoding] != "gzip") {
+            return receiveText()
+        }
+        return GZIPInputStream(receiveStream()).bufferedReader(StandardCharsets.UTF_8).use { it.readText() }
+    }
+
     private fun VirtualFile.getContent(): String {
         var document: Document? = null
         runReadAction {
@@ -123,3 +191,5 @@ class AgentToolController(
         }
     }
 }
+
+private const val COMPRESSION_THRESHOLD_BYTES = 1024L
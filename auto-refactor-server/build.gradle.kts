@@ -22,9 +22,11 @@ extra["springAiVersion"] = "1.0.0-M3"
 
 dependencies {
 	implementation("org.springframework.boot:spring-boot-starter-web")
+	implementation("org.springframework.boot:spring-boot-starter-actuator")
 	implementation("org.springframework.ai:spring-ai-openai-spring-boot-starter")
 	implementation("com.google.guava:guava:33.3.1-jre")
 	implementation(project(":auto-refactor-shared"))
+	runtimeOnly("io.micrometer:micrometer-registry-prometheus")
 	testImplementation("org.springframework.boot:spring-boot-starter-test")
 	testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
@@ -38,3 +40,26 @@ dependencyManagement {
 tasks.withType<Test> {
 	useJUnitPlatform()
 }
+
+tasks.test {
+	useJUnitPlatform {
+		excludeTags("loadtest")
+	}
+}
+
+tasks.register<Test>("loadTest") {
+	description = "Runs the load tests tagged with \"loadtest\"."
+	group = "verification"
+	testClassesDirs = sourceSets.test.get().output.classesDirs
+	classpath = sourceSets.test.get().runtimeClasspath
+	useJUnitPlatform {
+		includeTags("loadtest")
+	}
+	// The load is configured with loadtest.* system properties given to Gradle
+	System.getProperties()
+		.filterKeys { it.toString().startsWith("loadtest.") }
+		.forEach { (name, value) -> systemProperty(name.toString(), value) }
+	testLogging {
+		showStandardStreams = true
+	}
+}
@@ -1,29 +1,67 @@
 package org.varamadon.autorefactor.server.agent;
 
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.ASSISTANT;
 import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.USER;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
-import com.google.common.hash.Hashing;
-import java.nio.charset.StandardCharsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 import org.varamadon.autorefactor.server.agent.brain.AgentBrain;
 import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+import org.varamadon.autorefactor.server.agent.cache.ActionPlanCache;
+import org.varamadon.autorefactor.server.agent.cache.ActionPlanCacheKey;
+import org.varamadon.autorefactor.server.agent.content.ContentHashing;
+import org.varamadon.autorefactor.server.agent.content.FileContentStore;
+import org.varamadon.autorefactor.server.agent.content.LineIndex;
+import org.varamadon.autorefactor.server.agent.content.StoredFile;
+import org.varamadon.autorefactor.server.agent.context.ConversationWindow;
+import org.varamadon.autorefactor.server.agent.context.FileBatchPolicy;
+import org.varamadon.autorefactor.server.agent.events.BrainCallEvent;
+import org.varamadon.autorefactor.server.agent.events.FileFetchedEvent;
+import org.varamadon.autorefactor.server.agent.events.PlanAppliedEvent;
+import org.varamadon.autorefactor.server.agent.events.PlanDeserializedEvent;
+import org.varamadon.autorefactor.server.agent.events.RunFinishedEvent;
+import org.varamadon.autorefactor.server.agent.events.RunStartedEvent;
+import org.varamadon.autorefactor.server.agent.execution.RunExecutor;
+import org.varamadon.autorefactor.server.agent.execution.RunMode;
+import org.varamadon.autorefactor.server.agent.execution.RunSettings;
 import org.varamadon.autorefactor.server.agent.memory.MessageContext;
 import org.varamadon.autorefactor.server.agent.memory.RefactoringAgentMessagesStore;
+import org.varamadon.autorefactor.server.agent.metrics.AgentMetrics;
+import org.varamadon.autorefactor.server.agent.command.NonBlockingCommandExecutor;
 import org.varamadon.autorefactor.server.agent.command.RefactoringAgentCommandExecutor;
+import org.varamadon.autorefactor.server.agent.streaming.ActionPlanStreamParser;
+import org.varamadon.autorefactor.server.agent.validation.ActionPlanValidation;
+import org.varamadon.autorefactor.server.agent.validation.ActionPlanValidator;
+import org.varamadon.autorefactor.server.agent.validation.PruneReason;
 import org.varamadon.autorefactor.shared.model.ActionItem;
 import org.varamadon.autorefactor.shared.model.ActionPlan;
+import org.varamadon.autorefactor.shared.model.MultiFileActionPlan;
+import org.varamadon.autorefactor.shared.model.SourceFile;
 
 /**
  * RefactoringAgent is the main component responsible for orchestrating the process of analyzing and
@@ -32,16 +70,82 @@ import org.varamadon.autorefactor.shared.model.ActionPlan;
  *
  * <p>It calls an {@link AgentBrain} for getting the commands, uses a {@link
  * RefactoringAgentCommandExecutor} for executing them, and a {@link RefactoringAgentMessagesStore}
- * for managing message persistence and state.
+ * for managing message persistence and state. All the work of a run is scheduled on the mailbox of
+ * its repository in the {@link RunExecutor}, so different repositories are processed in parallel.
+ *
+ * <p>Action plans are cached in an {@link ActionPlanCache} by file content, so files that were
+ * already refactored with the same prompt and model are not sent to the brain again. If enabled by
+ * the {@link FileBatchPolicy}, several small files are sent to the brain in one prompt.
+ *
+ * <p>In {@link RunMode#PARALLEL} mode the agent fetches the files itself instead of waiting for the
+ * brain to ask for them, and plans several files concurrently, each in its own conversation. In
+ * {@link RunMode#PIPELINED} mode the next file is prefetched from the client while the brain is
+ * working, and action plans are applied in the background.
+ *
+ * <p>If streaming is enabled, single-file answers of the brain are parsed while they are being
+ * generated, and every action item is sent to the client as soon as it is complete.
+ *
+ * <p>Files are identified by the hashes sent by the client and held in the {@link
+ * FileContentStore}, which keeps identical contents of different repositories once.
+ *
+ * <p>Action items are checked against the content of their file by the {@link ActionPlanValidator}
+ * before they are cached or sent to the client, and the ones that can't be applied are pruned.
+ *
+ * <p>The duration of runs and files, brain calls, action items and tool requests are recorded in
+ * {@link AgentMetrics}. The stages of every run are also recorded as Flight Recorder events, such
+ * as {@link BrainCallEvent}, which cost next to nothing while no recording is running.
  */
 @Component
 public class RefactoringAgent {
+  private static final ImmutableSet<String> COMMANDS = ImmutableSet.of("nextFile", "finish");
+
   private final Logger log = LoggerFactory.getLogger(RefactoringAgent.class);
 
   private final AgentBrain agentBrain;
   private final RefactoringAgentCommandExecutor commandExecutor;
   private final RefactoringAgentMessagesStore messagesStore;
   private final ObjectMapper objectMapper;
+  private final RunExecutor runExecutor;
+  private final ConversationWindow conversationWindow;
+  private final ActionPlanCache actionPlanCache;
+  private final FileBatchPolicy fileBatchPolicy;
+  private final RunSettings runSettings;
+  private final AgentMetrics metrics;
+  private final ActionPlanValidator actionPlanValidator;
+  private final FileContentStore fileContentStore;
+
+  /**
+   * Files that were fetched from the client but didn't fit into the previous batch, by repository.
+   */
+  private final ConcurrentMap<String, SourceFile> carriedOverFiles = new ConcurrentHashMap<>();
+
+  /** Next files being fetched ahead in pipelined mode, by repository. */
+  private final ConcurrentMap<String, CompletableFuture<SourceFile>> prefetchedFiles =
+      new ConcurrentHashMap<>();
+
+  /**
+   * The last action plan applied in the background in pipelined mode or while streaming, by
+   * repository. Every new plan is chained after it, so plans are applied in the order of the files.
+   * In parallel mode it completes once all the plans forked so far are applied. The process
+   * finishes only after it completes.
+   */
+  private final ConcurrentMap<String, CompletableFuture<Void>> appliedPlans =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Action items of the current plan already checked while the plan was being streamed, by
+   * repository.
+   */
+  private final ConcurrentMap<String, StreamedItems> streamedItems = new ConcurrentHashMap<>();
+
+  /**
+   * Files being processed by repository and file hash, each holding a reference to the file in the
+   * {@link FileContentStore} until the plan of the file is applied. The client identifies files
+   * only by hash, so files with the same content, like empty or duplicated sources, are held once
+   * per file in the order they were fetched. The lists are replaced instead of being modified.
+   */
+  private final ConcurrentMap<String, Map<String, List<StoredFile>>> storedFiles =
+      new ConcurrentHashMap<>();
 
   /**
    * Thread pool used for listening to the message queue and scheduling the processing of assistant
@@ -49,9 +153,6 @@ public class RefactoringAgent {
    */
   private final ExecutorService queueListeningService = Executors.newSingleThreadExecutor();
 
-  /** Thread pool used for processing assistant messages. */
-  private final ExecutorService messagesProcessingService = Executors.newSingleThreadExecutor();
-
   /**
    * Creates a new instance of the RefactoringAgent.
    *
@@ -59,16 +160,40 @@ public class RefactoringAgent {
    * @param commandExecutor the executor that handles command execution for refactoring tasks.
    * @param messagesStore the store managing message persistence and state.
    * @param objectMapper the JSON mapper for serializing and deserializing messages.
+   * @param runExecutor the executor that schedules the work of each run on its repository mailbox.
+   * @param conversationWindow the policy selecting which part of the history is sent to the brain.
+   * @param actionPlanCache the cache of action plans generated for already seen file contents.
+   * @param fileBatchPolicy the policy deciding which files are sent to the brain together.
+   * @param runSettings the settings of how the files of a run are processed.
+   * @param metrics the metrics of the stages of the runs.
+   * @param actionPlanValidator the validator pruning action items that can't be applied.
+   * @param fileContentStore the store sharing the contents of the files between the runs.
    */
   public RefactoringAgent(
       AgentBrain agentBrain,
       RefactoringAgentCommandExecutor commandExecutor,
       RefactoringAgentMessagesStore messagesStore,
-      ObjectMapper objectMapper) {
+      ObjectMapper objectMapper,
+      RunExecutor runExecutor,
+      ConversationWindow conversationWindow,
+      ActionPlanCache actionPlanCache,
+      FileBatchPolicy fileBatchPolicy,
+      RunSettings runSettings,
+      AgentMetrics metrics,
+      ActionPlanValidator actionPlanValidator,
+      FileContentStore fileContentStore) {
     this.agentBrain = agentBrain;
     this.commandExecutor = commandExecutor;
     this.messagesStore = messagesStore;
     this.objectMapper = objectMapper;
+    this.runExecutor = runExecutor;
+    this.conversationWindow = conversationWindow;
+    this.actionPlanCache = actionPlanCache;
+    this.fileBatchPolicy = fileBatchPolicy;
+    this.runSettings = runSettings;
+    this.metrics = metrics;
+    this.actionPlanValidator = actionPlanValidator;
+    this.fileContentStore = fileContentStore;
     startProcessingAssistantMessages();
   }
 
@@ -79,17 +204,133 @@ public class RefactoringAgent {
    * @param repositoryId the unique identifier of the repository to process.
    */
   public void startProcess(String repositoryId) {
-    messagesProcessingService.submit(
+    metrics.recordRunStarted(repositoryId);
+    new RunStartedEvent().commit(repositoryId, runSettings.getRunMode().name());
+    if (runSettings.getRunMode() == RunMode.PARALLEL) {
+      startParallelProcess(repositoryId);
+      return;
+    }
+    if (isPipelined()) {
+      prefetchNextFile(repositoryId);
+    }
+    runExecutor.execute(
+        repositoryId,
         () -> {
           log.info("Starting process for repository {}", repositoryId);
-          messagesStore.storeMessage(repositoryId, agentBrain.getSystemStartMessage());
+          messagesStore.storeMessage(repositoryId, getSystemStartMessage());
           callBrain(repositoryId, "");
         });
   }
 
+  /**
+   * Processes the repository without asking the brain for the next file. Files are fetched one by
+   * one and up to the configured parallelism of them are planned concurrently, each in its own
+   * conversation with the brain. Plans are applied one by one on the mailbox of the repository, so
+   * the client never applies two plans at the same time, and the process finishes after all of
+   * them are applied.
+   */
+  private void startParallelProcess(String repositoryId) {
+    log.info("Starting parallel process for repository {}", repositoryId);
+    runExecutor
+        .fork(repositoryId, () -> planFilesInParallel(repositoryId))
+        .thenCompose(allPlansApplied -> allPlansApplied)
+        .whenComplete(
+            (ignored, e) -> {
+              if (e != null) {
+                log.error("Error processing repository {} in parallel", repositoryId, e);
+              }
+              runExecutor.execute(repositoryId, () -> finishProcess(repositoryId));
+            });
+  }
+
+  /**
+   * Fetches all files of the repository and forks planning of each of them. Every forked plan is
+   * registered in {@link #appliedPlans} as soon as it is forked. Returns a future that completes
+   * when all the plans are applied.
+   */
+  private CompletableFuture<Void> planFilesInParallel(String repositoryId) {
+    Semaphore planningPermits = new Semaphore(runSettings.getParallelism());
+    List<CompletableFuture<Void>> filePlans = new ArrayList<>();
+    while (true) {
+      planningPermits.acquireUninterruptibly();
+      FileFetchedEvent fileFetchedEvent = new FileFetchedEvent();
+      fileFetchedEvent.begin();
+      SourceFile file = commandExecutor.executeNextFileCommand(repositoryId);
+      if (file.isEmpty()) {
+        planningPermits.release();
+        break;
+      }
+      String fileHash = file.hash();
+      fileFetchedEvent.commit(repositoryId, fileHash, file.content());
+      metrics.recordFileStarted(repositoryId, fileHash);
+      StoredFile storedFile = storeFile(repositoryId, file);
+      CompletableFuture<Void> appliedPlan =
+          runExecutor
+              .fork(repositoryId, () -> planFile(repositoryId, storedFile))
+              .whenComplete((ignored, e) -> planningPermits.release())
+              .thenCompose(actionItems -> applyOnMailbox(repositoryId, fileHash, actionItems))
+              .exceptionally(
+                  e -> {
+                    log.error(
+                        "Error processing file {} of repository {}", fileHash, repositoryId, e);
+                    return null;
+                  });
+      filePlans.add(appliedPlan);
+      appliedPlans.merge(repositoryId, appliedPlan, CompletableFuture::allOf);
+    }
+    return CompletableFuture.allOf(filePlans.toArray(CompletableFuture<?>[]::new));
+  }
+
+  /** Generates an action plan for a single file in a new conversation with the brain. */
+  private ImmutableList<ActionItem> planFile(String repositoryId, StoredFile storedFile) {
+    String fileHash = storedFile.getHash();
+    ImmutableList<BrainMessage> messages = getSingleFilePrompt(storedFile);
+    String model = agentBrain.getModelName(messages);
+    ActionPlanCacheKey cacheKey = getActionPlanCacheKey(fileHash, model);
+    Optional<ImmutableList<ActionItem>> cachedActionItems = actionPlanCache.get(cacheKey);
+    if (cachedActionItems.isPresent()) {
+      return cachedActionItems.get();
+    }
+    BrainMessage answer =
+        callBrainAndRecord(
+            repositoryId, fileHash, model, messages, () -> agentBrain.getNextAnswer(messages));
+    Optional<ImmutableList<ActionItem>> actionItems =
+        deserializeActionPlan(repositoryId, fileHash, model, answer.content())
+            .map(it -> actionPlanValidator.validate(Optional.of(storedFile.getLineIndex()), it));
+    actionItems.ifPresent(it -> cacheActionPlan(repositoryId, cacheKey, it));
+    return actionItems.orElse(ImmutableList.of());
+  }
+
+  /** Returns the prompt of a file planned in a new conversation with the brain. */
+  private ImmutableList<BrainMessage> getSingleFilePrompt(StoredFile storedFile) {
+    return ImmutableList.of(
+        getSystemStartMessage(),
+        new BrainMessage(ASSISTANT, "nextFile"),
+        getUserNextFileMessage(storedFile));
+  }
+
+  private CompletableFuture<Void> applyOnMailbox(
+      String repositoryId, String fileHash, ImmutableList<ActionItem> actionItems) {
+    CompletableFuture<Void> appliedPlan = new CompletableFuture<>();
+    runExecutor.execute(
+        repositoryId,
+        () -> {
+          try {
+            log.info("Executing action plan for repository {}", repositoryId);
+            sendActionPlan(repositoryId, new ActionPlan(fileHash, actionItems));
+            completeFile(repositoryId, fileHash);
+            appliedPlan.complete(null);
+          } catch (Exception e) {
+            appliedPlan.completeExceptionally(e);
+          }
+        });
+    return appliedPlan;
+  }
+
   /**
    * Starts the thread responsible for listening to the message queue and scheduling the processing
-   * of any pending assistant messages. This method runs indefinitely until interrupted.
+   * of any pending assistant messages on the mailbox of their repository. This method runs
+   * indefinitely until interrupted.
    */
   private void startProcessingAssistantMessages() {
     queueListeningService.submit(
@@ -105,16 +346,16 @@ public class RefactoringAgent {
     Pair<BrainMessage, MessageContext> nextMessage =
         messagesStore.awaitNextPendingMessageWithContext();
     log.debug("Processing next assistant message");
-    messagesProcessingService.submit(
+    runExecutor.execute(
+        nextMessage.getValue().repositoryId(),
         () -> {
           try {
-            handleAssistantMessage(
-                nextMessage.getKey(),
-                nextMessage.getValue().repositoryId(),
-                nextMessage.getValue().fileHash());
+            handleAssistantMessage(nextMessage.getKey(), nextMessage.getValue());
           } catch (Exception e) {
             log.error("Error processing assistant message", e);
             finishProcess(nextMessage.getValue().repositoryId());
+          } finally {
+            messagesStore.acknowledgePendingMessage(nextMessage);
           }
         });
   }
@@ -123,12 +364,13 @@ public class RefactoringAgent {
    * Handles incoming messages from the assistant and executes corresponding actions.
    *
    * @param message The BrainMessage object containing the message content.
-   * @param repositoryId The identifier for the repository being processed.
-   * @param currentFileHash The hash of the current file being processed. If it's blank, it means
-   *     next file should be requested or the process has finished.
+   * @param context The context of the message with the identifier for the repository being
+   *     processed and the hash of the current file or the hashes of the current batch of files. If
+   *     they are blank, it means next file should be requested or the process has finished.
    */
-  private void handleAssistantMessage(
-      BrainMessage message, String repositoryId, String currentFileHash) {
+  private void handleAssistantMessage(BrainMessage message, MessageContext context) {
+    String repositoryId = context.repositoryId();
+    String currentFileHash = context.fileHash();
     String messageContent = message.content();
     log.debug("Got message content {}", messageContent);
     if (Objects.equals(messageContent, "finish")) {
@@ -136,59 +378,681 @@ public class RefactoringAgent {
       return;
     }
     if (Objects.equals(messageContent, "nextFile")) {
-      executeNextFileCommand(repositoryId);
+      if (isBatching()) {
+        executeNextFilesCommand(repositoryId);
+      } else {
+        executeNextFileCommand(repositoryId);
+      }
+    } else if (!context.fileHashes().isEmpty()) { // Must be a multi-file action plan
+      executeMultiFileActionPlanCommand(
+          repositoryId, messageContent, context.fileHashes(), context.model());
     } else { // Must be an action plan
       if (currentFileHash.isBlank()) {
         // Either there is inconsistency between the brain and the server, or the brain sent an
         // unknown command
         throw new IllegalStateException("Got action plan for unknown file hash or unknown command");
       }
-      ImmutableList<ActionItem> actionItems = deserializeActionPlan(messageContent);
-      ActionPlan actionPlan = new ActionPlan(currentFileHash, actionItems);
+      Optional<ImmutableList<ActionItem>> actionItems =
+          deserializeActionPlan(repositoryId, currentFileHash, context.model(), messageContent);
+      ActionPlanCacheKey cacheKey = getActionPlanCacheKey(currentFileHash, context.model());
+      StreamedItems streamed = streamedItems.remove(repositoryId);
+      if (streamed != null) {
+        executeStreamedActionPlanCommand(
+            repositoryId, currentFileHash, cacheKey, actionItems, streamed);
+        return;
+      }
+      Optional<ImmutableList<ActionItem>> validActionItems =
+          actionItems.map(
+              it -> actionPlanValidator.validate(getLineIndex(repositoryId, currentFileHash), it));
+      validActionItems.ifPresent(it -> cacheActionPlan(repositoryId, cacheKey, it));
+      ActionPlan actionPlan =
+          new ActionPlan(currentFileHash, validActionItems.orElse(ImmutableList.of()));
       executeActionPlanCommand(repositoryId, actionPlan);
     }
   }
 
   private void executeNextFileCommand(String repositoryId) {
     log.info("Executing next file command for repository {}", repositoryId);
-    String fileContent = commandExecutor.executeNextFileCommand(repositoryId);
-    String fileHash = Hashing.sha256().hashString(fileContent, StandardCharsets.UTF_8).toString();
-    messagesStore.storeMessage(repositoryId, getUserNextFileMessage(fileContent));
-    callBrain(repositoryId, fileHash);
+    FileFetchedEvent fileFetchedEvent = new FileFetchedEvent();
+    fileFetchedEvent.begin();
+    SourceFile file = takeNextFile(repositoryId);
+    String fileHash = file.hash();
+    if (file.isEmpty()) {
+      messagesStore.storeMessage(repositoryId, new BrainMessage(USER, ""));
+      callBrain(repositoryId, fileHash);
+      return;
+    }
+    fileFetchedEvent.commit(repositoryId, fileHash, file.content());
+    metrics.recordFileStarted(repositoryId, fileHash);
+    StoredFile storedFile = storeFile(repositoryId, file);
+    messagesStore.storeMessage(repositoryId, getUserNextFileMessage(storedFile));
+    List<BrainMessage> messages = getPrompt(repositoryId);
+    ActionPlanCacheKey cacheKey =
+        getActionPlanCacheKey(fileHash, agentBrain.getModelName(messages));
+    Optional<ImmutableList<ActionItem>> cachedActionItems = actionPlanCache.get(cacheKey);
+    if (cachedActionItems.isPresent()) {
+      executeCachedActionPlanCommand(repositoryId, fileHash, cachedActionItems.get());
+      return;
+    }
+    callBrain(new MessageContext(repositoryId, fileHash), messages);
+  }
+
+  /**
+   * Returns the next file of the repository. In pipelined mode the file is taken from the
+   * prefetched file, and the file after it is prefetched while the brain generates the plan for
+   * this one.
+   */
+  private SourceFile takeNextFile(String repositoryId) {
+    if (!isPipelined()) {
+      return commandExecutor.executeNextFileCommand(repositoryId);
+    }
+    CompletableFuture<SourceFile> prefetchedFile = prefetchedFiles.remove(repositoryId);
+    SourceFile file =
+        prefetchedFile != null
+            ? prefetchedFile.join()
+            : commandExecutor.executeNextFileCommand(repositoryId);
+    if (!file.isEmpty()) {
+      prefetchNextFile(repositoryId);
+    }
+    return file;
+  }
+
+  private void prefetchNextFile(String repositoryId) {
+    prefetchedFiles.put(repositoryId, executeNextFileCommandAsync(repositoryId));
+  }
+
+  /**
+   * Fetches the next batch of files according to the {@link FileBatchPolicy} and sends it to the
+   * brain in one message. Files with cached action plans are refactored right away and are not
+   * sent. A file that doesn't fit into the batch is carried over to the next one.
+   */
+  private void executeNextFilesCommand(String repositoryId) {
+    log.info("Executing next files command for repository {}", repositoryId);
+    List<StoredFile> batchFiles = new ArrayList<>();
+    List<String> fileHashes = new ArrayList<>();
+    int batchTokens = 0;
+    while (batchFiles.size() < fileBatchPolicy.getMaxFiles()) {
+      FileFetchedEvent fileFetchedEvent = new FileFetchedEvent();
+      fileFetchedEvent.begin();
+      SourceFile file = fetchNextFile(repositoryId);
+      if (file.isEmpty()) {
+        break;
+      }
+      String fileContent = file.content();
+      if (!batchFiles.isEmpty() && !fileBatchPolicy.fits(batchTokens, fileContent)) {
+        carriedOverFiles.put(repositoryId, file);
+        break;
+      }
+      String fileHash = file.hash();
+      fileFetchedEvent.commit(repositoryId, fileHash, fileContent);
+      metrics.recordFileStarted(repositoryId, fileHash);
+      StoredFile storedFile = storeFile(repositoryId, file);
+      // The model of the batch is not known yet, the file is looked up as if it was sent alone
+      String model = agentBrain.getModelName(getSingleFilePrompt(storedFile));
+      Optional<ImmutableList<ActionItem>> cachedActionItems =
+          actionPlanCache.get(getActionPlanCacheKey(fileHash, model));
+      if (cachedActionItems.isPresent()) {
+        log.info("Executing cached action plan for repository {}", repositoryId);
+        sendActionPlan(repositoryId, new ActionPlan(fileHash, cachedActionItems.get()));
+        completeFile(repositoryId, fileHash);
+        continue;
+      }
+      batchFiles.add(storedFile);
+      fileHashes.add(fileHash);
+      batchTokens += fileBatchPolicy.estimateTokens(fileContent);
+      if (!fileBatchPolicy.isSmall(fileContent)) {
+        break;
+      }
+    }
+    messagesStore.storeMessage(repositoryId, getUserNextFilesMessage(batchFiles));
+    callBrain(repositoryId, new MessageContext(repositoryId, "", ImmutableList.copyOf(fileHashes)));
+  }
+
+  private SourceFile fetchNextFile(String repositoryId) {
+    SourceFile carriedOverFile = carriedOverFiles.remove(repositoryId);
+    if (carriedOverFile != null) {
+      return carriedOverFile;
+    }
+    return commandExecutor.executeNextFileCommand(repositoryId);
+  }
+
+  private void executeMultiFileActionPlanCommand(
+      String repositoryId, String multiFileActionPlan, List<String> fileHashes, String model) {
+    log.info(
+        "Executing action plans for {} files of repository {}", fileHashes.size(), repositoryId);
+    List<ActionPlan> actionPlans =
+        deserializeMultiFileActionPlan(repositoryId, model, multiFileActionPlan)
+            .map(it -> it.split(fileHashes))
+            .orElse(List.of());
+    for (ActionPlan splitActionPlan : actionPlans) {
+      String fileHash = splitActionPlan.fileHash();
+      metrics.recordActionItems(repositoryId, model, splitActionPlan.actionItems());
+      ImmutableList<ActionItem> actionItems =
+          actionPlanValidator.validate(
+              getLineIndex(repositoryId, fileHash), splitActionPlan.actionItems());
+      cacheActionPlan(repositoryId, getActionPlanCacheKey(fileHash, model), actionItems);
+      if (!actionItems.isEmpty()) {
+        sendActionPlan(repositoryId, new ActionPlan(fileHash, actionItems));
+      }
+      completeFile(repositoryId, fileHash);
+    }
+    callBrain(repositoryId, "");
   }
 
   private void executeActionPlanCommand(String repositoryId, ActionPlan actionPlan) {
-    log.info("Executing action plan for repository {}", repositoryId);
-    commandExecutor.executeActionPlanCommand(repositoryId, actionPlan);
+    applyActionPlan(repositoryId, actionPlan);
     callBrain(repositoryId, "");
   }
 
+  /**
+   * Applies the valid items of a streamed action plan that were not checked while the plan was
+   * being generated. They are validated together with the streamed items, and all the valid items
+   * of the plan are cached. Outside of pipelined mode waits until the whole plan is applied.
+   */
+  private void executeStreamedActionPlanCommand(
+      String repositoryId,
+      String fileHash,
+      ActionPlanCacheKey cacheKey,
+      Optional<ImmutableList<ActionItem>> actionItems,
+      StreamedItems streamed) {
+    ImmutableList<ActionItem> planItems = actionItems.orElse(ImmutableList.of());
+    log.info(
+        "Streamed {} of {} action items for repository {}",
+        streamed.count(),
+        planItems.size(),
+        repositoryId);
+    ActionPlanValidation validation = streamed.validation();
+    List<ActionItem> remainingItems = new ArrayList<>();
+    int checkedCount = Math.min(streamed.count(), planItems.size());
+    for (ActionItem actionItem : planItems.subList(checkedCount, planItems.size())) {
+      if (validation.check(actionItem).isEmpty()) {
+        remainingItems.add(actionItem);
+      }
+    }
+    if (!remainingItems.isEmpty()) {
+      applyInBackground(repositoryId, new ActionPlan(fileHash, remainingItems));
+    }
+    if (actionItems.isPresent()) {
+      cacheActionPlan(repositoryId, cacheKey, validation.getAcceptedItems());
+    }
+    if (!isPipelined()) {
+      awaitAppliedPlans(repositoryId);
+    }
+    recordFileCompletedAfterAppliedPlans(repositoryId, fileHash);
+    callBrain(repositoryId, "");
+  }
+
+  /**
+   * Applies the action plan on the client. In pipelined mode the plan is applied in the background
+   * after the previous plans of the repository, and this method returns right away.
+   */
+  private void applyActionPlan(String repositoryId, ActionPlan actionPlan) {
+    if (!isPipelined()) {
+      log.info("Executing action plan for repository {}", repositoryId);
+      sendActionPlan(repositoryId, actionPlan);
+      completeFile(repositoryId, actionPlan.fileHash());
+      return;
+    }
+    applyInBackground(repositoryId, actionPlan);
+    recordFileCompletedAfterAppliedPlans(repositoryId, actionPlan.fileHash());
+  }
+
+  /** Applies the action plan on the client after the previous plans of the repository. */
+  private void applyInBackground(String repositoryId, ActionPlan actionPlan) {
+    appliedPlans.compute(
+        repositoryId,
+        (ignored, previousPlan) ->
+            (previousPlan == null ? CompletableFuture.<Void>completedFuture(null) : previousPlan)
+                .thenCompose(it -> executeActionPlanCommandAsync(repositoryId, actionPlan))
+                .exceptionally(
+                    e -> {
+                      log.error(
+                          "Error executing action plan for file {} of repository {}",
+                          actionPlan.fileHash(),
+                          repositoryId,
+                          e);
+                      return null;
+                    }));
+  }
+
+  /** Records the file as completed once the plans applied in the background so far are applied. */
+  private void recordFileCompletedAfterAppliedPlans(String repositoryId, String fileHash) {
+    appliedPlans.compute(
+        repositoryId,
+        (ignored, previousPlan) ->
+            (previousPlan == null ? CompletableFuture.<Void>completedFuture(null) : previousPlan)
+                .thenRun(() -> completeFile(repositoryId, fileHash)));
+  }
+
+  /**
+   * Holds a file that is being processed in the {@link FileContentStore}. A repository holds one
+   * reference to every file it is processing, even if another file has the same hash.
+   */
+  private StoredFile storeFile(String repositoryId, SourceFile file) {
+    StoredFile storedFile = fileContentStore.acquire(repositoryId, file);
+    storedFiles
+        .computeIfAbsent(repositoryId, ignored -> new ConcurrentHashMap<>())
+        .merge(
+            file.hash(),
+            List.of(storedFile),
+            (stored, added) -> ImmutableList.copyOf(Iterables.concat(stored, added)));
+    return storedFile;
+  }
+
+  /** Returns the line index of a file whose plan is not applied yet. */
+  @VisibleForTesting
+  Optional<LineIndex> getLineIndex(String repositoryId, String fileHash) {
+    return getStoredFile(repositoryId, fileHash).map(StoredFile::getLineIndex);
+  }
+
+  /** Returns the first file with the given hash whose plan is not applied yet. */
+  private Optional<StoredFile> getStoredFile(String repositoryId, String fileHash) {
+    Map<String, List<StoredFile>> storedFilesByHash = storedFiles.get(repositoryId);
+    List<StoredFile> files = storedFilesByHash == null ? null : storedFilesByHash.get(fileHash);
+    return files == null ? Optional.empty() : Optional.of(files.get(0));
+  }
+
+  /**
+   * Records that the plan of the first file with the given hash is applied and releases the file.
+   */
+  private void completeFile(String repositoryId, String fileHash) {
+    Map<String, List<StoredFile>> storedFilesByHash = storedFiles.get(repositoryId);
+    if (storedFilesByHash != null) {
+      AtomicReference<StoredFile> completedFile = new AtomicReference<>();
+      storedFilesByHash.computeIfPresent(
+          fileHash,
+          (ignored, files) -> {
+            completedFile.set(files.get(0));
+            return files.size() == 1 ? null : files.subList(1, files.size());
+          });
+      if (completedFile.get() != null) {
+        fileContentStore.release(completedFile.get());
+      }
+    }
+    metrics.recordFileCompleted(repositoryId, fileHash, agentBrain.getModelName());
+  }
+
+  /**
+   * Executes an action plan found in the cache without calling the brain. The plan is recorded in
+   * the history as if the brain answered with it. The brain always asks for the next file after an
+   * action plan, so that answer is recorded and scheduled right away as well.
+   */
+  private void executeCachedActionPlanCommand(
+      String repositoryId, String fileHash, ImmutableList<ActionItem> actionItems) {
+    log.info("Using cached action plan for repository {}", repositoryId);
+    messagesStore.storeMessage(
+        repositoryId, new BrainMessage(ASSISTANT, serializeActionPlan(actionItems)));
+    applyActionPlan(repositoryId, new ActionPlan(fileHash, actionItems));
+    storeAssistantMessage(repositoryId, new BrainMessage(ASSISTANT, "nextFile"), "");
+  }
+
   private void callBrain(String repositoryId, String fileHash) {
-    ImmutableList<BrainMessage> messages = messagesStore.getMessages(repositoryId);
-    BrainMessage message = agentBrain.getNextAnswer(messages);
-    messagesStore.storeMessage(repositoryId, message);
-    messagesStore.storePendingMessageWithContext(
-        Pair.of(message, new MessageContext(repositoryId, fileHash)));
+    callBrain(repositoryId, new MessageContext(repositoryId, fileHash));
+  }
+
+  private void callBrain(String repositoryId, MessageContext context) {
+    callBrain(context, getPrompt(repositoryId));
+  }
+
+  /** Returns the part of the history of the repository that is sent to the brain. */
+  private List<BrainMessage> getPrompt(String repositoryId) {
+    return conversationWindow.apply(messagesStore.getMessages(repositoryId));
+  }
+
+  private void callBrain(MessageContext context, List<BrainMessage> messages) {
+    String repositoryId = context.repositoryId();
+    String model = agentBrain.getModelName(messages);
+    BrainMessage message =
+        callBrainAndRecord(
+            repositoryId,
+            context.fileHash(),
+            model,
+            messages,
+            () ->
+                isStreaming(context)
+                    ? streamBrainAnswer(repositoryId, context.fileHash(), messages)
+                    : agentBrain.getNextAnswer(messages));
+    storeAssistantMessage(message, context.withModel(model));
+  }
+
+  /**
+   * Calls the brain, recording the call in the metrics and as a {@link BrainCallEvent} for the
+   * model the prompt is sent to.
+   */
+  private BrainMessage callBrainAndRecord(
+      String repositoryId,
+      String fileHash,
+      String model,
+      List<BrainMessage> messages,
+      Supplier<BrainMessage> brainCall) {
+    BrainCallEvent event = new BrainCallEvent();
+    event.begin();
+    long startNanos = System.nanoTime();
+    BrainMessage answer = brainCall.get();
+    long latencyNanos = System.nanoTime() - startNanos;
+    event.end();
+    int promptTokens = metrics.estimateTokens(messages);
+    int answerTokens = metrics.estimateTokens(answer);
+    metrics.recordBrainCall(repositoryId, model, promptTokens, answerTokens, latencyNanos);
+    event.commit(repositoryId, fileHash, model, messages, answer, promptTokens, answerTokens);
+    return answer;
+  }
+
+  /**
+   * Streams the answer of the brain for a single file. Every valid action item is sent to the
+   * client in the background as soon as it is generated. Once an item can't be deserialized on its
+   * own, it and the items after it are left for the complete plan.
+   */
+  private BrainMessage streamBrainAnswer(
+      String repositoryId, String fileHash, List<BrainMessage> messages) {
+    ActionPlanValidation validation =
+        actionPlanValidator.newValidation(getLineIndex(repositoryId, fileHash));
+    AtomicInteger streamedItemCount = new AtomicInteger();
+    AtomicBoolean streamingItems = new AtomicBoolean(true);
+    ActionPlanStreamParser parser =
+        new ActionPlanStreamParser(
+            COMMANDS,
+            itemJson -> {
+              if (!streamingItems.get()) {
+                return;
+              }
+              Optional<ActionItem> actionItem = deserializeActionItem(itemJson);
+              if (actionItem.isEmpty()) {
+                streamingItems.set(false);
+                return;
+              }
+              streamedItemCount.incrementAndGet();
+              if (validation.check(actionItem.get()).isEmpty()) {
+                applyInBackground(
+                    repositoryId, new ActionPlan(fileHash, List.of(actionItem.get())));
+              }
+            });
+    BrainMessage message = agentBrain.streamNextAnswer(messages, parser);
+    if (parser.isActionPlan()) {
+      streamedItems.put(repositoryId, new StreamedItems(streamedItemCount.get(), validation));
+    }
+    return message;
+  }
+
+  /** Only single-file answers are streamed, in the modes where the brain asks for files. */
+  private boolean isStreaming(MessageContext context) {
+    return runSettings.isStreaming()
+        && runSettings.getRunMode() != RunMode.PARALLEL
+        && !context.fileHash().isBlank()
+        && context.fileHashes().isEmpty();
+  }
+
+  private void storeAssistantMessage(String repositoryId, BrainMessage message, String fileHash) {
+    storeAssistantMessage(message, new MessageContext(repositoryId, fileHash));
+  }
+
+  /** Stores the given assistant message in the history and schedules its processing. */
+  private void storeAssistantMessage(BrainMessage message, MessageContext context) {
+    messagesStore.storeMessage(context.repositoryId(), message);
+    messagesStore.storePendingMessageWithContext(Pair.of(message, context));
+  }
+
+  /** Files are only sent in batches in {@link RunMode#SERIAL} mode. */
+  private boolean isBatching() {
+    return fileBatchPolicy.isEnabled() && runSettings.getRunMode() == RunMode.SERIAL;
+  }
+
+  /**
+   * Executes the next file command without blocking the caller. A non-blocking command executor
+   * is used directly, otherwise the command is forked.
+   */
+  private CompletableFuture<SourceFile> executeNextFileCommandAsync(String repositoryId) {
+    if (commandExecutor instanceof NonBlockingCommandExecutor nonBlockingCommandExecutor) {
+      return nonBlockingCommandExecutor.executeNextFileCommandAsync(repositoryId);
+    }
+    return runExecutor.fork(
+        repositoryId, () -> commandExecutor.executeNextFileCommand(repositoryId));
+  }
+
+  /**
+   * Executes the action plan command without blocking the caller. A non-blocking command executor
+   * is used directly, otherwise the command is forked.
+   */
+  private CompletableFuture<Void> executeActionPlanCommandAsync(
+      String repositoryId, ActionPlan actionPlan) {
+    log.info("Executing action plan for repository {}", repositoryId);
+    if (commandExecutor instanceof NonBlockingCommandExecutor nonBlockingCommandExecutor) {
+      PlanAppliedEvent event = new PlanAppliedEvent();
+      event.begin();
+      int actionItemsCount = actionPlan.actionItems().size();
+      return nonBlockingCommandExecutor
+          .executeActionPlanCommandAsync(repositoryId, actionPlan)
+          .whenComplete(
+              (ignored, e) ->
+                  event.commit(repositoryId, actionPlan.fileHash(), actionItemsCount, e == null));
+    }
+    return runExecutor.fork(
+        repositoryId,
+        () -> {
+          sendActionPlan(repositoryId, actionPlan);
+          return null;
+        });
+  }
+
+  /** Sends the action plan to the client and waits until it is applied. */
+  private void sendActionPlan(String repositoryId, ActionPlan actionPlan) {
+    PlanAppliedEvent event = new PlanAppliedEvent();
+    event.begin();
+    boolean succeeded = false;
+    try {
+      commandExecutor.executeActionPlanCommand(repositoryId, actionPlan);
+      succeeded = true;
+    } finally {
+      event.commit(repositoryId, actionPlan.fileHash(), actionPlan.actionItems().size(), succeeded);
+    }
+  }
+
+  private void awaitAppliedPlans(String repositoryId) {
+    CompletableFuture<Void> lastAppliedPlan = appliedPlans.get(repositoryId);
+    if (lastAppliedPlan != null) {
+      lastAppliedPlan.join();
+    }
+  }
+
+  private boolean isPipelined() {
+    return runSettings.getRunMode() == RunMode.PIPELINED;
+  }
+
+  private BrainMessage getSystemStartMessage() {
+    return isBatching()
+        ? agentBrain.getMultiFileSystemStartMessage()
+        : agentBrain.getSystemStartMessage();
+  }
+
+  /**
+   * Returns the key of the plan of the file generated by the given model. Plans are looked up with
+   * the hash sent by the client, so a client sending a wrong hash only gets a plan that doesn't fit
+   * its own file.
+   */
+  private ActionPlanCacheKey getActionPlanCacheKey(String fileHash, String model) {
+    String systemPrompt = getSystemStartMessage().content();
+    String systemPromptHash = ContentHashing.sha256(systemPrompt);
+    return new ActionPlanCacheKey(fileHash, systemPromptHash, model);
+  }
+
+  /**
+   * Caches the plan of a file of the repository. The cache is shared by all the repositories, so
+   * the hash of the file is checked against its content first, see {@link
+   * StoredFile#matchesHash()}, and the plan of a file whose hash doesn't match is cached under a
+   * key that is valid only within its repository.
+   */
+  private void cacheActionPlan(
+      String repositoryId, ActionPlanCacheKey cacheKey, ImmutableList<ActionItem> actionItems) {
+    if (!actionPlanCache.isEnabled()) {
+      return;
+    }
+    boolean matchesHash =
+        getStoredFile(repositoryId, cacheKey.fileHash()).map(StoredFile::matchesHash).orElse(false);
+    ActionPlanCacheKey sharedCacheKey =
+        matchesHash
+            ? cacheKey
+            : new ActionPlanCacheKey(
+                ContentHashing.sha256(repositoryId + "\n" + cacheKey.fileHash()),
+                cacheKey.systemPromptHash(),
+                cacheKey.modelName());
+    actionPlanCache.put(sharedCacheKey, actionItems);
   }
 
   private void finishProcess(String repositoryId) {
     log.info("Finishing process for repository {}", repositoryId);
+    RunFinishedEvent event = new RunFinishedEvent();
+    event.begin();
     messagesStore.deleteMessages(repositoryId);
+    carriedOverFiles.remove(repositoryId);
+    CompletableFuture<SourceFile> prefetchedFile = prefetchedFiles.remove(repositoryId);
+    if (prefetchedFile != null) {
+      prefetchedFile.cancel(false);
+    }
+    awaitAppliedPlans(repositoryId);
+    appliedPlans.remove(repositoryId);
+    streamedItems.remove(repositoryId);
+    releaseFiles(repositoryId);
     commandExecutor.executeFinishCommand(repositoryId);
+    metrics.recordRunFinished(repositoryId, agentBrain.getModelName());
+    event.commit(repositoryId);
+    runExecutor.release(repositoryId);
+  }
+
+  /** Releases the files of the repository whose plans were not applied. */
+  private void releaseFiles(String repositoryId) {
+    Map<String, List<StoredFile>> storedFilesByHash = storedFiles.remove(repositoryId);
+    if (storedFilesByHash == null) {
+      return;
+    }
+    for (String fileHash : storedFilesByHash.keySet()) {
+      List<StoredFile> files = storedFilesByHash.remove(fileHash);
+      if (files != null) {
+        files.forEach(fileContentStore::release);
+      }
+    }
   }
 
-  private ImmutableList<ActionItem> deserializeActionPlan(String plan) {
+  /** Deserializes the given action plan, returns empty if it is in the wrong format. */
+  private Optional<ImmutableList<ActionItem>> deserializeActionPlan(
+      String repositoryId, String fileHash, String model, String plan) {
+    PlanDeserializedEvent event = new PlanDeserializedEvent();
+    event.begin();
     try {
-      List<ActionItem> actionPlan = objectMapper.readValue(plan, new TypeReference<>() {});
-      return ImmutableList.copyOf(actionPlan);
+      ImmutableList<ActionItem> actionItems = readActionPlan(objectMapper, plan);
+      event.commit(repositoryId, fileHash, plan, actionItems.size(), true);
+      metrics.recordActionItems(repositoryId, model, actionItems);
+      return Optional.of(actionItems);
     } catch (JsonProcessingException e) {
+      Optional<ImmutableList<ActionItem>> actionItems = salvageActionPlan(plan);
+      event.commit(repositoryId, fileHash, plan, actionItems.map(List::size).orElse(0), false);
+      if (actionItems.isPresent()) {
+        log.warn("Brain provided action plan with items in the wrong format, pruning them");
+        metrics.recordActionItems(repositoryId, model, actionItems.get());
+        return actionItems;
+      }
       log.error("Brain provided action plan in the wrong format, returning empty plan");
-      return ImmutableList.of();
+      metrics.recordPlanParseFailure(repositoryId, model);
+      return Optional.empty();
     }
   }
 
-  private BrainMessage getUserNextFileMessage(String fileContent) {
-    return new BrainMessage(USER, appendLineNumbers(fileContent));
+  /**
+   * Reads the items of an action plan that couldn't be deserialized as a whole one by one, pruning
+   * the ones in the wrong format. Returns empty if validation is disabled, the plan is not a JSON
+   * array, or none of its items could be read.
+   */
+  private Optional<ImmutableList<ActionItem>> salvageActionPlan(String plan) {
+    if (!actionPlanValidator.isEnabled()) {
+      return Optional.empty();
+    }
+    JsonNode items;
+    try {
+      items = objectMapper.readTree(plan);
+    } catch (JsonProcessingException e) {
+      return Optional.empty();
+    }
+    if (items == null || !items.isArray()) {
+      return Optional.empty();
+    }
+    ImmutableList.Builder<ActionItem> actionItems = ImmutableList.builder();
+    int malformedCount = 0;
+    for (JsonNode item : items) {
+      try {
+        actionItems.add(objectMapper.treeToValue(item, ActionItem.class));
+      } catch (JsonProcessingException | IllegalArgumentException e) {
+        malformedCount++;
+      }
+    }
+    if (malformedCount == items.size()) {
+      return Optional.empty();
+    }
+    for (int i = 0; i < malformedCount; i++) {
+      actionPlanValidator.recordPruned(PruneReason.MALFORMED);
+    }
+    return Optional.of(actionItems.build());
+  }
+
+  /** Reads the action items of the given single-file action plan. */
+  @VisibleForTesting
+  static ImmutableList<ActionItem> readActionPlan(ObjectMapper objectMapper, String plan)
+      throws JsonProcessingException {
+    List<ActionItem> actionPlan = objectMapper.readValue(plan, new TypeReference<>() {});
+    return ImmutableList.copyOf(actionPlan);
+  }
+
+  /** Deserializes a single action item, returns empty if it is in the wrong format. */
+  private Optional<ActionItem> deserializeActionItem(String actionItem) {
+    try {
+      return Optional.of(objectMapper.readValue(actionItem, ActionItem.class));
+    } catch (JsonProcessingException e) {
+      log.error("Brain provided action item in the wrong format, leaving it for the whole plan");
+      return Optional.empty();
+    }
+  }
+
+  /** Deserializes the given multi-file action plan, returns empty if it is in the wrong format. */
+  private Optional<MultiFileActionPlan> deserializeMultiFileActionPlan(
+      String repositoryId, String model, String plan) {
+    try {
+      return Optional.of(objectMapper.readValue(plan, MultiFileActionPlan.class));
+    } catch (JsonProcessingException e) {
+      log.error("Brain provided multi-file action plan in the wrong format, returning empty plans");
+      metrics.recordPlanParseFailure(repositoryId, model);
+      return Optional.empty();
+    }
+  }
+
+  private String serializeActionPlan(ImmutableList<ActionItem> actionItems) {
+    try {
+      return objectMapper
+          .writerFor(new TypeReference<List<ActionItem>>() {})
+          .writeValueAsString(actionItems);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Failed to serialize action plan", e);
+    }
+  }
+
+  /**
+   * Number of action items of a plan checked while the plan was being streamed, and their
+   * validation.
+   */
+  private record StreamedItems(int count, ActionPlanValidation validation) {}
+
+  private BrainMessage getUserNextFileMessage(StoredFile storedFile) {
+    return new BrainMessage(USER, storedFile.getNumberedContent());
+  }
+
+  /**
+   * Creates a message with the given files, each preceded by a "File number:" header line. The
+   * message is empty if there are no files.
+   */
+  private BrainMessage getUserNextFilesMessage(List<StoredFile> batchFiles) {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < batchFiles.size(); i++) {
+      content.append("File ").append(i + 1).append(':').append(System.lineSeparator());
+      batchFiles.get(i).getLineIndex().appendNumberedTo(content).append(System.lineSeparator());
+    }
+    return new BrainMessage(USER, content.toString());
   }
 
   /**
@@ -212,11 +1076,6 @@ public class RefactoringAgent {
     if (fileContent == null || fileContent.isEmpty()) {
       return "";
     }
-    String[] lines = fileContent.split("\\R");
-    StringBuilder result = new StringBuilder(fileContent.length() + lines.length * 5);
-    for (int i = 0; i < lines.length; i++) {
-      result.append(i + 1).append(" | ").append(lines[i]).append(System.lineSeparator());
-    }
-    return result.toString();
+    return LineIndex.of(fileContent).toNumberedString();
   }
 }
@@ -1,6 +1,6 @@
 package org.varamadon.autorefactor.server.agent.brain;
 
-import com.google.common.collect.ImmutableList;
+import java.util.List;
 
 /**
  * Interface for an agent brain, responsible for processing messages
@@ -14,10 +14,28 @@ public interface AgentBrain {
   /**
    * Retrieves the next answer based on the provided conversation history.
    *
-   * @param messages an {@link ImmutableList} of {@link BrainMessage} representing the message history.
+   * @param messages an immutable {@link List} of {@link BrainMessage} representing the message
+   *     history.
    * @return a {@link BrainMessage} containing the generated response.
    */
-  BrainMessage getNextAnswer(ImmutableList<BrainMessage> messages);
+  BrainMessage getNextAnswer(List<BrainMessage> messages);
+
+  /**
+   * Retrieves the next answer like {@link #getNextAnswer(List)}, passing it to the listener piece
+   * by piece while it is being generated. Generation stops early once the listener reports that
+   * the answer is complete. Implementations that can't stream pass the whole answer as one piece.
+   *
+   * @param messages an immutable {@link List} of {@link BrainMessage} representing the message
+   *     history.
+   * @param listener the listener receiving the pieces of the answer.
+   * @return a {@link BrainMessage} containing the answer received until it was complete.
+   */
+  default BrainMessage streamNextAnswer(
+      List<BrainMessage> messages, AnswerStreamListener listener) {
+    BrainMessage answer = getNextAnswer(messages);
+    listener.onChunk(answer.content());
+    return answer;
+  }
 
   /**
    * Provides the initial system message to be used when starting a new process.
@@ -27,4 +45,32 @@ public interface AgentBrain {
    * @return a {@link BrainMessage} containing the system's initial instructions.
    */
   BrainMessage getSystemStartMessage();
+
+  /**
+   * Provides the initial system message used instead of {@link #getSystemStartMessage()} when
+   * several files are sent in one prompt. The brain should answer such prompts with a JSON object
+   * of action plans keyed by the number of the file in the prompt.
+   *
+   * @return a {@link BrainMessage} containing the system's initial instructions.
+   */
+  BrainMessage getMultiFileSystemStartMessage();
+
+  /**
+   * Returns the name of the model that generates the answers by default.
+   *
+   * @return the name of the underlying model.
+   */
+  String getModelName();
+
+  /**
+   * Returns the name of the model that answers the given prompt. Answers of different models should
+   * not be treated as interchangeable, for example when caching them.
+   *
+   * @param messages an immutable {@link List} of {@link BrainMessage} representing the message
+   *     history.
+   * @return the name of the model the prompt is sent to.
+   */
+  default String getModelName(List<BrainMessage> messages) {
+    return getModelName();
+  }
 }
@@ -0,0 +1,24 @@
+package org.varamadon.autorefactor.server.agent.brain;
+
+/**
+ * Listener receiving the answer of an {@link AgentBrain} piece by piece while it is being
+ * generated.
+ */
+public interface AnswerStreamListener {
+  /**
+   * Called for every generated piece of the answer, in order.
+   *
+   * @param chunk the next piece of the answer.
+   */
+  void onChunk(String chunk);
+
+  /**
+   * Tells whether the answer received so far is already complete, so the rest of the generation
+   * can be skipped.
+   *
+   * @return true if no more chunks are needed.
+   */
+  default boolean isAnswerComplete() {
+    return false;
+  }
+}
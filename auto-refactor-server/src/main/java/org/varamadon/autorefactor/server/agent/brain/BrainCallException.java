@@ -0,0 +1,35 @@
+package org.varamadon.autorefactor.server.agent.brain;
+
+/**
+ * Thrown by an {@link AgentBrain} when the LLM didn't answer. The exception tells whether the call
+ * failed because the provider is overloaded, so callers can slow down instead of just giving up,
+ * and whether the same call may succeed when it's retried.
+ */
+public class BrainCallException extends RuntimeException {
+  private final boolean overloaded;
+  private final boolean retryable;
+
+  /**
+   * Creates a new instance of the BrainCallException.
+   *
+   * @param message the description of the failed call.
+   * @param cause the failure reported by the client of the provider.
+   * @param overloaded whether the provider rejected the call because of its rate limits or load,
+   *     or didn't answer in time.
+   * @param retryable whether the failure is transient, so the call may succeed when retried.
+   */
+  public BrainCallException(
+      String message, Throwable cause, boolean overloaded, boolean retryable) {
+    super(message, cause);
+    this.overloaded = overloaded;
+    this.retryable = retryable;
+  }
+
+  public boolean isOverloaded() {
+    return overloaded;
+  }
+
+  public boolean isRetryable() {
+    return retryable;
+  }
+}
@@ -0,0 +1,65 @@
+package org.varamadon.autorefactor.server.agent.brain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Scope of a brain call that may be abandoned before it returns, like the slower call of a hedged
+ * pair. A blocked HTTP call doesn't always react to an interrupt, so the decorators of the brain
+ * register how to release the permits and budget held by the call, and they are released as soon as
+ * the call is abandoned instead of whenever the call returns.
+ *
+ * <p>Release actions must be idempotent, since the decorators also run them when the call returns.
+ */
+public final class BrainCallScope {
+  private static final ThreadLocal<BrainCallScope> CURRENT = new ThreadLocal<>();
+
+  private final List<Runnable> releaseActions = new ArrayList<>();
+  private boolean abandoned;
+
+  /** Runs the call on the current thread within this scope. */
+  public <T> T run(Supplier<T> call) {
+    CURRENT.set(this);
+    try {
+      return call.get();
+    } finally {
+      CURRENT.remove();
+    }
+  }
+
+  /**
+   * Registers an action releasing a resource of the call running on the current thread, if it runs
+   * within a scope. The action runs immediately if the call has already been abandoned.
+   */
+  public static void onAbandon(Runnable releaseAction) {
+    BrainCallScope scope = CURRENT.get();
+    if (scope != null) {
+      scope.register(releaseAction);
+    }
+  }
+
+  /** Abandons the call and releases its resources. Later calls are ignored. */
+  public void abandon() {
+    List<Runnable> actions;
+    synchronized (this) {
+      if (abandoned) {
+        return;
+      }
+      abandoned = true;
+      actions = List.copyOf(releaseActions);
+      releaseActions.clear();
+    }
+    actions.forEach(Runnable::run);
+  }
+
+  private void register(Runnable releaseAction) {
+    synchronized (this) {
+      if (!abandoned) {
+        releaseActions.add(releaseAction);
+        return;
+      }
+    }
+    releaseAction.run();
+  }
+}
@@ -0,0 +1,80 @@
+package org.varamadon.autorefactor.server.agent.brain;
+
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.varamadon.autorefactor.server.agent.brain.chatgpt.ChatGPTAgentBrain;
+import org.varamadon.autorefactor.server.agent.brain.limit.AdaptiveConcurrencyLimiter;
+import org.varamadon.autorefactor.server.agent.brain.limit.BrainRateLimiter;
+import org.varamadon.autorefactor.server.agent.brain.limit.ConcurrencyLimitedAgentBrain;
+import org.varamadon.autorefactor.server.agent.brain.limit.RateLimitedAgentBrain;
+import org.varamadon.autorefactor.server.agent.brain.resilience.ResilientAgentBrain;
+import org.varamadon.autorefactor.server.agent.brain.resilience.ResilientCallExecutor;
+import org.varamadon.autorefactor.server.agent.brain.routing.BrainRouter;
+import org.varamadon.autorefactor.server.agent.brain.routing.RoutingAgentBrain;
+
+/**
+ * Wraps the brain calling the LLM into the enabled decorators. If routing is enabled, small prompts
+ * are answered by a second brain with its own chat client for the small model. A call first waits
+ * for the budget of the rate limiter and then for a permit of the concurrency limiter of the model
+ * it's routed to, so queued calls don't hold permits. Every model has its own concurrency limiter,
+ * since a shared latency baseline would make every call of the large model look inflated. Retries
+ * and hedged duplicates go through both limiters like any other call, and an abandoned hedged call
+ * releases its permit and budget right away. Calls that fail even after retries end the run with
+ * the "finish" command.
+ *
+ * <p>Failed responses of the LLM provider are reported as exceptions carrying their HTTP status,
+ * which tells the resilience decorators whether the provider is overloaded.
+ */
+@Configuration
+public class BrainConfig {
+
+  @Bean
+  @Primary
+  public AgentBrain agentBrain(
+      ChatGPTAgentBrain chatGPTAgentBrain,
+      ObjectProvider<ChatClient.Builder> chatClientBuilders,
+      BrainRouter router,
+      BrainRateLimiter rateLimiter,
+      AdaptiveConcurrencyLimiter concurrencyLimiter,
+      ResilientCallExecutor resilientCallExecutor) {
+    AgentBrain agentBrain = limitConcurrency(chatGPTAgentBrain, concurrencyLimiter);
+    if (router.isEnabled()) {
+      OpenAiChatOptions smallModelOptions =
+          OpenAiChatOptions.builder().withModel(router.getSmallModel()).build();
+      ChatClient.Builder smallModelChatClient =
+          chatClientBuilders.getObject().defaultOptions(smallModelOptions);
+      AgentBrain smallModelBrain =
+          limitConcurrency(
+              new ChatGPTAgentBrain(smallModelChatClient, router.getSmallModel()),
+              concurrencyLimiter.newLimiter());
+      agentBrain = new RoutingAgentBrain(smallModelBrain, agentBrain, router);
+    }
+    if (rateLimiter.isEnabled()) {
+      agentBrain = new RateLimitedAgentBrain(agentBrain, rateLimiter);
+    }
+    agentBrain = new ResilientAgentBrain(agentBrain, resilientCallExecutor);
+    return new FailSafeAgentBrain(agentBrain);
+  }
+
+  /**
+   * Replaces the error handler of Spring AI, which reports the HTTP status only in the message of
+   * its exceptions. Retries are made by {@link ResilientAgentBrain}, not by Spring AI.
+   */
+  @Bean
+  public ResponseErrorHandler responseErrorHandler() {
+    return new DefaultResponseErrorHandler();
+  }
+
+  private static AgentBrain limitConcurrency(
+      AgentBrain agentBrain, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+    return concurrencyLimiter.isEnabled()
+        ? new ConcurrencyLimitedAgentBrain(agentBrain, concurrencyLimiter)
+        : agentBrain;
+  }
+}
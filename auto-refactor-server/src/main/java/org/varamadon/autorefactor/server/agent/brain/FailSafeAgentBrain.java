@@ -0,0 +1,61 @@
+package org.varamadon.autorefactor.server.agent.brain;
+
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.ASSISTANT;
+
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link AgentBrain} that answers with the "finish" command when a call fails, so a run whose brain
+ * can't be reached finishes instead of waiting for an answer forever.
+ */
+public class FailSafeAgentBrain implements AgentBrain {
+  private final Logger log = LoggerFactory.getLogger(FailSafeAgentBrain.class);
+  private final AgentBrain delegate;
+
+  public FailSafeAgentBrain(AgentBrain delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public BrainMessage getNextAnswer(List<BrainMessage> messages) {
+    try {
+      return delegate.getNextAnswer(messages);
+    } catch (RuntimeException e) {
+      log.error("Call to the brain failed", e);
+      return new BrainMessage(ASSISTANT, "finish");
+    }
+  }
+
+  @Override
+  public BrainMessage streamNextAnswer(
+      List<BrainMessage> messages, AnswerStreamListener listener) {
+    try {
+      return delegate.streamNextAnswer(messages, listener);
+    } catch (RuntimeException e) {
+      log.error("Streaming call to the brain failed", e);
+      return new BrainMessage(ASSISTANT, "finish");
+    }
+  }
+
+  @Override
+  public BrainMessage getSystemStartMessage() {
+    return delegate.getSystemStartMessage();
+  }
+
+  @Override
+  public BrainMessage getMultiFileSystemStartMessage() {
+    return delegate.getMultiFileSystemStartMessage();
+  }
+
+  @Override
+  public String getModelName() {
+    return delegate.getModelName();
+  }
+
+  @Override
+  public String getModelName(List<BrainMessage> messages) {
+    return delegate.getModelName(messages);
+  }
+}
@@ -0,0 +1,42 @@
+package org.varamadon.autorefactor.server.agent.brain;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.knuddels.jtokkit.api.EncodingType;
+import com.knuddels.jtokkit.api.ModelType;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts the tokens of prompts and answers locally with the BPE encoding of the configured model.
+ * Routing, rate limiting and metrics all count with it, so they agree on the size of a prompt.
+ */
+@Component
+public class TokenCounter {
+  private final JTokkitTokenCountEstimator estimator;
+
+  /**
+   * Creates a new instance of the TokenCounter.
+   *
+   * @param modelName the name of the model whose encoding is used to count the tokens.
+   */
+  public TokenCounter(@Value("${spring.ai.openai.chat.options.model:gpt-4o}") String modelName) {
+    this.estimator = new JTokkitTokenCountEstimator(getEncodingType(modelName));
+  }
+
+  /** Returns the number of tokens of the given text. */
+  public int count(String text) {
+    return estimator.estimate(text);
+  }
+
+  /**
+   * Returns the encoding of the given model. Models unknown to JTokkit, like newer versions of
+   * gpt-4o and gpt-4o-mini, are counted with o200k_base, the encoding of the gpt-4o family.
+   */
+  @VisibleForTesting
+  static EncodingType getEncodingType(String modelName) {
+    return ModelType.fromName(modelName)
+        .map(ModelType::getEncodingType)
+        .orElse(EncodingType.O200K_BASE);
+  }
+}
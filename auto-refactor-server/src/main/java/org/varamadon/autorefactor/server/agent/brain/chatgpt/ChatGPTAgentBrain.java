@@ -3,7 +3,15 @@ package org.varamadon.autorefactor.server.agent.brain.chatgpt;
 import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.ASSISTANT;
 import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.SYSTEM;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
@@ -11,8 +19,13 @@ import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 import org.varamadon.autorefactor.server.agent.brain.AgentBrain;
+import org.varamadon.autorefactor.server.agent.brain.AnswerStreamListener;
+import org.varamadon.autorefactor.server.agent.brain.BrainCallException;
 import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
 
 /**
@@ -27,13 +40,17 @@ import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
 public class ChatGPTAgentBrain implements AgentBrain {
   private final Logger log = LoggerFactory.getLogger(ChatGPTAgentBrain.class);
   private final ChatClient chatClient;
+  private final String modelName;
 
-  public ChatGPTAgentBrain(ChatClient.Builder chatClientBuilder) {
+  public ChatGPTAgentBrain(
+      ChatClient.Builder chatClientBuilder,
+      @Value("${spring.ai.openai.chat.options.model}") String modelName) {
     this.chatClient = chatClientBuilder.build();
+    this.modelName = modelName;
   }
 
   @Override
-  public BrainMessage getNextAnswer(ImmutableList<BrainMessage> messages) {
+  public BrainMessage getNextAnswer(List<BrainMessage> messages) {
     try {
       log.debug("Calling chat gpt");
       ChatClient.CallResponseSpec responseSpec =
@@ -42,8 +59,30 @@ public class ChatGPTAgentBrain implements AgentBrain {
       log.debug("Got response: {}", message.getContent());
       return new BrainMessage(ASSISTANT, message.getContent());
     } catch (Exception e) {
-      log.error("Call to chat gpt failed", e);
-      return new BrainMessage(ASSISTANT, "finish");
+      throw callFailed("Call to chat gpt failed", e);
+    }
+  }
+
+  @Override
+  public BrainMessage streamNextAnswer(
+      List<BrainMessage> messages, AnswerStreamListener listener) {
+    StringBuilder content = new StringBuilder();
+    // Closing the stream cancels the generation if the answer is complete before it ends
+    try (Stream<String> chunks =
+        chatClient.prompt().messages(transformMessages(messages)).stream().content().toStream()) {
+      log.debug("Streaming chat gpt answer");
+      Iterator<String> iterator = chunks.iterator();
+      while (iterator.hasNext() && !listener.isAnswerComplete()) {
+        String chunk = iterator.next();
+        if (chunk != null) {
+          content.append(chunk);
+          listener.onChunk(chunk);
+        }
+      }
+      log.debug("Got response: {}", content);
+      return new BrainMessage(ASSISTANT, content.toString());
+    } catch (Exception e) {
+      throw callFailed("Streaming call to chat gpt failed", e);
     }
   }
 
@@ -102,11 +141,110 @@ public class ChatGPTAgentBrain implements AgentBrain {
     return new BrainMessage(SYSTEM, content);
   }
 
-  private ImmutableList<Message> transformMessages(ImmutableList<BrainMessage> messages) {
-    return messages.stream().map(this::transformMessage).collect(ImmutableList.toImmutableList());
+  @Override
+  public BrainMessage getMultiFileSystemStartMessage() {
+    String content =
+        """
+                        You are a great java developer.
+                        You have the following commands under your disposal:
+                        "nextFile" - gives you the next files to analyze,"finish" to finish the process
+                        and three commands-refactorings:
+                        "addComment", "renameMethod", "renameVariable".
+                        You need to ask a user for files using the "nextFile" command,
+                        until the user input is empty, then respond with "finish" command.
+                        The user may send several files at once. Each file starts with a line
+                        "File <number>:" followed by its content.
+                        When you get files suggest an action plan of appropriate refactorings
+                        for each of them, format it as a json object,
+                        where keys are file numbers and values are action plans for these files.
+                        Omit files that don't need any refactorings.
+                        Use specific line numbers for refactorings, line numbers restart in each file.
+                        You can only respond with a json object of action plans, "nextFile" or "finish" command.
+                        You will receive java files with line numbers appended.
+                        Omit "```json" in the beginning and "```" in the end.
+                        Omit quotes for "nextFile" and "finish" commands.
+                        Give "nextFile" command to start the process.
+                        You should format your answer as in this example:
+                        {
+                          "1": [
+                            {
+                              "type": "addComment",
+                              "line": 3,
+                              "content": "Calculate the discriminant"
+                            },
+                            {
+                              "type": "renameVariable",
+                              "line": 4,
+                              "oldName": "d",
+                              "newName": "discriminant"
+                            }
+                          ],
+                          "3": [
+                            {
+                              "type": "renameMethod",
+                              "line": 10,
+                              "oldName": "calc",
+                              "newName": "calculateDiscriminant"
+                            }
+                          ]
+                        }
+                        """;
+    return new BrainMessage(SYSTEM, content);
+  }
+
+  @Override
+  public String getModelName() {
+    return modelName;
+  }
+
+  /**
+   * Classifies the failure of a call. Status 429 and 503, which the OpenAI API uses for rate limits
+   * and overload, and timeouts mean the provider is overloaded. These, other server errors and I/O
+   * failures may succeed when retried, client errors won't.
+   */
+  private static BrainCallException callFailed(String message, Exception e) {
+    boolean overloaded = false;
+    boolean retryable = false;
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      int status = getStatus(cause);
+      if (status == 429 || status == 503) {
+        overloaded = true;
+      }
+      if (cause instanceof SocketTimeoutException
+          || cause instanceof HttpTimeoutException
+          || cause instanceof TimeoutException) {
+        overloaded = true;
+      }
+      if (status >= 500 || cause instanceof IOException) {
+        retryable = true;
+      }
+    }
+    return new BrainCallException(message, e, overloaded, overloaded || retryable);
+  }
+
+  /**
+   * Returns the HTTP status of the failed response, or 0 if it's unknown. Blocking calls fail with
+   * the exceptions of the error handler defined in {@code BrainConfig}, streaming calls with the
+   * exceptions of the web client.
+   */
+  private static int getStatus(Throwable e) {
+    if (e instanceof RestClientResponseException responseException) {
+      return responseException.getStatusCode().value();
+    }
+    if (e instanceof WebClientResponseException responseException) {
+      return responseException.getStatusCode().value();
+    }
+    return 0;
+  }
+
+  @VisibleForTesting
+  static ImmutableList<Message> transformMessages(List<BrainMessage> messages) {
+    return messages.stream()
+        .map(ChatGPTAgentBrain::transformMessage)
+        .collect(ImmutableList.toImmutableList());
   }
 
-  private Message transformMessage(BrainMessage message) {
+  private static Message transformMessage(BrainMessage message) {
     return switch (message.messageType()) {
       case SYSTEM -> new SystemMessage(message.content());
       case USER -> new UserMessage(message.content());
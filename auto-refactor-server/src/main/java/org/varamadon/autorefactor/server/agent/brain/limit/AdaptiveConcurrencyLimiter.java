@@ -0,0 +1,271 @@
+package org.varamadon.autorefactor.server.agent.brain.limit;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limits the number of concurrent calls to the brain with an AIMD (additive increase,
+ * multiplicative decrease) limit. The limit grows by one per round trip while the latency of the
+ * calls stays close to its baseline, and is multiplied by the backoff ratio when the latency
+ * inflates beyond the tolerance or the provider reports overload. At most one decrease happens per
+ * round trip: calls started before the last decrease don't decrease the limit again.
+ *
+ * <p>The baseline latency follows decreases immediately and increases slowly, so it adapts to the
+ * latency of the provider changing during the day, while sudden inflation caused by too many
+ * concurrent calls is detected.
+ *
+ * <p>The time calls wait for a permit is tracked separately from the latency of the calls.
+ *
+ * <p>The state is guarded by a {@link ReentrantLock} rather than a monitor, since a virtual thread
+ * waiting on a monitor pins its carrier thread, and enough waiting calls would leave no carrier to
+ * run the calls that release their permits.
+ */
+@Component
+public class AdaptiveConcurrencyLimiter {
+  /** Number of samples after which the baseline has mostly adopted a higher latency. */
+  private static final int BASELINE_WINDOW = 100;
+
+  private final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+  private final boolean enabled;
+  private final int initialLimit;
+  private final int minLimit;
+  private final int maxLimit;
+  private final double latencyTolerance;
+  private final double backoffRatio;
+  private final Ticker ticker;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition permitReleased = lock.newCondition();
+
+  private double limit;
+  private int inFlight;
+  private double baselineNanos;
+  private long lastDecreaseNanos;
+  private long queuedCount;
+  private long queueWaitNanos;
+  private long callCount;
+  private long callLatencyNanos;
+
+  /**
+   * Creates a new instance of the AdaptiveConcurrencyLimiter.
+   *
+   * @param enabled whether the calls to the brain are limited.
+   * @param initialLimit the limit before any call has completed.
+   * @param minLimit the limit is never decreased below this value.
+   * @param maxLimit the limit is never increased above this value.
+   * @param latencyTolerance how many times the latency may exceed the baseline before the limit is
+   *     decreased.
+   * @param backoffRatio the ratio the limit is multiplied by when it's decreased.
+   */
+  @Autowired
+  public AdaptiveConcurrencyLimiter(
+      @Value("${org.varamadon.autorefactor.agent.brain.concurrency.enabled:true}") boolean enabled,
+      @Value("${org.varamadon.autorefactor.agent.brain.concurrency.initial-limit:4}")
+          int initialLimit,
+      @Value("${org.varamadon.autorefactor.agent.brain.concurrency.min-limit:1}") int minLimit,
+      @Value("${org.varamadon.autorefactor.agent.brain.concurrency.max-limit:64}") int maxLimit,
+      @Value("${org.varamadon.autorefactor.agent.brain.concurrency.latency-tolerance:2.0}")
+          double latencyTolerance,
+      @Value("${org.varamadon.autorefactor.agent.brain.concurrency.backoff-ratio:0.75}")
+          double backoffRatio) {
+    this(
+        enabled,
+        initialLimit,
+        minLimit,
+        maxLimit,
+        latencyTolerance,
+        backoffRatio,
+        Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  AdaptiveConcurrencyLimiter(
+      boolean enabled,
+      int initialLimit,
+      int minLimit,
+      int maxLimit,
+      double latencyTolerance,
+      double backoffRatio,
+      Ticker ticker) {
+    this.enabled = enabled;
+    this.initialLimit = initialLimit;
+    this.limit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.latencyTolerance = latencyTolerance;
+    this.backoffRatio = backoffRatio;
+    this.ticker = ticker;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Creates a limiter with the same settings but its own limit and baseline, for calls whose
+   * latency differs from the calls limited by this one, like the calls of another model.
+   */
+  public AdaptiveConcurrencyLimiter newLimiter() {
+    return new AdaptiveConcurrencyLimiter(
+        enabled, initialLimit, minLimit, maxLimit, latencyTolerance, backoffRatio, ticker);
+  }
+
+  /** Waits until the number of calls in flight is below the limit and starts a new call. */
+  public Permit acquire() {
+    lock.lock();
+    try {
+      long queuedAt = ticker.read();
+      boolean queued = false;
+      while (inFlight >= (int) limit) {
+        queued = true;
+        try {
+          permitReleased.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while waiting for a brain call permit", e);
+        }
+      }
+      long startedAt = ticker.read();
+      if (queued) {
+        queuedCount++;
+        queueWaitNanos += startedAt - queuedAt;
+      }
+      inFlight++;
+      return new Permit(startedAt);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getLimit() {
+    return (int) read(() -> (long) limit);
+  }
+
+  public int getInFlight() {
+    return (int) read(() -> inFlight);
+  }
+
+  /** Returns the number of calls that had to wait for a permit. */
+  public long getQueuedCount() {
+    return read(() -> queuedCount);
+  }
+
+  /** Returns the total time calls waited for a permit. */
+  public long getQueueWaitMillis() {
+    return read(() -> TimeUnit.NANOSECONDS.toMillis(queueWaitNanos));
+  }
+
+  /** Returns the number of completed calls. */
+  public long getCallCount() {
+    return read(() -> callCount);
+  }
+
+  /** Returns the total latency of the completed calls, without their wait for a permit. */
+  public long getCallLatencyMillis() {
+    return read(() -> TimeUnit.NANOSECONDS.toMillis(callLatencyNanos));
+  }
+
+  private long read(LongSupplier field) {
+    lock.lock();
+    try {
+      return field.getAsLong();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Releases a permit, must be called while holding the lock. */
+  private void release(long startedAt, Outcome outcome) {
+    inFlight--;
+    long now = ticker.read();
+    long latencyNanos = now - startedAt;
+    callCount++;
+    callLatencyNanos += latencyNanos;
+    switch (outcome) {
+      case SUCCESS -> {
+        boolean inflated = baselineNanos > 0 && latencyNanos > baselineNanos * latencyTolerance;
+        updateBaseline(latencyNanos);
+        if (inflated) {
+          decrease(startedAt, now, "latency inflated to " + latencyNanos / 1_000_000 + " ms");
+        } else if (limit < maxLimit) {
+          limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+      }
+      case OVERLOAD -> decrease(startedAt, now, "the provider is overloaded");
+      case IGNORE -> {}
+    }
+    permitReleased.signalAll();
+  }
+
+  private void updateBaseline(long latencyNanos) {
+    if (baselineNanos == 0 || latencyNanos < baselineNanos) {
+      baselineNanos = latencyNanos;
+    } else {
+      baselineNanos += (latencyNanos - baselineNanos) / BASELINE_WINDOW;
+    }
+  }
+
+  private void decrease(long startedAt, long now, String reason) {
+    if (startedAt < lastDecreaseNanos) {
+      return;
+    }
+    lastDecreaseNanos = now;
+    limit = Math.max(minLimit, limit * backoffRatio);
+    log.debug("Decreased brain concurrency limit to {}, {}", (int) limit, reason);
+  }
+
+  private enum Outcome {
+    SUCCESS,
+    OVERLOAD,
+    IGNORE
+  }
+
+  /**
+   * Permit of a call in flight. Exactly one of its methods should be called when the call
+   * completes, later calls are ignored.
+   */
+  public final class Permit {
+    private final long startedAt;
+    private boolean released;
+
+    private Permit(long startedAt) {
+      this.startedAt = startedAt;
+    }
+
+    /** The call succeeded, its latency is taken into account. */
+    public void onSuccess() {
+      release(Outcome.SUCCESS);
+    }
+
+    /** The call was rejected by the provider because of load, or timed out. */
+    public void onOverload() {
+      release(Outcome.OVERLOAD);
+    }
+
+    /** The call failed for a reason unrelated to load, its latency says nothing about the limit. */
+    public void onIgnore() {
+      release(Outcome.IGNORE);
+    }
+
+    private void release(Outcome outcome) {
+      lock.lock();
+      try {
+        if (released) {
+          return;
+        }
+        released = true;
+        AdaptiveConcurrencyLimiter.this.release(startedAt, outcome);
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package org.varamadon.autorefactor.server.agent.brain.limit;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+import org.varamadon.autorefactor.server.agent.brain.TokenCounter;
+
+/**
+ * Keeps the calls to the brain within the tokens-per-minute and requests-per-minute limits of the
+ * LLM provider, so calls wait for their budget instead of being rejected. Prompt tokens are counted
+ * locally with the {@link TokenCounter}, and a fixed number of tokens is reserved for the answer
+ * until its actual size is known.
+ */
+@Component
+public class BrainRateLimiter {
+  /** Tokens added by the provider to every message for its role and delimiters. */
+  private static final int TOKENS_PER_MESSAGE = 4;
+
+  private final Logger log = LoggerFactory.getLogger(BrainRateLimiter.class);
+  private final boolean enabled;
+  private final int answerTokens;
+  private final ToIntFunction<String> tokenCounter;
+  private final Ticker ticker;
+  private final Sleeper sleeper;
+  private final TokenBucket tokens;
+  private final TokenBucket requests;
+  private final AtomicLong waitCount = new AtomicLong();
+  private final AtomicLong waitNanos = new AtomicLong();
+
+  /**
+   * Creates a new instance of the BrainRateLimiter.
+   *
+   * @param enabled whether the calls to the brain are limited.
+   * @param tokensPerMinute the number of tokens the provider accepts per minute.
+   * @param requestsPerMinute the number of requests the provider accepts per minute.
+   * @param answerTokens the number of tokens reserved for an answer before it's received.
+   * @param tokenCounter the counter of the tokens of prompts and answers.
+   */
+  @Autowired
+  public BrainRateLimiter(
+      @Value("${org.varamadon.autorefactor.agent.brain.rate-limit.enabled:true}") boolean enabled,
+      @Value("${org.varamadon.autorefactor.agent.brain.rate-limit.tokens-per-minute:30000}")
+          long tokensPerMinute,
+      @Value("${org.varamadon.autorefactor.agent.brain.rate-limit.requests-per-minute:500}")
+          long requestsPerMinute,
+      @Value("${org.varamadon.autorefactor.agent.brain.rate-limit.answer-tokens:1000}")
+          int answerTokens,
+      TokenCounter tokenCounter) {
+    this(
+        enabled,
+        tokensPerMinute,
+        requestsPerMinute,
+        answerTokens,
+        tokenCounter::count,
+        Ticker.systemTicker(),
+        TimeUnit.NANOSECONDS::sleep);
+  }
+
+  @VisibleForTesting
+  BrainRateLimiter(
+      boolean enabled,
+      long tokensPerMinute,
+      long requestsPerMinute,
+      int answerTokens,
+      ToIntFunction<String> tokenCounter,
+      Ticker ticker,
+      Sleeper sleeper) {
+    this.enabled = enabled;
+    this.answerTokens = answerTokens;
+    this.tokenCounter = tokenCounter;
+    this.ticker = ticker;
+    this.sleeper = sleeper;
+    this.tokens = new TokenBucket(tokensPerMinute, ticker.read());
+    this.requests = new TokenBucket(requestsPerMinute, ticker.read());
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Reserves the budget of a call with the given prompt and waits until it's available.
+   *
+   * <p>The prompt is counted once, here. Settling the call only needs the tokens reserved for the
+   * answer, so the conversation isn't tokenized again.
+   *
+   * @return the number of tokens reserved for the answer, to be passed to {@link #complete} or
+   *     {@link #release}.
+   */
+  public long acquire(List<BrainMessage> messages) {
+    long reservedTokens = countTokens(messages) + answerTokens;
+    long waitNanos;
+    synchronized (this) {
+      long now = ticker.read();
+      waitNanos = Math.max(tokens.reserve(reservedTokens, now), requests.reserve(1, now));
+    }
+    if (waitNanos > 0) {
+      log.debug("Waiting {} ms for the budget of {} tokens", waitNanos / 1_000_000, reservedTokens);
+      waitCount.incrementAndGet();
+      this.waitNanos.addAndGet(waitNanos);
+      try {
+        sleeper.sleep(waitNanos);
+      } catch (InterruptedException e) {
+        adjust(reservedTokens);
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for the brain budget", e);
+      }
+    }
+    return answerTokens;
+  }
+
+  /**
+   * Settles the tokens reserved for the answer against its actual size. Unused tokens are returned,
+   * an answer longer than its reservation is charged as debt that delays the next calls.
+   */
+  public void complete(long reservedAnswerTokens, BrainMessage answer) {
+    adjust(reservedAnswerTokens - tokenCounter.applyAsInt(answer.content()));
+  }
+
+  /**
+   * Returns the tokens reserved for the answer of a call that failed or was abandoned. The prompt
+   * may have reached the provider, so its tokens are not returned.
+   */
+  public void release(long reservedAnswerTokens) {
+    adjust(reservedAnswerTokens);
+  }
+
+  /** Returns the share of the tokens-per-minute budget in use, above 1 while calls are queued. */
+  public synchronized double getTokensUtilization() {
+    return tokens.getUtilization(ticker.read());
+  }
+
+  /** Returns the share of the requests-per-minute budget in use, above 1 while calls are queued. */
+  public synchronized double getRequestsUtilization() {
+    return requests.getUtilization(ticker.read());
+  }
+
+  /** Returns the number of calls that had to wait for their budget. */
+  public long getWaitCount() {
+    return waitCount.get();
+  }
+
+  /** Returns the total time calls waited for their budget. */
+  public long getWaitTimeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+  }
+
+  private void adjust(long unusedTokens) {
+    if (unusedTokens == 0) {
+      return;
+    }
+    synchronized (this) {
+      long now = ticker.read();
+      if (unusedTokens > 0) {
+        tokens.refund(unusedTokens, now);
+      } else {
+        tokens.reserve(-unusedTokens, now);
+      }
+    }
+  }
+
+  private long countTokens(List<BrainMessage> messages) {
+    long count = 0;
+    for (BrainMessage message : messages) {
+      count += TOKENS_PER_MESSAGE + tokenCounter.applyAsInt(message.content());
+    }
+    return count;
+  }
+
+  @VisibleForTesting
+  interface Sleeper {
+    void sleep(long nanos) throws InterruptedException;
+  }
+}
@@ -0,0 +1,71 @@
+package org.varamadon.autorefactor.server.agent.brain.limit;
+
+import java.util.List;
+import java.util.function.Supplier;
+import org.varamadon.autorefactor.server.agent.brain.AgentBrain;
+import org.varamadon.autorefactor.server.agent.brain.AnswerStreamListener;
+import org.varamadon.autorefactor.server.agent.brain.BrainCallException;
+import org.varamadon.autorefactor.server.agent.brain.BrainCallScope;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+
+/**
+ * {@link AgentBrain} that makes calls only with a permit of the {@link AdaptiveConcurrencyLimiter}
+ * and reports their outcome to it. The permit of an abandoned call is released right away.
+ */
+public class ConcurrencyLimitedAgentBrain implements AgentBrain {
+  private final AgentBrain delegate;
+  private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+  public ConcurrencyLimitedAgentBrain(
+      AgentBrain delegate, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+    this.delegate = delegate;
+    this.concurrencyLimiter = concurrencyLimiter;
+  }
+
+  @Override
+  public BrainMessage getNextAnswer(List<BrainMessage> messages) {
+    return callWithPermit(() -> delegate.getNextAnswer(messages));
+  }
+
+  @Override
+  public BrainMessage streamNextAnswer(List<BrainMessage> messages, AnswerStreamListener listener) {
+    return callWithPermit(() -> delegate.streamNextAnswer(messages, listener));
+  }
+
+  @Override
+  public BrainMessage getSystemStartMessage() {
+    return delegate.getSystemStartMessage();
+  }
+
+  @Override
+  public BrainMessage getMultiFileSystemStartMessage() {
+    return delegate.getMultiFileSystemStartMessage();
+  }
+
+  @Override
+  public String getModelName() {
+    return delegate.getModelName();
+  }
+
+  @Override
+  public String getModelName(List<BrainMessage> messages) {
+    return delegate.getModelName(messages);
+  }
+
+  private BrainMessage callWithPermit(Supplier<BrainMessage> call) {
+    AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimiter.acquire();
+    BrainCallScope.onAbandon(permit::onIgnore);
+    try {
+      BrainMessage answer = call.get();
+      permit.onSuccess();
+      return answer;
+    } catch (BrainCallException e) {
+      if (e.isOverloaded()) {
+        permit.onOverload();
+      }
+      throw e;
+    } finally {
+      permit.onIgnore();
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package org.varamadon.autorefactor.server.agent.brain.limit;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import org.varamadon.autorefactor.server.agent.brain.AgentBrain;
+import org.varamadon.autorefactor.server.agent.brain.AnswerStreamListener;
+import org.varamadon.autorefactor.server.agent.brain.BrainCallScope;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+
+/**
+ * {@link AgentBrain} that waits for the budget of the {@link BrainRateLimiter} before a call. The
+ * tokens reserved for the answer of a call that fails or is abandoned are returned right away.
+ */
+public class RateLimitedAgentBrain implements AgentBrain {
+  private final AgentBrain delegate;
+  private final BrainRateLimiter rateLimiter;
+
+  public RateLimitedAgentBrain(AgentBrain delegate, BrainRateLimiter rateLimiter) {
+    this.delegate = delegate;
+    this.rateLimiter = rateLimiter;
+  }
+
+  @Override
+  public BrainMessage getNextAnswer(List<BrainMessage> messages) {
+    return callWithBudget(messages, () -> delegate.getNextAnswer(messages));
+  }
+
+  @Override
+  public BrainMessage streamNextAnswer(List<BrainMessage> messages, AnswerStreamListener listener) {
+    return callWithBudget(messages, () -> delegate.streamNextAnswer(messages, listener));
+  }
+
+  @Override
+  public BrainMessage getSystemStartMessage() {
+    return delegate.getSystemStartMessage();
+  }
+
+  @Override
+  public BrainMessage getMultiFileSystemStartMessage() {
+    return delegate.getMultiFileSystemStartMessage();
+  }
+
+  @Override
+  public String getModelName() {
+    return delegate.getModelName();
+  }
+
+  @Override
+  public String getModelName(List<BrainMessage> messages) {
+    return delegate.getModelName(messages);
+  }
+
+  private BrainMessage callWithBudget(List<BrainMessage> messages, Supplier<BrainMessage> call) {
+    long answerTokens = rateLimiter.acquire(messages);
+    AtomicBoolean settled = new AtomicBoolean();
+    Runnable release =
+        () -> {
+          if (settled.compareAndSet(false, true)) {
+            rateLimiter.release(answerTokens);
+          }
+        };
+    BrainCallScope.onAbandon(release);
+    try {
+      BrainMessage answer = call.get();
+      if (settled.compareAndSet(false, true)) {
+        rateLimiter.complete(answerTokens, answer);
+      }
+      return answer;
+    } finally {
+      release.run();
+    }
+  }
+}
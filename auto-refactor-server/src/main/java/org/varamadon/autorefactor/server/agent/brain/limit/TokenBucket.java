@@ -0,0 +1,49 @@
+package org.varamadon.autorefactor.server.agent.brain.limit;
+
+/**
+ * Token bucket that refills its capacity evenly over a minute. Permits are reserved even if the
+ * bucket doesn't hold enough of them, the bucket goes into debt and the caller is told how long to
+ * wait until the debt is refilled. Callers therefore queue in the order of their reservations and
+ * a request bigger than the capacity waits instead of failing.
+ *
+ * <p>Not thread-safe, the caller synchronizes access.
+ */
+final class TokenBucket {
+  private static final double NANOS_PER_MINUTE = 60e9;
+
+  private final double capacity;
+  private final double refillPerNano;
+  private double available;
+  private long lastRefillNanos;
+
+  TokenBucket(long capacityPerMinute, long nowNanos) {
+    this.capacity = capacityPerMinute;
+    this.refillPerNano = capacityPerMinute / NANOS_PER_MINUTE;
+    this.available = capacityPerMinute;
+    this.lastRefillNanos = nowNanos;
+  }
+
+  /** Reserves the permits and returns the time in nanoseconds to wait before using them. */
+  long reserve(double permits, long nowNanos) {
+    refill(nowNanos);
+    available -= permits;
+    return available >= 0 ? 0 : (long) Math.ceil(-available / refillPerNano);
+  }
+
+  /** Returns permits that were reserved but not used. */
+  void refund(double permits, long nowNanos) {
+    refill(nowNanos);
+    available = Math.min(capacity, available + permits);
+  }
+
+  /** Returns the share of the capacity that is reserved, above 1 while the bucket is in debt. */
+  double getUtilization(long nowNanos) {
+    refill(nowNanos);
+    return (capacity - available) / capacity;
+  }
+
+  private void refill(long nowNanos) {
+    available = Math.min(capacity, available + (nowNanos - lastRefillNanos) * refillPerNano);
+    lastRefillNanos = nowNanos;
+  }
+}
@@ -0,0 +1,16 @@
+package org.varamadon.autorefactor.server.agent.brain.resilience;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Threads hedged brain calls run on. Every call gets its own virtual thread, so a call blocked on
+ * the provider only parks a virtual thread, and an interrupt also aborts its blocking socket I/O.
+ */
+final class BrainCallThreads {
+  private BrainCallThreads() {}
+
+  static ExecutorService newExecutor() {
+    return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("brain-call-", 0).factory());
+  }
+}
@@ -0,0 +1,68 @@
+package org.varamadon.autorefactor.server.agent.brain.resilience;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.varamadon.autorefactor.server.agent.brain.AgentBrain;
+import org.varamadon.autorefactor.server.agent.brain.AnswerStreamListener;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+
+/**
+ * {@link AgentBrain} that retries and hedges calls with the {@link ResilientCallExecutor}. Streamed
+ * calls are not hedged, since both calls would pass their chunks to the listener, and they are only
+ * retried until the first chunk is received.
+ */
+public class ResilientAgentBrain implements AgentBrain {
+  private final AgentBrain delegate;
+  private final ResilientCallExecutor callExecutor;
+
+  public ResilientAgentBrain(AgentBrain delegate, ResilientCallExecutor callExecutor) {
+    this.delegate = delegate;
+    this.callExecutor = callExecutor;
+  }
+
+  @Override
+  public BrainMessage getNextAnswer(List<BrainMessage> messages) {
+    return callExecutor.execute(() -> delegate.getNextAnswer(messages));
+  }
+
+  @Override
+  public BrainMessage streamNextAnswer(
+      List<BrainMessage> messages, AnswerStreamListener listener) {
+    AtomicBoolean chunkReceived = new AtomicBoolean();
+    AnswerStreamListener trackingListener =
+        new AnswerStreamListener() {
+          @Override
+          public void onChunk(String chunk) {
+            chunkReceived.set(true);
+            listener.onChunk(chunk);
+          }
+
+          @Override
+          public boolean isAnswerComplete() {
+            return listener.isAnswerComplete();
+          }
+        };
+    return callExecutor.executeWithoutHedging(
+        () -> delegate.streamNextAnswer(messages, trackingListener), () -> !chunkReceived.get());
+  }
+
+  @Override
+  public BrainMessage getSystemStartMessage() {
+    return delegate.getSystemStartMessage();
+  }
+
+  @Override
+  public BrainMessage getMultiFileSystemStartMessage() {
+    return delegate.getMultiFileSystemStartMessage();
+  }
+
+  @Override
+  public String getModelName() {
+    return delegate.getModelName();
+  }
+
+  @Override
+  public String getModelName(List<BrainMessage> messages) {
+    return delegate.getModelName(messages);
+  }
+}
@@ -0,0 +1,293 @@
+package org.varamadon.autorefactor.server.agent.brain.resilience;
+
+import com.google.common.annotations.VisibleForTesting;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.varamadon.autorefactor.server.agent.brain.BrainCallException;
+import org.varamadon.autorefactor.server.agent.brain.BrainCallScope;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+
+/**
+ * Executes brain calls with retries and hedging, independently of the brain implementation.
+ *
+ * <p>Calls that fail with a retryable {@link BrainCallException} are retried with exponential
+ * backoff and full jitter: before the n-th retry the caller sleeps a random time of up to the
+ * initial backoff times 2^(n-1), but no longer than the maximum backoff.
+ *
+ * <p>If hedging is enabled, a call still running after the configured percentile of the latencies
+ * of recent calls is hedged: a duplicate call is sent, the first successful answer is taken and the
+ * other call is abandoned. Hedging starts once enough latencies are known and never waits less than
+ * the minimum delay. Hedged calls run on virtual threads within a {@link BrainCallScope}, so the
+ * abandoned call is interrupted and its concurrency permit and rate limit budget are released right
+ * away, even if it's blocked in a call that ignores the interrupt.
+ */
+@Component
+public class ResilientCallExecutor {
+  /** Number of recent latencies the hedging delay is computed from. */
+  private static final int LATENCY_SAMPLES = 256;
+
+  /** Number of latencies needed before calls are hedged. */
+  private static final int MIN_LATENCY_SAMPLES = 20;
+
+  private final Logger log = LoggerFactory.getLogger(ResilientCallExecutor.class);
+  private final int maxAttempts;
+  private final long initialBackoffNanos;
+  private final long maxBackoffNanos;
+  private final boolean hedging;
+  private final double hedgingPercentile;
+  private final long hedgingMinDelayNanos;
+  private final DoubleSupplier random;
+  private final Sleeper sleeper;
+  private final ExecutorService executor = BrainCallThreads.newExecutor();
+
+  /** Ring buffer of the latencies of recent successful calls, guarded by itself. */
+  private final long[] latencies = new long[LATENCY_SAMPLES];
+
+  private int latencyCount;
+  private final AtomicLong callCount = new AtomicLong();
+  private final AtomicLong retryCount = new AtomicLong();
+  private final AtomicLong hedgeCount = new AtomicLong();
+  private final AtomicLong hedgeWinCount = new AtomicLong();
+
+  /**
+   * Creates a new instance of the ResilientCallExecutor.
+   *
+   * @param maxAttempts the maximum number of attempts of a call, including the first one.
+   * @param initialBackoff the maximum wait before the first retry.
+   * @param maxBackoff the maximum wait before any retry.
+   * @param hedging whether slow calls are hedged.
+   * @param hedgingPercentile the percentile of recent latencies after which a call is hedged.
+   * @param hedgingMinDelay the minimum time a call runs before it's hedged.
+   */
+  @Autowired
+  public ResilientCallExecutor(
+      @Value("${org.varamadon.autorefactor.agent.brain.retry.max-attempts:3}") int maxAttempts,
+      @Value("${org.varamadon.autorefactor.agent.brain.retry.initial-backoff:1s}")
+          Duration initialBackoff,
+      @Value("${org.varamadon.autorefactor.agent.brain.retry.max-backoff:30s}") Duration maxBackoff,
+      @Value("${org.varamadon.autorefactor.agent.brain.hedging.enabled:false}") boolean hedging,
+      @Value("${org.varamadon.autorefactor.agent.brain.hedging.percentile:0.95}")
+          double hedgingPercentile,
+      @Value("${org.varamadon.autorefactor.agent.brain.hedging.min-delay:5s}")
+          Duration hedgingMinDelay) {
+    this(
+        maxAttempts,
+        initialBackoff,
+        maxBackoff,
+        hedging,
+        hedgingPercentile,
+        hedgingMinDelay,
+        () -> ThreadLocalRandom.current().nextDouble(),
+        TimeUnit.NANOSECONDS::sleep);
+  }
+
+  @VisibleForTesting
+  ResilientCallExecutor(
+      int maxAttempts,
+      Duration initialBackoff,
+      Duration maxBackoff,
+      boolean hedging,
+      double hedgingPercentile,
+      Duration hedgingMinDelay,
+      DoubleSupplier random,
+      Sleeper sleeper) {
+    this.maxAttempts = maxAttempts;
+    this.initialBackoffNanos = initialBackoff.toNanos();
+    this.maxBackoffNanos = maxBackoff.toNanos();
+    this.hedging = hedging;
+    this.hedgingPercentile = hedgingPercentile;
+    this.hedgingMinDelayNanos = hedgingMinDelay.toNanos();
+    this.random = random;
+    this.sleeper = sleeper;
+  }
+
+  @PreDestroy
+  void shutdown() {
+    executor.shutdown();
+  }
+
+  /** Executes the call with retries and hedging. The call must not have side effects. */
+  public BrainMessage execute(Supplier<BrainMessage> call) {
+    return executeWithRetries(() -> hedging ? executeHedged(call) : executeTimed(call), () -> true);
+  }
+
+  /**
+   * Executes the call with retries, but without hedging, for calls that have side effects. A failed
+   * call is only retried as long as the given condition holds.
+   */
+  public BrainMessage executeWithoutHedging(Supplier<BrainMessage> call, BooleanSupplier canRetry) {
+    return executeWithRetries(() -> executeTimed(call), canRetry);
+  }
+
+  /** Returns the number of executed calls, retries and hedges not included. */
+  public long getCallCount() {
+    return callCount.get();
+  }
+
+  /** Returns the share of calls that were retried, counting every retry. */
+  public double getRetryRate() {
+    return rate(retryCount.get());
+  }
+
+  /** Returns the share of calls that were hedged. */
+  public double getHedgeRate() {
+    return rate(hedgeCount.get());
+  }
+
+  /** Returns the share of calls whose answer was received from the hedged duplicate. */
+  public double getHedgeWinRate() {
+    return rate(hedgeWinCount.get());
+  }
+
+  private BrainMessage executeWithRetries(Supplier<BrainMessage> call, BooleanSupplier canRetry) {
+    callCount.incrementAndGet();
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return call.get();
+      } catch (BrainCallException e) {
+        if (!e.isRetryable() || attempt >= maxAttempts || !canRetry.getAsBoolean()) {
+          throw e;
+        }
+        retryCount.incrementAndGet();
+        long backoffNanos = getBackoffNanos(attempt);
+        log.warn(
+            "Brain call failed, retrying in {} ms: {}", backoffNanos / 1_000_000, e.getMessage());
+        sleep(backoffNanos);
+      }
+    }
+  }
+
+  /** Returns a random backoff of up to the exponential backoff of the given attempt. */
+  private long getBackoffNanos(int attempt) {
+    long exponentialBackoff = initialBackoffNanos << Math.min(attempt - 1, 30);
+    if (exponentialBackoff <= 0 || exponentialBackoff > maxBackoffNanos) {
+      exponentialBackoff = maxBackoffNanos;
+    }
+    return (long) (random.getAsDouble() * exponentialBackoff);
+  }
+
+  private BrainMessage executeHedged(Supplier<BrainMessage> call) {
+    CompletionService<BrainMessage> completionService = new ExecutorCompletionService<>(executor);
+    List<HedgedCall> calls = new ArrayList<>();
+    calls.add(submitHedged(completionService, call));
+    try {
+      long hedgingDelayNanos = getHedgingDelayNanos();
+      Future<BrainMessage> completed =
+          hedgingDelayNanos < 0
+              ? completionService.take()
+              : completionService.poll(hedgingDelayNanos, TimeUnit.NANOSECONDS);
+      if (completed == null) {
+        log.debug("Brain call is slower than {} ms, hedging", hedgingDelayNanos / 1_000_000);
+        hedgeCount.incrementAndGet();
+        calls.add(submitHedged(completionService, call));
+        completed = completionService.take();
+      }
+      BrainMessage answer;
+      try {
+        answer = completed.get();
+      } catch (ExecutionException e) {
+        if (calls.size() == 1) {
+          throw e;
+        }
+        // The other call may still succeed
+        completed = completionService.take();
+        answer = completed.get();
+      }
+      if (calls.size() > 1 && completed == calls.get(1).future()) {
+        hedgeWinCount.incrementAndGet();
+      }
+      return answer;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new IllegalStateException("Brain call failed", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the brain", e);
+    } finally {
+      calls.forEach(HedgedCall::abandon);
+    }
+  }
+
+  private HedgedCall submitHedged(
+      CompletionService<BrainMessage> completionService, Supplier<BrainMessage> call) {
+    BrainCallScope scope = new BrainCallScope();
+    return new HedgedCall(
+        completionService.submit(() -> scope.run(() -> executeTimed(call))), scope);
+  }
+
+  private BrainMessage executeTimed(Supplier<BrainMessage> call) {
+    long start = System.nanoTime();
+    BrainMessage answer = call.get();
+    recordLatency(System.nanoTime() - start);
+    return answer;
+  }
+
+  private void recordLatency(long latencyNanos) {
+    synchronized (latencies) {
+      latencies[latencyCount % LATENCY_SAMPLES] = latencyNanos;
+      latencyCount++;
+    }
+  }
+
+  /** Returns the delay after which a call is hedged, or -1 if too few latencies are known. */
+  private long getHedgingDelayNanos() {
+    long[] samples;
+    synchronized (latencies) {
+      if (latencyCount < MIN_LATENCY_SAMPLES) {
+        return -1;
+      }
+      samples = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_SAMPLES));
+    }
+    Arrays.sort(samples);
+    int index = (int) Math.ceil(hedgingPercentile * samples.length) - 1;
+    return Math.max(hedgingMinDelayNanos, samples[Math.max(0, index)]);
+  }
+
+  private double rate(long count) {
+    long calls = callCount.get();
+    return calls == 0 ? 0 : (double) count / calls;
+  }
+
+  private void sleep(long nanos) {
+    try {
+      sleeper.sleep(nanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting to retry the brain call", e);
+    }
+  }
+
+  /** Call of a hedged pair, abandoned once the answer is known or the caller gives up. */
+  private record HedgedCall(Future<BrainMessage> future, BrainCallScope scope) {
+    void abandon() {
+      future.cancel(true);
+      scope.abandon();
+    }
+  }
+
+  @VisibleForTesting
+  interface Sleeper {
+    void sleep(long nanos) throws InterruptedException;
+  }
+}
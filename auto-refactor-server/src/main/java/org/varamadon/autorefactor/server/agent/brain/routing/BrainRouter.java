@@ -0,0 +1,145 @@
+package org.varamadon.autorefactor.server.agent.brain.routing;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+import org.varamadon.autorefactor.server.agent.brain.TokenCounter;
+
+/**
+ * Decides which model answers a prompt and records the latency and outcome of the calls of every
+ * model, so the thresholds can be tuned. Prompts whose {@link PromptFeatures} are all within the
+ * thresholds go to the small model, the others to the model configured for the brain.
+ */
+@Component
+public class BrainRouter {
+  private final Logger log = LoggerFactory.getLogger(BrainRouter.class);
+  private final boolean enabled;
+  private final String smallModel;
+  private final int smallMaxLines;
+  private final int smallMaxTokens;
+  private final int smallMaxComplexity;
+  private final ToIntFunction<String> tokenCounter;
+  private final Map<String, RouteCounters> routeCounters = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a new instance of the BrainRouter.
+   *
+   * @param enabled whether small prompts are routed to the small model.
+   * @param smallModel the name of the small model.
+   * @param smallMaxLines the maximum number of lines of a prompt for the small model.
+   * @param smallMaxTokens the maximum number of tokens of a prompt for the small model.
+   * @param smallMaxComplexity the maximum number of decision points of a prompt for the small
+   *     model.
+   * @param tokenCounter the counter of the tokens of prompts.
+   */
+  @Autowired
+  public BrainRouter(
+      @Value("${org.varamadon.autorefactor.agent.brain.routing.enabled:false}") boolean enabled,
+      @Value("${org.varamadon.autorefactor.agent.brain.routing.small-model:gpt-4o-mini}")
+          String smallModel,
+      @Value("${org.varamadon.autorefactor.agent.brain.routing.small-max-lines:150}")
+          int smallMaxLines,
+      @Value("${org.varamadon.autorefactor.agent.brain.routing.small-max-tokens:4000}")
+          int smallMaxTokens,
+      @Value("${org.varamadon.autorefactor.agent.brain.routing.small-max-complexity:20}")
+          int smallMaxComplexity,
+      TokenCounter tokenCounter) {
+    this(
+        enabled,
+        smallModel,
+        smallMaxLines,
+        smallMaxTokens,
+        smallMaxComplexity,
+        tokenCounter::count);
+  }
+
+  @VisibleForTesting
+  BrainRouter(
+      boolean enabled,
+      String smallModel,
+      int smallMaxLines,
+      int smallMaxTokens,
+      int smallMaxComplexity,
+      ToIntFunction<String> tokenCounter) {
+    this.enabled = enabled;
+    this.smallModel = smallModel;
+    this.smallMaxLines = smallMaxLines;
+    this.smallMaxTokens = smallMaxTokens;
+    this.smallMaxComplexity = smallMaxComplexity;
+    this.tokenCounter = tokenCounter;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public String getSmallModel() {
+    return smallModel;
+  }
+
+  /** Checks whether the prompt is small and simple enough for the small model. */
+  public boolean isForSmallModel(List<BrainMessage> messages) {
+    PromptFeatures features = PromptFeatures.of(messages, tokenCounter);
+    boolean small =
+        features.lines() <= smallMaxLines
+            && features.tokens() <= smallMaxTokens
+            && features.complexity() <= smallMaxComplexity;
+    log.debug("Routing prompt with {} to the {} model", features, small ? "small" : "large");
+    return small;
+  }
+
+  /** Records a call answered by the given model. */
+  public void recordCall(String model, long latencyNanos, boolean succeeded) {
+    RouteCounters counters = routeCounters.computeIfAbsent(model, ignored -> new RouteCounters());
+    counters.calls.increment();
+    if (!succeeded) {
+      counters.failures.increment();
+    }
+    counters.latencyNanos.add(latencyNanos);
+    counters.maxLatencyNanos.accumulate(latencyNanos);
+  }
+
+  /** Returns the statistics of the calls by the model that answered them. */
+  public ImmutableMap<String, RouteStats> getRouteStats() {
+    ImmutableMap.Builder<String, RouteStats> stats = ImmutableMap.builder();
+    routeCounters.forEach(
+        (model, counters) ->
+            stats.put(
+                model,
+                new RouteStats(
+                    counters.calls.sum(),
+                    counters.failures.sum(),
+                    TimeUnit.NANOSECONDS.toMillis(counters.latencyNanos.sum()),
+                    TimeUnit.NANOSECONDS.toMillis(counters.maxLatencyNanos.get()))));
+    return stats.buildOrThrow();
+  }
+
+  /**
+   * Statistics of the calls answered by a model.
+   *
+   * @param calls the number of calls.
+   * @param failures the number of calls that failed.
+   * @param latencyMillis the total latency of the calls.
+   * @param maxLatencyMillis the latency of the slowest call.
+   */
+  public record RouteStats(long calls, long failures, long latencyMillis, long maxLatencyMillis) {}
+
+  private static class RouteCounters {
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0);
+  }
+}
@@ -0,0 +1,60 @@
+package org.varamadon.autorefactor.server.agent.brain.routing;
+
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.USER;
+
+import java.util.List;
+import java.util.function.ToIntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+
+/**
+ * Cheap features of a prompt used to choose the model answering it. Lines and complexity are
+ * measured on the last user message, which contains the files to refactor, tokens on the whole
+ * prompt.
+ *
+ * @param lines the number of lines of the last user message.
+ * @param tokens the estimated number of tokens of the prompt.
+ * @param complexity the number of decision points of the last user message: branches, loops,
+ *     catch clauses and boolean operators.
+ */
+public record PromptFeatures(int lines, int tokens, int complexity) {
+  private static final Pattern DECISION_POINT =
+      Pattern.compile("\\b(?:if|for|while|case|catch)\\b|&&|\\|\\||\\?(?![>,])");
+
+  /** Measures the features of the given prompt, counting tokens with the given counter. */
+  public static PromptFeatures of(List<BrainMessage> messages, ToIntFunction<String> tokenCounter) {
+    int tokens = 0;
+    String lastUserMessage = "";
+    for (BrainMessage message : messages) {
+      tokens += tokenCounter.applyAsInt(message.content());
+      if (message.messageType() == USER) {
+        lastUserMessage = message.content();
+      }
+    }
+    return new PromptFeatures(
+        countLines(lastUserMessage), tokens, countDecisionPoints(lastUserMessage));
+  }
+
+  private static int countLines(String content) {
+    if (content.isEmpty()) {
+      return 0;
+    }
+    int lines = 1;
+    for (int i = 0; i < content.length(); i++) {
+      if (content.charAt(i) == '\n') {
+        lines++;
+      }
+    }
+    return lines;
+  }
+
+  private static int countDecisionPoints(String content) {
+    Matcher matcher = DECISION_POINT.matcher(content);
+    int count = 0;
+    while (matcher.find()) {
+      count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,74 @@
+package org.varamadon.autorefactor.server.agent.brain.routing;
+
+import java.util.List;
+import java.util.function.Supplier;
+import org.varamadon.autorefactor.server.agent.brain.AgentBrain;
+import org.varamadon.autorefactor.server.agent.brain.AnswerStreamListener;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+
+/**
+ * {@link AgentBrain} that sends every prompt either to a brain with a small, fast model or to a
+ * brain with a large model, as decided by the {@link BrainRouter}. System messages come from the
+ * large brain, since the conversation is shared by both models. Each brain limits its own
+ * concurrency, since the latencies of the models differ too much to share one baseline.
+ */
+public class RoutingAgentBrain implements AgentBrain {
+  private final AgentBrain smallBrain;
+  private final AgentBrain largeBrain;
+  private final BrainRouter router;
+
+  public RoutingAgentBrain(AgentBrain smallBrain, AgentBrain largeBrain, BrainRouter router) {
+    this.smallBrain = smallBrain;
+    this.largeBrain = largeBrain;
+    this.router = router;
+  }
+
+  @Override
+  public BrainMessage getNextAnswer(List<BrainMessage> messages) {
+    AgentBrain brain = route(messages);
+    return callAndRecord(brain, () -> brain.getNextAnswer(messages));
+  }
+
+  @Override
+  public BrainMessage streamNextAnswer(
+      List<BrainMessage> messages, AnswerStreamListener listener) {
+    AgentBrain brain = route(messages);
+    return callAndRecord(brain, () -> brain.streamNextAnswer(messages, listener));
+  }
+
+  @Override
+  public BrainMessage getSystemStartMessage() {
+    return largeBrain.getSystemStartMessage();
+  }
+
+  @Override
+  public BrainMessage getMultiFileSystemStartMessage() {
+    return largeBrain.getMultiFileSystemStartMessage();
+  }
+
+  @Override
+  public String getModelName() {
+    return largeBrain.getModelName();
+  }
+
+  @Override
+  public String getModelName(List<BrainMessage> messages) {
+    return route(messages).getModelName();
+  }
+
+  private AgentBrain route(List<BrainMessage> messages) {
+    return router.isForSmallModel(messages) ? smallBrain : largeBrain;
+  }
+
+  private BrainMessage callAndRecord(AgentBrain brain, Supplier<BrainMessage> call) {
+    long start = System.nanoTime();
+    boolean succeeded = false;
+    try {
+      BrainMessage answer = call.get();
+      succeeded = true;
+      return answer;
+    } finally {
+      router.recordCall(brain.getModelName(), System.nanoTime() - start, succeeded);
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package org.varamadon.autorefactor.server.agent.cache;
+
+import com.google.common.collect.ImmutableList;
+import java.util.Optional;
+import org.varamadon.autorefactor.shared.model.ActionItem;
+
+/** Cache of the action plans generated by the brain for file contents it has already seen. */
+public interface ActionPlanCache {
+  /** Returns the action items cached for the given key, if there are any. */
+  Optional<ImmutableList<ActionItem>> get(ActionPlanCacheKey key);
+
+  /** Stores the action items generated for the given key. */
+  void put(ActionPlanCacheKey key, ImmutableList<ActionItem> actionItems);
+
+  /** Returns whether plans are cached at all, so keys that cost more to build can be skipped. */
+  boolean isEnabled();
+
+  /** Returns the number of lookups that found a cached plan. */
+  long getHitCount();
+
+  /** Returns the number of lookups that did not find a cached plan. */
+  long getMissCount();
+}
@@ -0,0 +1,19 @@
+package org.varamadon.autorefactor.server.agent.cache;
+
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Identifies a cached action plan. The same file can get a different plan if the system prompt or
+ * the model changes, so both are part of the key.
+ */
+public record ActionPlanCacheKey(String fileHash, String systemPromptHash, String modelName) {
+  /** Returns a SHA-256 digest of the key, which is also safe to use as a file name. */
+  public String digest() {
+    return Hashing.sha256()
+        .hashString(
+            String.join("\n", fileHash, systemPromptHash, String.valueOf(modelName)),
+            StandardCharsets.UTF_8)
+        .toString();
+  }
+}
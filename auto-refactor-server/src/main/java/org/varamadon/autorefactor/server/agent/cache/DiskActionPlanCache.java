@@ -0,0 +1,191 @@
+package org.varamadon.autorefactor.server.agent.cache;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.varamadon.autorefactor.shared.model.ActionItem;
+
+/**
+ * Implementation of {@link ActionPlanCache} that keeps every entry as a JSON file in a local
+ * directory, so the cache survives server restarts. Entries are also kept in memory and the least
+ * recently used ones are evicted once the configured number of entries is exceeded.
+ */
+@Component
+@ConditionalOnProperty(
+    name = "org.varamadon.autorefactor.agent.plan-cache.enabled",
+    havingValue = "true",
+    matchIfMissing = true)
+public class DiskActionPlanCache implements ActionPlanCache {
+  private static final String ENTRY_EXTENSION = ".json";
+  private static final TypeReference<List<ActionItem>> ACTION_ITEMS_TYPE = new TypeReference<>() {};
+
+  private final Logger log = LoggerFactory.getLogger(DiskActionPlanCache.class);
+  private final Path directory;
+  private final int maxEntries;
+  private final ObjectReader actionItemsReader;
+  private final ObjectWriter actionItemsWriter;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  /** Entries by key digest in access order, guarded by itself. */
+  private final LinkedHashMap<String, ImmutableList<ActionItem>> entries;
+
+  /**
+   * Creates a new instance of the DiskActionPlanCache and loads the entries stored in the given
+   * directory.
+   *
+   * @param directory the directory where the entries are stored, created if it doesn't exist.
+   * @param maxEntries the maximum number of entries to keep.
+   * @param objectMapper the JSON mapper for serializing and deserializing action items.
+   */
+  public DiskActionPlanCache(
+      @Value("${org.varamadon.autorefactor.agent.plan-cache.directory:plan-cache}") Path directory,
+      @Value("${org.varamadon.autorefactor.agent.plan-cache.max-entries:100000}") int maxEntries,
+      ObjectMapper objectMapper) {
+    this.directory = directory;
+    this.maxEntries = maxEntries;
+    this.actionItemsReader = objectMapper.readerFor(ACTION_ITEMS_TYPE);
+    this.actionItemsWriter = objectMapper.writerFor(ACTION_ITEMS_TYPE);
+    this.entries =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, ImmutableList<ActionItem>> eldest) {
+            if (size() <= maxEntries) {
+              return false;
+            }
+            deleteEntryFile(eldest.getKey());
+            return true;
+          }
+        };
+    loadEntries();
+  }
+
+  @Override
+  public Optional<ImmutableList<ActionItem>> get(ActionPlanCacheKey key) {
+    String digest = key.digest();
+    ImmutableList<ActionItem> actionItems;
+    synchronized (entries) {
+      actionItems = entries.get(digest);
+    }
+    if (actionItems == null) {
+      missCount.incrementAndGet();
+      return Optional.empty();
+    }
+    hitCount.incrementAndGet();
+    touchEntryFile(digest);
+    return Optional.of(actionItems);
+  }
+
+  @Override
+  public void put(ActionPlanCacheKey key, ImmutableList<ActionItem> actionItems) {
+    String digest = key.digest();
+    try {
+      Files.write(getEntryFile(digest), actionItemsWriter.writeValueAsBytes(actionItems));
+    } catch (IOException e) {
+      log.warn("Failed to store action plan cache entry {}", digest, e);
+      return;
+    }
+    synchronized (entries) {
+      entries.put(digest, actionItems);
+    }
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return true;
+  }
+
+  @Override
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  @Override
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /** Loads the stored entries from the oldest to the most recently used one. */
+  private void loadEntries() {
+    try {
+      Files.createDirectories(directory);
+      List<Path> entryFiles;
+      try (Stream<Path> files = Files.list(directory)) {
+        entryFiles =
+            files
+                .filter(file -> file.getFileName().toString().endsWith(ENTRY_EXTENSION))
+                .sorted(Comparator.comparing(DiskActionPlanCache::getLastModifiedTime))
+                .toList();
+      }
+      for (Path entryFile : entryFiles) {
+        loadEntry(entryFile);
+      }
+      log.info("Loaded {} action plan cache entries from {}", entries.size(), directory);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to load action plan cache from " + directory, e);
+    }
+  }
+
+  private void loadEntry(Path entryFile) {
+    String fileName = entryFile.getFileName().toString();
+    String digest = fileName.substring(0, fileName.length() - ENTRY_EXTENSION.length());
+    try {
+      List<ActionItem> actionItems = actionItemsReader.readValue(entryFile.toFile());
+      synchronized (entries) {
+        entries.put(digest, ImmutableList.copyOf(actionItems));
+      }
+    } catch (IOException e) {
+      log.warn("Skipping unreadable action plan cache entry {}", entryFile, e);
+      deleteEntryFile(digest);
+    }
+  }
+
+  /** Updates the modification time of the entry file to keep the usage order across restarts. */
+  private void touchEntryFile(String digest) {
+    try {
+      Files.setLastModifiedTime(getEntryFile(digest), FileTime.from(Instant.now()));
+    } catch (IOException e) {
+      log.debug("Failed to touch action plan cache entry {}", digest, e);
+    }
+  }
+
+  private void deleteEntryFile(String digest) {
+    try {
+      Files.deleteIfExists(getEntryFile(digest));
+    } catch (IOException e) {
+      log.warn("Failed to delete action plan cache entry {}", digest, e);
+    }
+  }
+
+  private Path getEntryFile(String digest) {
+    return directory.resolve(digest + ENTRY_EXTENSION);
+  }
+
+  private static FileTime getLastModifiedTime(Path file) {
+    try {
+      return Files.getLastModifiedTime(file);
+    } catch (IOException e) {
+      return FileTime.fromMillis(0);
+    }
+  }
+}
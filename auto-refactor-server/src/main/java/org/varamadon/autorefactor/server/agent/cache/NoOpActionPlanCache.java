@@ -0,0 +1,41 @@
+package org.varamadon.autorefactor.server.agent.cache;
+
+import com.google.common.collect.ImmutableList;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.varamadon.autorefactor.shared.model.ActionItem;
+
+/** Implementation of {@link ActionPlanCache} used when caching is disabled. Never finds a plan. */
+@Component
+@ConditionalOnProperty(
+    name = "org.varamadon.autorefactor.agent.plan-cache.enabled",
+    havingValue = "false")
+public class NoOpActionPlanCache implements ActionPlanCache {
+  private final AtomicLong missCount = new AtomicLong();
+
+  @Override
+  public Optional<ImmutableList<ActionItem>> get(ActionPlanCacheKey key) {
+    missCount.incrementAndGet();
+    return Optional.empty();
+  }
+
+  @Override
+  public void put(ActionPlanCacheKey key, ImmutableList<ActionItem> actionItems) {}
+
+  @Override
+  public boolean isEnabled() {
+    return false;
+  }
+
+  @Override
+  public long getHitCount() {
+    return 0;
+  }
+
+  @Override
+  public long getMissCount() {
+    return missCount.get();
+  }
+}
@@ -0,0 +1,52 @@
+package org.varamadon.autorefactor.server.agent.command;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.varamadon.autorefactor.shared.model.ActionPlan;
+import org.varamadon.autorefactor.shared.model.SourceFile;
+
+/**
+ * {@link RefactoringAgentCommandExecutor} that doesn't hold a thread while a command is in flight.
+ * The blocking methods wait for the corresponding futures.
+ */
+public interface NonBlockingCommandExecutor extends RefactoringAgentCommandExecutor {
+  /**
+   * Executes a command for the next file in the given repository, see {@link
+   * #executeNextFileCommand(String)}. The future completes with {@link SourceFile#EMPTY} if there
+   * are no more files left to process.
+   */
+  CompletableFuture<SourceFile> executeNextFileCommandAsync(String repositoryId);
+
+  /**
+   * Executes a command for a batch of next files in the given repository, see {@link
+   * #executeNextFilesCommand(String, int, int)}.
+   */
+  CompletableFuture<List<SourceFile>> executeNextFilesCommandAsync(
+      String repositoryId, int count, int maxBytes);
+
+  /** Executes a command for applying the given action plan on the given repository. */
+  CompletableFuture<Void> executeActionPlanCommandAsync(String repositoryId, ActionPlan actionPlan);
+
+  /** Executes a finish command for the given repository. */
+  CompletableFuture<Void> executeFinishCommandAsync(String repositoryId);
+
+  @Override
+  default SourceFile executeNextFileCommand(String repositoryId) {
+    return executeNextFileCommandAsync(repositoryId).join();
+  }
+
+  @Override
+  default List<SourceFile> executeNextFilesCommand(String repositoryId, int count, int maxBytes) {
+    return executeNextFilesCommandAsync(repositoryId, count, maxBytes).join();
+  }
+
+  @Override
+  default void executeActionPlanCommand(String repositoryId, ActionPlan actionPlan) {
+    executeActionPlanCommandAsync(repositoryId, actionPlan).join();
+  }
+
+  @Override
+  default void executeFinishCommand(String repositoryId) {
+    executeFinishCommandAsync(repositoryId).join();
+  }
+}
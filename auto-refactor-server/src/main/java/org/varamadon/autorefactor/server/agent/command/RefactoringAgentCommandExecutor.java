@@ -1,14 +1,24 @@
 package org.varamadon.autorefactor.server.agent.command;
 
+import java.util.List;
 import org.varamadon.autorefactor.shared.model.ActionPlan;
+import org.varamadon.autorefactor.shared.model.SourceFile;
 
 /** Component that executes commands from the refactoring agent. */
 public interface RefactoringAgentCommandExecutor {
   /**
-   * Executes a command for the next file in the given repository. Returns empty string if there are
-   * no more files left to process.
+   * Executes a command for the next file in the given repository. The file has the hash sent by the
+   * client, or is hashed if the client didn't send it. Returns {@link SourceFile#EMPTY} if there
+   * are no more files left to process.
    */
-  String executeNextFileCommand(String repositoryId);
+  SourceFile executeNextFileCommand(String repositoryId);
+
+  /**
+   * Executes a command for a batch of next files in the given repository. The batch contains at
+   * most {@code count} files and at most {@code maxBytes} bytes of content, but at least one file
+   * if there are any left. Returns empty list if there are no more files left to process.
+   */
+  List<SourceFile> executeNextFilesCommand(String repositoryId, int count, int maxBytes);
 
   /** Executes a command for applying the given action plan on the given repository. */
   void executeActionPlanCommand(String repositoryId, ActionPlan actionPlan);
@@ -0,0 +1,88 @@
+package org.varamadon.autorefactor.server.agent.command.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * {@link ClientHttpRequestInterceptor} negotiating gzip compression with the tools for the
+ * RestTemplate based command executor.
+ */
+public class GzipRequestInterceptor implements ClientHttpRequestInterceptor {
+  private final TransportCompression compression;
+
+  public GzipRequestInterceptor(TransportCompression compression) {
+    this.compression = compression;
+  }
+
+  @Override
+  public ClientHttpResponse intercept(
+      HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+    if (!compression.isEnabled()) {
+      return execution.execute(request, body);
+    }
+    request.getHeaders().set(HttpHeaders.ACCEPT_ENCODING, TransportCompression.GZIP);
+    byte[] sentBody = body;
+    if (compression.shouldCompress(body.length)) {
+      sentBody = compression.compress(body);
+      request.getHeaders().set(HttpHeaders.CONTENT_ENCODING, TransportCompression.GZIP);
+      request.getHeaders().setContentLength(sentBody.length);
+    }
+    ClientHttpResponse response = execution.execute(request, sentBody);
+    String contentEncoding = response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+    if (!TransportCompression.GZIP.equalsIgnoreCase(contentEncoding)) {
+      return response;
+    }
+    try (response) {
+      byte[] decompressed = compression.decompress(response.getBody().readAllBytes());
+      return new DecompressedResponse(response, decompressed);
+    }
+  }
+
+  /** Response with a decompressed body, the original response is already closed. */
+  private static class DecompressedResponse implements ClientHttpResponse {
+    private final HttpStatusCode statusCode;
+    private final String statusText;
+    private final HttpHeaders headers;
+    private final byte[] body;
+
+    DecompressedResponse(ClientHttpResponse response, byte[] body) throws IOException {
+      this.statusCode = response.getStatusCode();
+      this.statusText = response.getStatusText();
+      this.headers = new HttpHeaders();
+      this.headers.putAll(response.getHeaders());
+      this.headers.remove(HttpHeaders.CONTENT_ENCODING);
+      this.headers.setContentLength(body.length);
+      this.body = body;
+    }
+
+    @Override
+    public HttpStatusCode getStatusCode() {
+      return statusCode;
+    }
+
+    @Override
+    public String getStatusText() {
+      return statusText;
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+      return headers;
+    }
+
+    @Override
+    public InputStream getBody() {
+      return new ByteArrayInputStream(body);
+    }
+
+    @Override
+    public void close() {}
+  }
+}
@@ -0,0 +1,83 @@
+package org.varamadon.autorefactor.server.agent.command.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gzip compression of the traffic between the server and the tools. Request bodies smaller than
+ * the threshold are sent raw, since compressing them saves less than it costs. Counts the bytes
+ * saved in both directions.
+ */
+@Component
+public class TransportCompression {
+  public static final String GZIP = "gzip";
+
+  private final boolean enabled;
+  private final int thresholdBytes;
+  private final AtomicLong sentBytesSaved = new AtomicLong();
+  private final AtomicLong receivedBytesSaved = new AtomicLong();
+
+  /**
+   * Creates a new instance of the TransportCompression.
+   *
+   * @param enabled whether compressed requests are sent and compressed responses are accepted.
+   * @param thresholdBytes the minimum size of a request body that is compressed.
+   */
+  public TransportCompression(
+      @Value("${org.varamadon.autorefactor.agent.compression.enabled:true}") boolean enabled,
+      @Value("${org.varamadon.autorefactor.agent.compression.threshold-bytes:1024}")
+          int thresholdBytes) {
+    this.enabled = enabled;
+    this.thresholdBytes = thresholdBytes;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Tells whether a request body of the given size should be compressed. */
+  public boolean shouldCompress(int bodySize) {
+    return enabled && bodySize >= thresholdBytes;
+  }
+
+  /** Compresses a request body and counts the saved bytes. */
+  public byte[] compress(byte[] body) {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+      gzip.write(body);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to compress request body", e);
+    }
+    sentBytesSaved.addAndGet(body.length - compressed.size());
+    return compressed.toByteArray();
+  }
+
+  /** Decompresses a response body and counts the saved bytes. */
+  public byte[] decompress(byte[] body) {
+    try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(body))) {
+      byte[] decompressed = gzip.readAllBytes();
+      receivedBytesSaved.addAndGet(decompressed.length - body.length);
+      return decompressed;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to decompress response body", e);
+    }
+  }
+
+  /** Returns the number of bytes saved by compressing request bodies, mostly action plans. */
+  public long getSentBytesSaved() {
+    return sentBytesSaved.get();
+  }
+
+  /** Returns the number of bytes saved by compressed response bodies, mostly file contents. */
+  public long getReceivedBytesSaved() {
+    return receivedBytesSaved.get();
+  }
+}
@@ -1,49 +1,152 @@
 package org.varamadon.autorefactor.server.agent.command.impl;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 import org.varamadon.autorefactor.server.agent.command.RefactoringAgentCommandExecutor;
 import org.varamadon.autorefactor.server.agent.command.ToolsInfoStore;
+import org.varamadon.autorefactor.server.agent.content.ContentHashing;
+import org.varamadon.autorefactor.server.agent.metrics.AgentMetrics;
+import org.varamadon.autorefactor.server.web.RestTemplateConfig;
 import org.varamadon.autorefactor.shared.model.ActionPlan;
+import org.varamadon.autorefactor.shared.model.SourceFile;
 
 @Component
+@ConditionalOnProperty(
+    name = "org.varamadon.autorefactor.agent.command-executor",
+    havingValue = "blocking",
+    matchIfMissing = true)
 public class CommandExecutorImpl implements RefactoringAgentCommandExecutor {
   private final Logger log = LoggerFactory.getLogger(CommandExecutorImpl.class);
   private final RestTemplate restTemplate;
+  private final RestTemplate actionPlanRestTemplate;
+  private final RestTemplate finishRestTemplate;
   private final ToolsInfoStore toolsInfoStore;
+  private final ToolFileBuffer fileBuffer;
+  private final AgentMetrics metrics;
 
-  public CommandExecutorImpl(RestTemplate restTemplate, ToolsInfoStore toolsInfoStore) {
+  /**
+   * Creates a new instance of the CommandExecutorImpl.
+   *
+   * @param restTemplate the RestTemplate of the next file command.
+   * @param actionPlanRestTemplate the RestTemplate of the action plan command, which may trigger
+   *     project-wide renames and therefore has a longer read timeout.
+   * @param finishRestTemplate the RestTemplate of the finish command.
+   * @param toolsInfoStore the store of tool URLs by repository.
+   * @param fileBuffer the buffer of files fetched in batches.
+   * @param metrics the metrics recording the latency of the requests.
+   */
+  public CommandExecutorImpl(
+      RestTemplate restTemplate,
+      @Qualifier(RestTemplateConfig.ACTION_PLAN_REST_TEMPLATE) RestTemplate actionPlanRestTemplate,
+      @Qualifier(RestTemplateConfig.FINISH_REST_TEMPLATE) RestTemplate finishRestTemplate,
+      ToolsInfoStore toolsInfoStore,
+      ToolFileBuffer fileBuffer,
+      AgentMetrics metrics) {
     this.restTemplate = restTemplate;
+    this.actionPlanRestTemplate = actionPlanRestTemplate;
+    this.finishRestTemplate = finishRestTemplate;
     this.toolsInfoStore = toolsInfoStore;
+    this.fileBuffer = fileBuffer;
+    this.metrics = metrics;
   }
 
   @Override
-  public String executeNextFileCommand(String repositoryId) {
+  public SourceFile executeNextFileCommand(String repositoryId) {
+    if (fileBuffer.isEnabled()) {
+      return fileBuffer
+          .poll(repositoryId)
+          .orElseGet(
+              () ->
+                  fileBuffer.fill(
+                      repositoryId,
+                      executeNextFilesCommand(
+                          repositoryId, fileBuffer.getBatchSize(), fileBuffer.getBatchMaxBytes())));
+    }
     log.debug("Executing next file command");
+    String toolUrl = getToolUrl(repositoryId);
     ResponseEntity<String> response =
-        restTemplate.getForEntity(getToolUrl(repositoryId) + "/files/next", String.class);
+        timed(
+            repositoryId,
+            AgentMetrics.FILES_NEXT_ENDPOINT,
+            () -> restTemplate.getForEntity(toolUrl + "/files/next", String.class));
     String body = response.getBody();
+    HttpHeaders headers = response.getHeaders();
 
-    return body == null ? "" : body;
+    return ContentHashing.withTrustedHash(
+        headers.getFirst(SourceFile.HASH_HEADER),
+        headers.getFirst(SourceFile.CHAR_COUNT_HEADER),
+        body == null ? "" : body);
+  }
+
+  @Override
+  public List<SourceFile> executeNextFilesCommand(String repositoryId, int count, int maxBytes) {
+    log.debug("Executing next files command");
+    String toolUrl = getToolUrl(repositoryId);
+    ResponseEntity<List<SourceFile>> response =
+        timed(
+            repositoryId,
+            AgentMetrics.FILES_NEXT_ENDPOINT,
+            () ->
+                restTemplate.exchange(
+                    toolUrl + "/files/next?count={count}&maxBytes={maxBytes}",
+                    HttpMethod.GET,
+                    null,
+                    new ParameterizedTypeReference<>() {},
+                    count,
+                    maxBytes));
+    List<SourceFile> body = response.getBody();
+
+    return body == null ? List.of() : body;
   }
 
   @Override
   public void executeActionPlanCommand(String repositoryId, ActionPlan actionPlan) {
     log.debug("Executing action plan command");
-    restTemplate.postForEntity(
-            getToolUrl(repositoryId) + "/actions/execute", actionPlan, String.class);
+    String toolUrl = getToolUrl(repositoryId);
+    timed(
+        repositoryId,
+        AgentMetrics.ACTIONS_EXECUTE_ENDPOINT,
+        () ->
+            actionPlanRestTemplate.postForEntity(
+                toolUrl + "/actions/execute", actionPlan, String.class));
   }
 
   @Override
   public void executeFinishCommand(String repositoryId) {
     log.debug("Executing finish command");
+    fileBuffer.clear(repositoryId);
     Optional<String> url = toolsInfoStore.getToolUrl(repositoryId);
     toolsInfoStore.removeToolUrl(repositoryId);
-    url.ifPresent(it -> restTemplate.postForEntity(it + "/finish", "", String.class));
+    url.ifPresent(
+        it ->
+            timed(
+                repositoryId,
+                AgentMetrics.FINISH_ENDPOINT,
+                () -> finishRestTemplate.postForEntity(it + "/finish", "", String.class)));
+  }
+
+  /** Sends the request to the tool and records its latency for the endpoint. */
+  private <T> T timed(String repositoryId, String endpoint, Supplier<T> request) {
+    long startNanos = System.nanoTime();
+    boolean succeeded = false;
+    try {
+      T response = request.get();
+      succeeded = true;
+      return response;
+    } finally {
+      metrics.recordToolRequest(repositoryId, endpoint, System.nanoTime() - startNanos, succeeded);
+    }
   }
 
   private String getToolUrl(String repositoryId) {
@@ -0,0 +1,118 @@
+package org.varamadon.autorefactor.server.agent.command.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.varamadon.autorefactor.server.agent.command.ToolsInfoStore;
+
+/**
+ * Implementation of {@link ToolsInfoStore} that keeps the tool URLs in a file next to the messages
+ * of the {@code mapped} messages store. The pending messages replayed after a restart can then
+ * still reach the tools of their repositories.
+ *
+ * <p>Every change rewrites the whole file into a temporary file, forces it and moves it over the
+ * old one, so the file always contains either the old or the new registrations.
+ */
+@Component
+@ConditionalOnProperty(
+    name = "org.varamadon.autorefactor.agent.messages-store",
+    havingValue = "mapped")
+public class FileToolsInfoStore implements ToolsInfoStore {
+  private static final String TOOLS_FILE = "tools.properties";
+
+  private final Path file;
+  private final ConcurrentMap<String, String> toolUrls = new ConcurrentHashMap<>();
+
+  /** Serializes the changes, so the file is written in the order the changes were made. */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /**
+   * Creates a new instance of the FileToolsInfoStore and loads the tool URLs stored in the given
+   * directory.
+   *
+   * @param directory the directory of the messages store, created if it doesn't exist.
+   */
+  public FileToolsInfoStore(
+      @Value("${org.varamadon.autorefactor.agent.messages-store.directory:messages}")
+          Path directory) {
+    this.file = directory.resolve(TOOLS_FILE);
+    try {
+      Files.createDirectories(directory);
+      if (Files.exists(file)) {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+          properties.load(reader);
+        }
+        properties.forEach((key, value) -> toolUrls.put((String) key, (String) value));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to load tool URLs from " + file, e);
+    }
+  }
+
+  @Override
+  public void registerToolUrl(String repositoryId, String toolUrl) {
+    lock.lock();
+    try {
+      toolUrls.put(repositoryId, toolUrl);
+      write();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Optional<String> getToolUrl(String repositoryId) {
+    return Optional.ofNullable(toolUrls.get(repositoryId));
+  }
+
+  @Override
+  public void removeToolUrl(String repositoryId) {
+    lock.lock();
+    try {
+      if (toolUrls.remove(repositoryId) != null) {
+        write();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void write() {
+    Properties properties = new Properties();
+    properties.putAll(toolUrls);
+    Path temporaryFile = file.resolveSibling(TOOLS_FILE + ".tmp");
+    try {
+      try (FileChannel channel =
+          FileChannel.open(
+              temporaryFile,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING)) {
+        OutputStream output = Channels.newOutputStream(channel);
+        properties.store(output, null);
+        output.flush();
+        channel.force(true);
+      }
+      Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to store tool URLs in " + file, e);
+    }
+  }
+}
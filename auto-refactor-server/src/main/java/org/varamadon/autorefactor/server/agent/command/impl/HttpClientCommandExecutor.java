@@ -0,0 +1,282 @@
+package org.varamadon.autorefactor.server.agent.command.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.varamadon.autorefactor.server.agent.command.NonBlockingCommandExecutor;
+import org.varamadon.autorefactor.server.agent.command.ToolsInfoStore;
+import org.varamadon.autorefactor.server.agent.command.compression.TransportCompression;
+import org.varamadon.autorefactor.server.agent.content.ContentHashing;
+import org.varamadon.autorefactor.server.agent.metrics.AgentMetrics;
+import org.varamadon.autorefactor.shared.model.ActionPlan;
+import org.varamadon.autorefactor.shared.model.SourceFile;
+
+/**
+ * {@link NonBlockingCommandExecutor} on the JDK {@link HttpClient}. The client keeps a pool of
+ * keep-alive connections to every tool URL, and every command has its own timeout, so long action
+ * plans don't share the timeout of quick file requests.
+ */
+@Component
+@ConditionalOnProperty(
+    name = "org.varamadon.autorefactor.agent.command-executor",
+    havingValue = "non-blocking")
+public class HttpClientCommandExecutor implements NonBlockingCommandExecutor {
+  private final Logger log = LoggerFactory.getLogger(HttpClientCommandExecutor.class);
+  private final HttpClient httpClient;
+  private final ToolsInfoStore toolsInfoStore;
+  private final ObjectMapper objectMapper;
+  private final ToolFileBuffer fileBuffer;
+  private final TransportCompression compression;
+  private final AgentMetrics metrics;
+  private final Duration nextFileTimeout;
+  private final Duration actionPlanTimeout;
+  private final Duration finishTimeout;
+
+  /**
+   * Creates a new instance of the HttpClientCommandExecutor.
+   *
+   * @param toolsInfoStore the store of tool URLs by repository.
+   * @param objectMapper the mapper used for serializing action plans.
+   * @param fileBuffer the buffer of files fetched in batches.
+   * @param compression the compression of requests and responses.
+   * @param metrics the metrics recording the latency of the requests.
+   * @param connectTimeout the timeout of opening a connection to a tool.
+   * @param nextFileTimeout the timeout of the next file command.
+   * @param actionPlanTimeout the timeout of the action plan command, which may trigger
+   *     project-wide renames.
+   * @param finishTimeout the timeout of the finish command.
+   */
+  public HttpClientCommandExecutor(
+      ToolsInfoStore toolsInfoStore,
+      ObjectMapper objectMapper,
+      ToolFileBuffer fileBuffer,
+      TransportCompression compression,
+      AgentMetrics metrics,
+      @Value("${org.varamadon.autorefactor.agent.command.connect-timeout:5s}")
+          Duration connectTimeout,
+      @Value("${org.varamadon.autorefactor.agent.command.next-file-timeout:10s}")
+          Duration nextFileTimeout,
+      @Value("${org.varamadon.autorefactor.agent.command.action-plan-timeout:5m}")
+          Duration actionPlanTimeout,
+      @Value("${org.varamadon.autorefactor.agent.command.finish-timeout:10s}")
+          Duration finishTimeout) {
+    this.httpClient =
+        HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(connectTimeout)
+            .build();
+    this.toolsInfoStore = toolsInfoStore;
+    this.objectMapper = objectMapper;
+    this.fileBuffer = fileBuffer;
+    this.compression = compression;
+    this.metrics = metrics;
+    this.nextFileTimeout = nextFileTimeout;
+    this.actionPlanTimeout = actionPlanTimeout;
+    this.finishTimeout = finishTimeout;
+  }
+
+  @Override
+  public CompletableFuture<SourceFile> executeNextFileCommandAsync(String repositoryId) {
+    if (fileBuffer.isEnabled()) {
+      return fileBuffer
+          .poll(repositoryId)
+          .map(CompletableFuture::completedFuture)
+          .orElseGet(
+              () ->
+                  executeNextFilesCommandAsync(
+                          repositoryId, fileBuffer.getBatchSize(), fileBuffer.getBatchMaxBytes())
+                      .thenApply(batch -> fileBuffer.fill(repositoryId, batch)));
+    }
+    log.debug("Executing next file command");
+    HttpRequest request =
+        newRequest(getToolUri(repositoryId, "/files/next"), nextFileTimeout)
+            .GET()
+            .build();
+    return send(repositoryId, AgentMetrics.FILES_NEXT_ENDPOINT, request, this::readSourceFile);
+  }
+
+  @Override
+  public CompletableFuture<List<SourceFile>> executeNextFilesCommandAsync(
+      String repositoryId, int count, int maxBytes) {
+    log.debug("Executing next files command");
+    HttpRequest request =
+        newRequest(
+                getToolUri(repositoryId, "/files/next?count=" + count + "&maxBytes=" + maxBytes),
+                nextFileTimeout)
+            .GET()
+            .build();
+    return send(repositoryId, AgentMetrics.FILES_NEXT_ENDPOINT, request)
+        .thenApply(this::deserializeSourceFiles);
+  }
+
+  @Override
+  public CompletableFuture<Void> executeActionPlanCommandAsync(
+      String repositoryId, ActionPlan actionPlan) {
+    log.debug("Executing action plan command");
+    HttpRequest.Builder requestBuilder =
+        newRequest(getToolUri(repositoryId, "/actions/execute"), actionPlanTimeout)
+            .header("Content-Type", "application/json");
+    byte[] actionPlanBytes = serialize(actionPlan).getBytes(StandardCharsets.UTF_8);
+    if (compression.shouldCompress(actionPlanBytes.length)) {
+      actionPlanBytes = compression.compress(actionPlanBytes);
+      requestBuilder.header("Content-Encoding", TransportCompression.GZIP);
+    }
+    HttpRequest request =
+        requestBuilder.POST(HttpRequest.BodyPublishers.ofByteArray(actionPlanBytes)).build();
+    return send(repositoryId, AgentMetrics.ACTIONS_EXECUTE_ENDPOINT, request)
+        .thenApply(body -> null);
+  }
+
+  @Override
+  public CompletableFuture<Void> executeFinishCommandAsync(String repositoryId) {
+    log.debug("Executing finish command");
+    fileBuffer.clear(repositoryId);
+    Optional<String> url = toolsInfoStore.getToolUrl(repositoryId);
+    toolsInfoStore.removeToolUrl(repositoryId);
+    if (url.isEmpty()) {
+      return CompletableFuture.completedFuture(null);
+    }
+    HttpRequest request =
+        newRequest(URI.create(url.get() + "/finish"), finishTimeout)
+            .POST(HttpRequest.BodyPublishers.noBody())
+            .build();
+    return send(repositoryId, AgentMetrics.FINISH_ENDPOINT, request).thenApply(body -> null);
+  }
+
+  /** Creates a request that accepts a compressed response if compression is enabled. */
+  private HttpRequest.Builder newRequest(URI uri, Duration timeout) {
+    HttpRequest.Builder builder = HttpRequest.newBuilder(uri).timeout(timeout);
+    if (compression.isEnabled()) {
+      builder.header("Accept-Encoding", TransportCompression.GZIP);
+    }
+    return builder;
+  }
+
+  /**
+   * Sends the request, the future fails if the tool doesn't respond with a successful status. A
+   * pooled connection may turn out to be already closed by the tool, in that case a GET request is
+   * sent once more on a new connection. Other requests are not resent, since the tool may have
+   * executed them before the connection was lost, and an action plan must never be applied twice.
+   * The latency of the request, including the resending, is recorded for the endpoint.
+   */
+  private CompletableFuture<String> send(
+      String repositoryId, String endpoint, HttpRequest request) {
+    return send(repositoryId, endpoint, request, (headers, body) -> body);
+  }
+
+  /** Sends the request as {@link #send(String, String, HttpRequest)} and reads the response. */
+  private <T> CompletableFuture<T> send(
+      String repositoryId,
+      String endpoint,
+      HttpRequest request,
+      BiFunction<HttpHeaders, String, T> responseReader) {
+    long startNanos = System.nanoTime();
+    return httpClient
+        .sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+        .handle(
+            (response, e) -> {
+              if (e == null) {
+                return CompletableFuture.completedFuture(response);
+              }
+              if (request.method().equals("GET") && isClosedConnection(e)) {
+                log.debug("Connection to {} was closed, resending the request", request.uri());
+                return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+              }
+              return CompletableFuture.<HttpResponse<byte[]>>failedFuture(e);
+            })
+        .thenCompose(Function.identity())
+        .thenApply(
+            response -> {
+              String body = decodeBody(response);
+              if (response.statusCode() / 100 != 2) {
+                throw new IllegalStateException(
+                    "Tool responded with status "
+                        + response.statusCode()
+                        + " to "
+                        + request.uri()
+                        + ": "
+                        + body);
+              }
+              return responseReader.apply(response.headers(), body);
+            })
+        .whenComplete(
+            (body, e) ->
+                metrics.recordToolRequest(
+                    repositoryId, endpoint, System.nanoTime() - startNanos, e == null));
+  }
+
+  private String decodeBody(HttpResponse<byte[]> response) {
+    byte[] body = response.body();
+    if (body == null) {
+      return "";
+    }
+    boolean compressed =
+        response
+            .headers()
+            .firstValue("Content-Encoding")
+            .filter(TransportCompression.GZIP::equalsIgnoreCase)
+            .isPresent();
+    return new String(compressed ? compression.decompress(body) : body, StandardCharsets.UTF_8);
+  }
+
+  /** Connection failures other than timeouts mean the tool didn't respond to the request. */
+  private static boolean isClosedConnection(Throwable e) {
+    Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+    return cause instanceof IOException && !(cause instanceof HttpTimeoutException);
+  }
+
+  private String serialize(ActionPlan actionPlan) {
+    try {
+      return objectMapper.writeValueAsString(actionPlan);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Failed to serialize action plan", e);
+    }
+  }
+
+  /** Reads a single file sent as a plain text body, with its hash and char count in the headers. */
+  private SourceFile readSourceFile(HttpHeaders headers, String content) {
+    return ContentHashing.withTrustedHash(
+        headers.firstValue(SourceFile.HASH_HEADER).orElse(null),
+        headers.firstValue(SourceFile.CHAR_COUNT_HEADER).orElse(null),
+        content);
+  }
+
+  private List<SourceFile> deserializeSourceFiles(String sourceFiles) {
+    try {
+      return objectMapper.readValue(sourceFiles, new TypeReference<>() {});
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Tool responded with files in the wrong format", e);
+    }
+  }
+
+  private URI getToolUri(String repositoryId, String path) {
+    String toolUrl =
+        toolsInfoStore
+            .getToolUrl(repositoryId)
+            .orElseThrow(
+                () ->
+                    new IllegalStateException(
+                        "Tool url not found for repository " + repositoryId));
+    return URI.create(toolUrl + path);
+  }
+}
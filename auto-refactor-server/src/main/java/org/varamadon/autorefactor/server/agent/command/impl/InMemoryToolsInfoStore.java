@@ -3,14 +3,20 @@ package org.varamadon.autorefactor.server.agent.command.impl;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 import org.varamadon.autorefactor.server.agent.command.ToolsInfoStore;
 
 /**
  * Implementation of {@link ToolsInfoStore} that uses an in-memory map to store the information.
- * Should be replaced with a persistent storage mechanism to enable fault tolerance.
+ * Used unless the messages are stored in the {@code mapped} messages store, which keeps them across
+ * restarts and needs the tool URLs to survive as well, see {@link FileToolsInfoStore}.
  */
 @Component
+@ConditionalOnProperty(
+    name = "org.varamadon.autorefactor.agent.messages-store",
+    havingValue = "in-memory",
+    matchIfMissing = true)
 public class InMemoryToolsInfoStore implements ToolsInfoStore {
     private final ConcurrentMap<String, String> toolUrls = new ConcurrentHashMap<>();
 
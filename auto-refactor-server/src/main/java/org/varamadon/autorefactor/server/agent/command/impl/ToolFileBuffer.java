@@ -0,0 +1,80 @@
+package org.varamadon.autorefactor.server.agent.command.impl;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.varamadon.autorefactor.server.agent.content.ContentHashing;
+import org.varamadon.autorefactor.shared.model.SourceFile;
+
+/**
+ * Buffer of files fetched from the tools in batches, by repository. Command executors serve the
+ * next file from the buffer and fetch a new batch only when it is empty, so the network round trip
+ * is paid once per batch instead of once per file.
+ */
+@Component
+public class ToolFileBuffer {
+  private final int batchSize;
+  private final int batchMaxBytes;
+  private final ConcurrentMap<String, Queue<SourceFile>> filesByRepository =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Creates a new instance of the ToolFileBuffer.
+   *
+   * @param batchSize the maximum number of files fetched in one batch. With 1 files are fetched one
+   *     by one.
+   * @param batchMaxBytes the maximum total size of the files in one batch. A batch always contains
+   *     at least one file.
+   */
+  public ToolFileBuffer(
+      @Value("${org.varamadon.autorefactor.agent.file-buffer.batch-size:32}") int batchSize,
+      @Value("${org.varamadon.autorefactor.agent.file-buffer.batch-max-bytes:1048576}")
+          int batchMaxBytes) {
+    this.batchSize = batchSize;
+    this.batchMaxBytes = batchMaxBytes;
+  }
+
+  public boolean isEnabled() {
+    return batchSize > 1;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public int getBatchMaxBytes() {
+    return batchMaxBytes;
+  }
+
+  /** Takes the next buffered file of the repository, if there is any. */
+  public Optional<SourceFile> poll(String repositoryId) {
+    Queue<SourceFile> files = filesByRepository.get(repositoryId);
+    return Optional.ofNullable(files == null ? null : files.poll());
+  }
+
+  /**
+   * Buffers a newly fetched batch of files and takes the first of them. Files are buffered with the
+   * hashes sent by the client, see {@link ContentHashing#withTrustedHash(SourceFile)}.
+   *
+   * @return the first file of the batch, or {@link SourceFile#EMPTY} if the batch is empty, which
+   *     means there are no more files.
+   */
+  public SourceFile fill(String repositoryId, List<SourceFile> batch) {
+    Queue<SourceFile> files =
+        filesByRepository.computeIfAbsent(repositoryId, it -> new ConcurrentLinkedQueue<>());
+    for (SourceFile file : batch) {
+      files.add(ContentHashing.withTrustedHash(file));
+    }
+    return poll(repositoryId).orElse(SourceFile.EMPTY);
+  }
+
+  /** Drops the buffered files of the repository. */
+  public void clear(String repositoryId) {
+    filesByRepository.remove(repositoryId);
+  }
+}
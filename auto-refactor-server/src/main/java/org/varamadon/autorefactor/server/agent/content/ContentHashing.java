@@ -0,0 +1,61 @@
+package org.varamadon.autorefactor.server.agent.content;
+
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import org.varamadon.autorefactor.shared.model.SourceFile;
+
+/** Hashing of file contents, which identifies the files in the action plans. */
+public final class ContentHashing {
+  private ContentHashing() {}
+
+  /** Returns the hex-encoded SHA-256 hash of the UTF-8 encoded content. */
+  public static String sha256(String content) {
+    return Hashing.sha256().hashString(content, StandardCharsets.UTF_8).toString();
+  }
+
+  /** Hashes the content of a file sent without a hash. */
+  public static SourceFile hash(String content) {
+    return content.isEmpty()
+        ? SourceFile.EMPTY
+        : new SourceFile(sha256(content), content.length(), content);
+  }
+
+  /**
+   * Returns the file with the hash sent by the client if it was sent with the char count of the
+   * content, so hashing is done once on the client. Files sent without them, or with a char count
+   * that doesn't match the content received, are hashed again.
+   *
+   * <p>The trusted hash identifies the file only towards the client that sent it. It is checked
+   * against the content before the content is shared with other repositories, see {@link
+   * StoredFile#matchesHash()}.
+   */
+  public static SourceFile withTrustedHash(String hash, int charCount, String content) {
+    if (content.isEmpty()) {
+      return SourceFile.EMPTY;
+    }
+    if (hash == null || hash.isEmpty() || charCount != content.length()) {
+      return hash(content);
+    }
+    return new SourceFile(hash, charCount, content);
+  }
+
+  /**
+   * Reads the file sent as a plain text body with its hash and char count in the {@link
+   * SourceFile#HASH_HEADER} and {@link SourceFile#CHAR_COUNT_HEADER} headers, which may be missing.
+   */
+  public static SourceFile withTrustedHash(
+      String hashHeader, String charCountHeader, String content) {
+    int charCount;
+    try {
+      charCount = charCountHeader == null ? -1 : Integer.parseInt(charCountHeader);
+    } catch (NumberFormatException e) {
+      charCount = -1;
+    }
+    return withTrustedHash(hashHeader, charCount, content);
+  }
+
+  /** Returns the file with its hash trusted as in {@link #withTrustedHash(String, int, String)}. */
+  public static SourceFile withTrustedHash(SourceFile file) {
+    return withTrustedHash(file.hash(), file.charCount(), file.content());
+  }
+}
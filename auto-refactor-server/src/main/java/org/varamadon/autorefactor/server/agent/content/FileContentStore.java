@@ -0,0 +1,84 @@
+package org.varamadon.autorefactor.server.agent.content;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.varamadon.autorefactor.shared.model.SourceFile;
+
+/**
+ * Content-addressed store of the files being processed. Forks and vendored copies send the same
+ * content from many repositories, so files are stored by hash and reference counted: the content,
+ * its line index and its numbered view are kept once for all the runs processing it, and dropped
+ * when the last of them releases the file.
+ *
+ * <p>The hash may come from the client and is trusted when the file is stored, so the content is
+ * not hashed again on the server. A client can't replace the content another one stored: a file
+ * whose content differs from the stored content with the same hash is not shared. Before a file
+ * stored by one repository is shared with another one, its hash is checked against its content, see
+ * {@link StoredFile#matchesHash()}, so a client can't store a content under the hash of another one
+ * either. Only the contents sent by several repositories are hashed on the server.
+ */
+@Component
+public class FileContentStore {
+  private final Logger log = LoggerFactory.getLogger(FileContentStore.class);
+  private final ConcurrentMap<String, StoredFile> files = new ConcurrentHashMap<>();
+  private final LongAdder sharedCount = new LongAdder();
+
+  /**
+   * Stores the file sent by the given repository or takes another reference to the same content
+   * stored before. Every call must be followed by a {@link #release} of the returned file.
+   */
+  public StoredFile acquire(String repositoryId, SourceFile file) {
+    AtomicBoolean shared = new AtomicBoolean(true);
+    StoredFile storedFile =
+        files.compute(
+            file.hash(),
+            (hash, stored) -> {
+              if (stored == null) {
+                stored = new StoredFile(hash, LineIndex.of(file.content()), repositoryId);
+              } else if (stored.getContent().equals(file.content())
+                  && (stored.getRepositoryId().equals(repositoryId) || stored.matchesHash())) {
+                sharedCount.increment();
+              } else {
+                shared.set(false);
+                return stored;
+              }
+              stored.references++;
+              return stored;
+            });
+    if (!shared.get()) {
+      log.warn("Content of file {} can't be shared under its hash, not sharing it", file.hash());
+      return new StoredFile(file.hash(), LineIndex.of(file.content()), repositoryId);
+    }
+    return storedFile;
+  }
+
+  /**
+   * Releases a reference to the file, and drops it from the store with its last reference. Files
+   * that were not shared are not in the store.
+   */
+  public void release(StoredFile storedFile) {
+    files.computeIfPresent(
+        storedFile.getHash(),
+        (hash, stored) -> {
+          if (stored != storedFile) {
+            return stored;
+          }
+          return --stored.references == 0 ? null : stored;
+        });
+  }
+
+  /** Returns the number of distinct contents stored. */
+  public int getFileCount() {
+    return files.size();
+  }
+
+  /** Returns the number of times a file was served from the store instead of being stored again. */
+  public long getSharedCount() {
+    return sharedCount.sum();
+  }
+}
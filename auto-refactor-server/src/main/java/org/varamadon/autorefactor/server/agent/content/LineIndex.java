@@ -0,0 +1,169 @@
+package org.varamadon.autorefactor.server.agent.content;
+
+import java.util.Arrays;
+
+/**
+ * Index of the lines of a file content. The start offsets of the lines are found in one pass over
+ * the content, so any line can be resolved in O(1) by the line numbers the brain refers to, without
+ * splitting the content.
+ *
+ * <p>The lines are the ones of {@code content.split("\\R")}, which the agent used before: lines are
+ * terminated by any Unicode line break, including U+0085 and U+2028, "\r\n" is a single break, and
+ * empty lines at the end of the content are not lines.
+ */
+public final class LineIndex {
+  private static final String NUMBER_SEPARATOR = " | ";
+
+  private final String content;
+
+  /**
+   * Start offsets of the lines, followed by the length of the content. The line with the number
+   * {@code n} spans from {@code lineStarts[n - 1]} to {@code lineStarts[n]} with its terminator.
+   */
+  private final int[] lineStarts;
+
+  private final int lineCount;
+
+  private LineIndex(String content, int[] lineStarts, int lineCount) {
+    this.content = content;
+    this.lineStarts = lineStarts;
+    this.lineCount = lineCount;
+  }
+
+  /** Indexes the lines of the given content. */
+  public static LineIndex of(String content) {
+    if (content.isEmpty()) {
+      // Like split, content without any break is a single line
+      return new LineIndex(content, new int[] {0, 0}, 1);
+    }
+    int[] lineStarts = new int[16];
+    int lineCount = 0;
+    int length = content.length();
+    int lineStart = 0;
+    // Empty lines after the last line with content are dropped like by split
+    int keptLineCount = 0;
+    int keptEnd = 0;
+    for (int i = 0; i < length; i++) {
+      char c = content.charAt(i);
+      if (!isLineBreak(c)) {
+        continue;
+      }
+      boolean empty = i == lineStart;
+      if (c == '\r' && i + 1 < length && content.charAt(i + 1) == '\n') {
+        i++;
+      }
+      if (lineCount + 1 == lineStarts.length) {
+        lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+      }
+      lineStarts[lineCount++] = lineStart;
+      lineStart = i + 1;
+      if (!empty) {
+        keptLineCount = lineCount;
+        keptEnd = lineStart;
+      }
+    }
+    if (lineStart < length) {
+      if (lineCount + 1 == lineStarts.length) {
+        lineStarts = Arrays.copyOf(lineStarts, lineStarts.length + 1);
+      }
+      lineStarts[lineCount++] = lineStart;
+      keptLineCount = lineCount;
+      keptEnd = length;
+    }
+    lineStarts[keptLineCount] = keptEnd;
+    return new LineIndex(content, lineStarts, keptLineCount);
+  }
+
+  public String getContent() {
+    return content;
+  }
+
+  public int getLineCount() {
+    return lineCount;
+  }
+
+  /** Returns whether the content has a line with the given 1-based number. */
+  public boolean hasLine(int lineNumber) {
+    return lineNumber >= 1 && lineNumber <= lineCount;
+  }
+
+  /** Returns the offset of the first character of the line with the given 1-based number. */
+  public int getLineStart(int lineNumber) {
+    checkLine(lineNumber);
+    return lineStarts[lineNumber - 1];
+  }
+
+  /**
+   * Returns the offset right after the last character of the line with the given 1-based number,
+   * without its terminator.
+   */
+  public int getLineEnd(int lineNumber) {
+    checkLine(lineNumber);
+    int end = lineStarts[lineNumber];
+    int start = lineStarts[lineNumber - 1];
+    if (end > start && isLineBreak(content.charAt(end - 1))) {
+      end--;
+      if (end > start && content.charAt(end) == '\n' && content.charAt(end - 1) == '\r') {
+        end--;
+      }
+    }
+    return end;
+  }
+
+  /** Returns the line with the given 1-based number without its terminator. */
+  public String getLine(int lineNumber) {
+    return content.substring(getLineStart(lineNumber), getLineEnd(lineNumber));
+  }
+
+  /**
+   * Appends the content with every line prefixed with its number, followed by " | ", and terminated
+   * with the system line separator. The lines are copied from the content straight into the given
+   * builder.
+   */
+  public StringBuilder appendNumberedTo(StringBuilder builder) {
+    String lineSeparator = System.lineSeparator();
+    builder.ensureCapacity(builder.length() + getNumberedLength());
+    for (int line = 1; line <= lineCount; line++) {
+      builder
+          .append(line)
+          .append(NUMBER_SEPARATOR)
+          .append(content, getLineStart(line), getLineEnd(line))
+          .append(lineSeparator);
+    }
+    return builder;
+  }
+
+  /** Renders the content with numbered lines, see {@link #appendNumberedTo}. */
+  public String toNumberedString() {
+    return appendNumberedTo(new StringBuilder(getNumberedLength())).toString();
+  }
+
+  /** Returns the exact length of the content with numbered lines. */
+  private int getNumberedLength() {
+    int length = 0;
+    for (int line = 1; line <= lineCount; line++) {
+      length += getLineEnd(line) - getLineStart(line);
+    }
+    int prefixes = (NUMBER_SEPARATOR.length() + System.lineSeparator().length()) * lineCount;
+    // Digits of all the line numbers
+    for (int power = 1; power <= lineCount; power *= 10) {
+      prefixes += lineCount - power + 1;
+      if (power > Integer.MAX_VALUE / 10) {
+        break;
+      }
+    }
+    return length + prefixes;
+  }
+
+  /** Returns whether the char is a line break matched by the {@code \R} pattern. */
+  private static boolean isLineBreak(char c) {
+    return (c >= '\n' && c <= '\r') || c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
+
+  private void checkLine(int lineNumber) {
+    if (!hasLine(lineNumber)) {
+      throw new IndexOutOfBoundsException(
+          "Line " + lineNumber + " out of bounds for " + lineCount + " lines");
+    }
+  }
+}
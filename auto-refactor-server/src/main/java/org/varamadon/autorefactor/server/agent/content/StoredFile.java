@@ -0,0 +1,67 @@
+package org.varamadon.autorefactor.server.agent.content;
+
+/**
+ * File content held by the {@link FileContentStore}, shared by all the runs processing the same
+ * content. The numbered view sent to the brain is rendered once and kept with the content, so the
+ * conversation histories refer to the same string as well.
+ *
+ * <p>The hash may come from the client and is checked against the content only when the file is
+ * about to be shared with another repository, see {@link #matchesHash()}. Until then it identifies
+ * the file only within the repository that sent it.
+ */
+public final class StoredFile {
+  private final String hash;
+  private final LineIndex lineIndex;
+  private final String repositoryId;
+  private volatile String numberedContent;
+  private volatile Boolean matchesHash;
+
+  /** Number of runs holding the file, guarded by the map of the store. */
+  int references;
+
+  StoredFile(String hash, LineIndex lineIndex, String repositoryId) {
+    this.hash = hash;
+    this.lineIndex = lineIndex;
+    this.repositoryId = repositoryId;
+  }
+
+  public String getHash() {
+    return hash;
+  }
+
+  public String getContent() {
+    return lineIndex.getContent();
+  }
+
+  public LineIndex getLineIndex() {
+    return lineIndex;
+  }
+
+  /** Returns the repository that stored the file. */
+  String getRepositoryId() {
+    return repositoryId;
+  }
+
+  /**
+   * Returns whether the hash of the file is the hash of its content, which means that it can be
+   * used as a key across repositories. The content is hashed the first time this is called.
+   */
+  public boolean matchesHash() {
+    Boolean matches = matchesHash;
+    if (matches == null) {
+      matches = ContentHashing.sha256(getContent()).equals(hash);
+      matchesHash = matches;
+    }
+    return matches;
+  }
+
+  /** Returns the content with numbered lines, see {@link LineIndex#toNumberedString()}. */
+  public String getNumberedContent() {
+    String numbered = numberedContent;
+    if (numbered == null) {
+      numbered = lineIndex.toNumberedString();
+      numberedContent = numbered;
+    }
+    return numbered;
+  }
+}
@@ -0,0 +1,85 @@
+package org.varamadon.autorefactor.server.agent.context;
+
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.ASSISTANT;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.SYSTEM;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.Objects;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.varamadon.autorefactor.server.agent.brain.AgentBrain;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+
+/**
+ * Selects the part of the conversation history that is sent to the {@link AgentBrain}. The
+ * history consists of the system start message followed by one exchange per file, each starting
+ * with the "nextFile" command of the brain.
+ *
+ * <p>The window always contains the system start message, the exchange of the current file and
+ * the exchanges of a configurable number of previous files. Older exchanges are replaced with a
+ * short summary message, so the prompt size does not grow with the number of processed files.
+ */
+@Component
+public class ConversationWindow {
+  private static final BrainMessage OMITTED_FILES_SUMMARY =
+      new BrainMessage(
+          SYSTEM,
+          "Some files were already processed earlier in this conversation. "
+              + "Their contents and action plans are omitted.");
+
+  private final int previousFiles;
+  private final boolean summary;
+
+  /**
+   * Creates a new instance of the ConversationWindow.
+   *
+   * @param previousFiles the number of previous file exchanges to keep in addition to the current
+   *     one. A negative value keeps the whole history.
+   * @param summary whether to add a summary message in place of the omitted exchanges.
+   */
+  public ConversationWindow(
+      @Value("${org.varamadon.autorefactor.agent.context.previous-files:1}") int previousFiles,
+      @Value("${org.varamadon.autorefactor.agent.context.summary:true}") boolean summary) {
+    this.previousFiles = previousFiles;
+    this.summary = summary;
+  }
+
+  /** Returns the messages of the given history that should be sent to the brain. */
+  public List<BrainMessage> apply(List<BrainMessage> messages) {
+    if (previousFiles < 0 || messages.isEmpty()) {
+      return messages;
+    }
+    int windowStart = findWindowStart(messages);
+    if (windowStart <= 1) {
+      return messages;
+    }
+    ImmutableList.Builder<BrainMessage> window = ImmutableList.builder();
+    window.add(messages.get(0));
+    if (summary) {
+      window.add(OMITTED_FILES_SUMMARY);
+    }
+    return window.addAll(messages.subList(windowStart, messages.size())).build();
+  }
+
+  /**
+   * Scans the history backwards and returns the index of the first message of the oldest exchange
+   * that is kept, or 0 if there are not enough exchanges to omit anything.
+   */
+  private int findWindowStart(List<BrainMessage> messages) {
+    int exchangesToKeep = previousFiles + 1;
+    for (int i = messages.size() - 1; i > 0; i--) {
+      if (isExchangeStart(messages.get(i))) {
+        exchangesToKeep--;
+        if (exchangesToKeep == 0) {
+          return i;
+        }
+      }
+    }
+    return 0;
+  }
+
+  private boolean isExchangeStart(BrainMessage message) {
+    return message.messageType() == ASSISTANT && Objects.equals(message.content(), "nextFile");
+  }
+}
@@ -0,0 +1,63 @@
+package org.varamadon.autorefactor.server.agent.context;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decides which files are sent to the brain together in one multi-file prompt. Small files are
+ * batched until the batch reaches the configured number of files or token budget, large files
+ * are always sent alone.
+ */
+@Component
+public class FileBatchPolicy {
+  /** Rough number of characters per token of Java source code. */
+  private static final int CHARACTERS_PER_TOKEN = 4;
+
+  private final boolean enabled;
+  private final int smallFileMaxLines;
+  private final int tokenBudget;
+  private final int maxFiles;
+
+  /**
+   * Creates a new instance of the FileBatchPolicy.
+   *
+   * @param enabled whether files should be batched at all.
+   * @param smallFileMaxLines the maximum number of lines of a file that can be batched.
+   * @param tokenBudget the maximum estimated number of tokens of all files in a batch.
+   * @param maxFiles the maximum number of files in a batch.
+   */
+  public FileBatchPolicy(
+      @Value("${org.varamadon.autorefactor.agent.batching.enabled:false}") boolean enabled,
+      @Value("${org.varamadon.autorefactor.agent.batching.small-file-max-lines:60}")
+          int smallFileMaxLines,
+      @Value("${org.varamadon.autorefactor.agent.batching.token-budget:4000}") int tokenBudget,
+      @Value("${org.varamadon.autorefactor.agent.batching.max-files:10}") int maxFiles) {
+    this.enabled = enabled;
+    this.smallFileMaxLines = smallFileMaxLines;
+    this.tokenBudget = tokenBudget;
+    this.maxFiles = maxFiles;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public int getMaxFiles() {
+    return maxFiles;
+  }
+
+  /** Returns whether the given file is small enough to be batched with other files. */
+  public boolean isSmall(String fileContent) {
+    return fileContent.lines().limit(smallFileMaxLines + 1L).count() <= smallFileMaxLines;
+  }
+
+  /** Returns whether the given file can be added to a batch with the given estimated size. */
+  public boolean fits(int batchTokens, String fileContent) {
+    return isSmall(fileContent) && batchTokens + estimateTokens(fileContent) <= tokenBudget;
+  }
+
+  /** Returns a rough estimate of the number of tokens of the given file. */
+  public int estimateTokens(String fileContent) {
+    return fileContent.length() / CHARACTERS_PER_TOKEN + 1;
+  }
+}
@@ -0,0 +1,72 @@
+package org.varamadon.autorefactor.server.agent.events;
+
+import com.google.common.base.Utf8;
+import java.util.List;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+
+/** JFR event of a call to the brain, including the waits of the limiters and the retries. */
+@Name("org.varamadon.autorefactor.BrainCall")
+@Label("Brain Call")
+@Category({"Auto-Refactor", "Agent"})
+@Description("The brain was called for the next answer of a run")
+@StackTrace(false)
+public class BrainCallEvent extends Event {
+  @Label("Repository ID")
+  String repositoryId;
+
+  @Label("File Hash")
+  @Description("Hash of the file the answer is for, empty if the brain is asked for a command")
+  String fileHash;
+
+  @Label("Model")
+  String model;
+
+  @Label("Prompt Messages")
+  int promptMessages;
+
+  @Label("Prompt Size")
+  @DataAmount
+  long promptBytes;
+
+  @Label("Answer Size")
+  @DataAmount
+  long answerBytes;
+
+  @Label("Prompt Tokens")
+  @Description("Estimated number of tokens of the prompt")
+  int promptTokens;
+
+  @Label("Answer Tokens")
+  @Description("Estimated number of tokens of the answer")
+  int answerTokens;
+
+  public void commit(
+      String repositoryId,
+      String fileHash,
+      String model,
+      List<BrainMessage> prompt,
+      BrainMessage answer,
+      int promptTokens,
+      int answerTokens) {
+    if (shouldCommit()) {
+      this.repositoryId = repositoryId;
+      this.fileHash = fileHash;
+      this.model = model;
+      this.promptMessages = prompt.size();
+      for (BrainMessage message : prompt) {
+        this.promptBytes += Utf8.encodedLength(message.content());
+      }
+      this.answerBytes = Utf8.encodedLength(answer.content());
+      this.promptTokens = promptTokens;
+      this.answerTokens = answerTokens;
+      commit();
+    }
+  }
+}
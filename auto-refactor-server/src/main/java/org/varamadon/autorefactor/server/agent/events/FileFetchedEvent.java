@@ -0,0 +1,40 @@
+package org.varamadon.autorefactor.server.agent.events;
+
+import com.google.common.base.Utf8;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of the next file of a run being taken from the client. The duration covers the wait for
+ * the file, which is short when it was prefetched or buffered.
+ */
+@Name("org.varamadon.autorefactor.FileFetched")
+@Label("File Fetched")
+@Category({"Auto-Refactor", "Agent"})
+@Description("The next file of a run was taken from the client")
+@StackTrace(false)
+public class FileFetchedEvent extends Event {
+  @Label("Repository ID")
+  String repositoryId;
+
+  @Label("File Hash")
+  String fileHash;
+
+  @Label("File Size")
+  @DataAmount
+  long fileBytes;
+
+  public void commit(String repositoryId, String fileHash, String fileContent) {
+    if (shouldCommit()) {
+      this.repositoryId = repositoryId;
+      this.fileHash = fileHash;
+      this.fileBytes = Utf8.encodedLength(fileContent);
+      commit();
+    }
+  }
+}
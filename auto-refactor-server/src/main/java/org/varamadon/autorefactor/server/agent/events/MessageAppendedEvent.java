@@ -0,0 +1,43 @@
+package org.varamadon.autorefactor.server.agent.events;
+
+import com.google.common.base.Utf8;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+
+/** JFR event of a message being appended to the history of a run. */
+@Name("org.varamadon.autorefactor.MessageAppended")
+@Label("Message Appended")
+@Category({"Auto-Refactor", "Messages"})
+@Description("A message was appended to the history of a run")
+@StackTrace(false)
+public class MessageAppendedEvent extends Event {
+  @Label("Repository ID")
+  String repositoryId;
+
+  @Label("Message Type")
+  String messageType;
+
+  @Label("Message Size")
+  @DataAmount
+  long messageBytes;
+
+  @Label("History Length")
+  @Description("Number of messages in the history after the append")
+  int historyLength;
+
+  public void commit(String repositoryId, BrainMessage message, int historyLength) {
+    if (shouldCommit()) {
+      this.repositoryId = repositoryId;
+      this.messageType = message.messageType().name();
+      this.messageBytes = Utf8.encodedLength(message.content());
+      this.historyLength = historyLength;
+      commit();
+    }
+  }
+}
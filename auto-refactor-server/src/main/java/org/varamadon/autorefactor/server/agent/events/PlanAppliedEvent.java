@@ -0,0 +1,41 @@
+package org.varamadon.autorefactor.server.agent.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of an action plan being applied by the client. Plans applied in the background are
+ * committed by the thread that completes them.
+ */
+@Name("org.varamadon.autorefactor.PlanApplied")
+@Label("Plan Applied")
+@Category({"Auto-Refactor", "Agent"})
+@Description("An action plan was applied by the client")
+@StackTrace(false)
+public class PlanAppliedEvent extends Event {
+  @Label("Repository ID")
+  String repositoryId;
+
+  @Label("File Hash")
+  String fileHash;
+
+  @Label("Action Items")
+  int actionItems;
+
+  @Label("Succeeded")
+  boolean succeeded;
+
+  public void commit(String repositoryId, String fileHash, int actionItems, boolean succeeded) {
+    if (shouldCommit()) {
+      this.repositoryId = repositoryId;
+      this.fileHash = fileHash;
+      this.actionItems = actionItems;
+      this.succeeded = succeeded;
+      commit();
+    }
+  }
+}
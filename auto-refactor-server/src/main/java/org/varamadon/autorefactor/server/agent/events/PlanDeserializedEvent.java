@@ -0,0 +1,47 @@
+package org.varamadon.autorefactor.server.agent.events;
+
+import com.google.common.base.Utf8;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** JFR event of an action plan of the brain being deserialized. */
+@Name("org.varamadon.autorefactor.PlanDeserialized")
+@Label("Plan Deserialized")
+@Category({"Auto-Refactor", "Agent"})
+@Description("An action plan of the brain was deserialized")
+@StackTrace(false)
+public class PlanDeserializedEvent extends Event {
+  @Label("Repository ID")
+  String repositoryId;
+
+  @Label("File Hash")
+  String fileHash;
+
+  @Label("Plan Size")
+  @DataAmount
+  long planBytes;
+
+  @Label("Action Items")
+  int actionItems;
+
+  @Label("Succeeded")
+  @Description("Whether the plan was in the right format")
+  boolean succeeded;
+
+  public void commit(
+      String repositoryId, String fileHash, String plan, int actionItems, boolean succeeded) {
+    if (shouldCommit()) {
+      this.repositoryId = repositoryId;
+      this.fileHash = fileHash;
+      this.planBytes = Utf8.encodedLength(plan);
+      this.actionItems = actionItems;
+      this.succeeded = succeeded;
+      commit();
+    }
+  }
+}
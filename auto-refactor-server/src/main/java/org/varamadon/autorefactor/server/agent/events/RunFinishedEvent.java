@@ -0,0 +1,29 @@
+package org.varamadon.autorefactor.server.agent.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of a refactoring run being finished. The duration covers waiting for the action plans
+ * applied in the background and the finish command.
+ */
+@Name("org.varamadon.autorefactor.RunFinished")
+@Label("Run Finished")
+@Category({"Auto-Refactor", "Agent"})
+@Description("A refactoring run was finished for a repository")
+@StackTrace(false)
+public class RunFinishedEvent extends Event {
+  @Label("Repository ID")
+  String repositoryId;
+
+  public void commit(String repositoryId) {
+    if (shouldCommit()) {
+      this.repositoryId = repositoryId;
+      commit();
+    }
+  }
+}
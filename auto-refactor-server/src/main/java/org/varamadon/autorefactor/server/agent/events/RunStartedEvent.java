@@ -0,0 +1,30 @@
+package org.varamadon.autorefactor.server.agent.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** JFR event of a refactoring run being started for a repository. */
+@Name("org.varamadon.autorefactor.RunStarted")
+@Label("Run Started")
+@Category({"Auto-Refactor", "Agent"})
+@Description("A refactoring run was started for a repository")
+@StackTrace(false)
+public class RunStartedEvent extends Event {
+  @Label("Repository ID")
+  String repositoryId;
+
+  @Label("Run Mode")
+  String runMode;
+
+  public void commit(String repositoryId, String runMode) {
+    if (shouldCommit()) {
+      this.repositoryId = repositoryId;
+      this.runMode = runMode;
+      commit();
+    }
+  }
+}
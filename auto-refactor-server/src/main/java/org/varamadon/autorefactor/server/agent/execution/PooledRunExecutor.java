@@ -0,0 +1,130 @@
+package org.varamadon.autorefactor.server.agent.execution;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jakarta.annotation.PreDestroy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Implementation of {@link RunExecutor} that shares a bounded pool of platform threads between all
+ * repositories. Each repository gets a sequential mailbox on top of the pool, so a slow run only
+ * occupies one pool thread at a time and never blocks runs of other repositories. A released
+ * mailbox is dropped only once its queued tasks have run, so a repository registered again keeps
+ * its tasks in order instead of running them next to the remaining tasks of the old mailbox.
+ *
+ * <p>Forked tasks run on a separate bounded pool. Forked tasks may wait for other forked tasks of
+ * their run, so they are never queued: when all fork threads are busy, the forking thread runs the
+ * task itself, which slows down the forking run instead of deadlocking it.
+ */
+@Component
+@ConditionalOnProperty(
+    name = "org.varamadon.autorefactor.agent.execution-mode",
+    havingValue = "pooled",
+    matchIfMissing = true)
+public class PooledRunExecutor implements RunExecutor {
+  private final ExecutorService pool;
+  private final ExecutorService forkPool;
+  private final ConcurrentMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a new instance of the PooledRunExecutor.
+   *
+   * @param poolSize the maximum number of repositories processed at the same time.
+   * @param forkPoolSize the maximum number of forked tasks running on their own threads.
+   */
+  public PooledRunExecutor(
+      @Value("${org.varamadon.autorefactor.agent.run-pool-size:8}") int poolSize,
+      @Value("${org.varamadon.autorefactor.agent.run-fork-pool-size:64}") int forkPoolSize) {
+    this.pool =
+        Executors.newFixedThreadPool(
+            poolSize, new ThreadFactoryBuilder().setNameFormat("refactoring-run-%d").build());
+    this.forkPool =
+        new ThreadPoolExecutor(
+            0,
+            forkPoolSize,
+            60,
+            TimeUnit.SECONDS,
+            new SynchronousQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("refactoring-run-fork-%d").build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  @Override
+  public void execute(String repositoryId, Runnable task) {
+    // Queued within the compute, so the mailbox can't be dropped between lookup and queueing
+    mailboxes.compute(
+        repositoryId,
+        (ignored, mailbox) -> {
+          Mailbox target = mailbox != null ? mailbox : new Mailbox(pool);
+          target.queued++;
+          target.executor.execute(
+              () -> {
+                try {
+                  task.run();
+                } finally {
+                  onTaskCompleted(repositoryId, target);
+                }
+              });
+          return target;
+        });
+  }
+
+  @Override
+  public <T> CompletableFuture<T> fork(String repositoryId, Supplier<T> task) {
+    return CompletableFuture.supplyAsync(task, forkPool);
+  }
+
+  @Override
+  public void release(String repositoryId) {
+    mailboxes.computeIfPresent(
+        repositoryId,
+        (ignored, mailbox) -> {
+          mailbox.released = true;
+          return mailbox.queued == 0 ? null : mailbox;
+        });
+  }
+
+  @PreDestroy
+  void shutdown() {
+    pool.shutdown();
+    forkPool.shutdown();
+  }
+
+  private void onTaskCompleted(String repositoryId, Mailbox mailbox) {
+    mailboxes.computeIfPresent(
+        repositoryId,
+        (ignored, current) -> {
+          if (current != mailbox) {
+            return current;
+          }
+          current.queued--;
+          return current.released && current.queued == 0 ? null : current;
+        });
+  }
+
+  /** Sequential executor of a repository. Its counters are guarded by the map of mailboxes. */
+  private static final class Mailbox {
+    private final Executor executor;
+
+    /** Number of tasks queued or running. */
+    private int queued;
+
+    private boolean released;
+
+    private Mailbox(Executor pool) {
+      this.executor = MoreExecutors.newSequentialExecutor(pool);
+    }
+  }
+}
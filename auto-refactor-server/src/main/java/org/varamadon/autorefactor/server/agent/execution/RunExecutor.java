@@ -0,0 +1,23 @@
+package org.varamadon.autorefactor.server.agent.execution;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Executes the work of refactoring runs. Every repository has its own ordered mailbox: tasks
+ * submitted for the same repository are executed one after another in submission order, while
+ * tasks of different repositories may be executed in parallel.
+ */
+public interface RunExecutor {
+  /** Schedules the given task on the mailbox of the given repository. */
+  void execute(String repositoryId, Runnable task);
+
+  /**
+   * Runs the given task of the given repository concurrently with its mailbox and other forked
+   * tasks. Forked tasks belong to the run and should complete before the run is released.
+   */
+  <T> CompletableFuture<T> fork(String repositoryId, Supplier<T> task);
+
+  /** Releases the mailbox of the given repository. Should be called when its run has finished. */
+  void release(String repositoryId);
+}
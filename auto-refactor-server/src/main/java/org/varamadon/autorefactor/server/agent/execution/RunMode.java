@@ -0,0 +1,18 @@
+package org.varamadon.autorefactor.server.agent.execution;
+
+/** Defines how the files of a single repository run are processed. */
+public enum RunMode {
+  /** Files are processed one by one, the brain decides when to fetch the next file. */
+  SERIAL,
+  /**
+   * Files are fetched by the agent itself and several of them are planned concurrently, each in an
+   * independent conversation with the brain. Plans are still applied one by one.
+   */
+  PARALLEL,
+  /**
+   * Files are processed as in {@link #SERIAL} mode, but the next file is fetched while the brain
+   * generates the current plan, and the brain is called again while the plan is being applied.
+   * Plans are still applied one by one in the order of the files.
+   */
+  PIPELINED
+}
@@ -0,0 +1,46 @@
+package org.varamadon.autorefactor.server.agent.execution;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Scope that owns every virtual thread started for a single run. Tasks of the run are executed one
+ * after another, each on its own virtual thread, forked tasks run concurrently with them, and the
+ * scope is closed when all of them have completed.
+ */
+final class RunScope implements AutoCloseable {
+  private final ExecutorService threads;
+  private final Executor mailbox;
+
+  /** Number of tasks and forked tasks queued or running, guarded by the map of scopes. */
+  int tasks;
+
+  RunScope(String repositoryId) {
+    this.threads =
+        Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("refactoring-run-" + repositoryId + "-", 0).factory());
+    this.mailbox = MoreExecutors.newSequentialExecutor(threads);
+  }
+
+  void execute(Runnable task) {
+    mailbox.execute(task);
+  }
+
+  <T> CompletableFuture<T> fork(Supplier<T> task) {
+    return CompletableFuture.supplyAsync(task, threads);
+  }
+
+  /**
+   * Stops accepting new tasks. The scope is closed once all its tasks and forked tasks have
+   * completed, from the thread of the last of them, so it doesn't wait for its threads to
+   * terminate: the only one left is the closing thread itself.
+   */
+  @Override
+  public void close() {
+    threads.shutdown();
+  }
+}
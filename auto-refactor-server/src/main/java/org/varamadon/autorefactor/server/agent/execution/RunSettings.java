@@ -0,0 +1,42 @@
+package org.varamadon.autorefactor.server.agent.execution;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/** Settings of how the files of each repository run are processed. */
+@Component
+public class RunSettings {
+  private final RunMode runMode;
+  private final int parallelism;
+  private final boolean streaming;
+
+  /**
+   * Creates a new instance of the RunSettings.
+   *
+   * @param runMode the mode in which the files of a run are processed.
+   * @param parallelism the maximum number of files of a run planned concurrently in {@link
+   *     RunMode#PARALLEL} mode.
+   * @param streaming whether action items are applied while the rest of the plan is still being
+   *     generated by the brain.
+   */
+  public RunSettings(
+      @Value("${org.varamadon.autorefactor.agent.run-mode:serial}") RunMode runMode,
+      @Value("${org.varamadon.autorefactor.agent.parallelism:4}") int parallelism,
+      @Value("${org.varamadon.autorefactor.agent.streaming:false}") boolean streaming) {
+    this.runMode = runMode;
+    this.parallelism = parallelism;
+    this.streaming = streaming;
+  }
+
+  public RunMode getRunMode() {
+    return runMode;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  public boolean isStreaming() {
+    return streaming;
+  }
+}
@@ -0,0 +1,95 @@
+package org.varamadon.autorefactor.server.agent.execution;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Implementation of {@link RunExecutor} that runs every task on a virtual thread. Each run gets its
+ * own {@link RunScope}, so a blocked brain call or client command only parks a virtual thread and
+ * the number of concurrent runs is not limited by a thread pool.
+ *
+ * <p>A scope lives only while tasks or forked tasks of its run are queued or running. It is closed
+ * and dropped once the last of them completes, so a scope is never closed under a task that was
+ * just submitted to it, and a late task of a finished run doesn't leave a scope behind. The next
+ * task of the repository opens a new scope, after all the tasks of the old one have completed.
+ */
+@Component
+@ConditionalOnProperty(
+    name = "org.varamadon.autorefactor.agent.execution-mode",
+    havingValue = "virtual")
+public class VirtualThreadRunExecutor implements RunExecutor {
+  private final ConcurrentMap<String, RunScope> scopes = new ConcurrentHashMap<>();
+
+  @Override
+  public void execute(String repositoryId, Runnable task) {
+    // Submitted within the compute, so the scope can't be closed between lookup and submission
+    scopes.compute(
+        repositoryId,
+        (ignored, scope) -> {
+          RunScope target = scope != null ? scope : new RunScope(repositoryId);
+          target.tasks++;
+          target.execute(
+              () -> {
+                try {
+                  task.run();
+                } finally {
+                  onTaskCompleted(repositoryId, target);
+                }
+              });
+          return target;
+        });
+  }
+
+  @Override
+  public <T> CompletableFuture<T> fork(String repositoryId, Supplier<T> task) {
+    AtomicReference<CompletableFuture<T>> forked = new AtomicReference<>();
+    scopes.compute(
+        repositoryId,
+        (ignored, scope) -> {
+          RunScope target = scope != null ? scope : new RunScope(repositoryId);
+          target.tasks++;
+          forked.set(
+              target.fork(
+                  () -> {
+                    try {
+                      return task.get();
+                    } finally {
+                      onTaskCompleted(repositoryId, target);
+                    }
+                  }));
+          return target;
+        });
+    return forked.get();
+  }
+
+  /**
+   * Does nothing, the scope of the run is closed when its last task completes. The last task of a
+   * run usually releases it, so closing the scope here would not wait for anything more.
+   */
+  @Override
+  public void release(String repositoryId) {}
+
+  /** Returns the number of runs that have tasks queued or running. */
+  @VisibleForTesting
+  int getScopeCount() {
+    return scopes.size();
+  }
+
+  private void onTaskCompleted(String repositoryId, RunScope scope) {
+    scopes.computeIfPresent(
+        repositoryId,
+        (ignored, current) -> {
+          if (current != scope || --current.tasks > 0) {
+            return current;
+          }
+          current.close();
+          return null;
+        });
+  }
+}
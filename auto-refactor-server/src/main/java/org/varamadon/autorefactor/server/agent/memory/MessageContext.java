@@ -1,6 +1,26 @@
 package org.varamadon.autorefactor.server.agent.memory;
 
+import java.util.List;
 import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
 
-/** This record provides necessary information to process a {@link BrainMessage}. */
-public record MessageContext(String repositoryId, String fileHash) {}
+/**
+ * This record provides necessary information to process a {@link BrainMessage}. If several files
+ * were sent to the brain in one prompt, {@code fileHashes} contains their hashes in prompt order.
+ * {@code model} is the name of the model that generated the message, or empty if the message was
+ * not generated by the brain.
+ */
+public record MessageContext(
+    String repositoryId, String fileHash, List<String> fileHashes, String model) {
+  public MessageContext(String repositoryId, String fileHash) {
+    this(repositoryId, fileHash, List.of());
+  }
+
+  public MessageContext(String repositoryId, String fileHash, List<String> fileHashes) {
+    this(repositoryId, fileHash, fileHashes, "");
+  }
+
+  /** Returns this context for a message generated by the given model. */
+  public MessageContext withModel(String model) {
+    return new MessageContext(repositoryId, fileHash, fileHashes, model);
+  }
+}
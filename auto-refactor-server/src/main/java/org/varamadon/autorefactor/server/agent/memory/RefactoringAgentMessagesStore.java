@@ -1,6 +1,6 @@
 package org.varamadon.autorefactor.server.agent.memory;
 
-import com.google.common.collect.ImmutableList;
+import java.util.List;
 import org.apache.commons.lang3.tuple.Pair;
 import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
 
@@ -9,8 +9,11 @@ public interface RefactoringAgentMessagesStore {
   /** Stores a new message for the given repository. */
   void storeMessage(String repositoryId, BrainMessage message);
 
-  /** Retrieves all stored messages for the given repository. */
-  ImmutableList<BrainMessage> getMessages(String repositoryId);
+  /**
+   * Retrieves all stored messages for the given repository. The returned list is an immutable
+   * snapshot and is not affected by messages stored later.
+   */
+  List<BrainMessage> getMessages(String repositoryId);
 
   /** Deletes all stored messages for the given repository. */
   void deleteMessages(String repositoryId);
@@ -20,4 +23,13 @@ public interface RefactoringAgentMessagesStore {
 
   /** Returns the next pending message along with its context or blocks until one is available. */
   Pair<BrainMessage, MessageContext> awaitNextPendingMessageWithContext() throws InterruptedException;
+
+  /** Returns the number of pending messages waiting to be processed. */
+  int getPendingMessagesCount();
+
+  /**
+   * Marks the given pending message, as returned by {@link #awaitNextPendingMessageWithContext},
+   * as processed. Stores that keep pending messages across restarts don't replay it afterwards.
+   */
+  default void acknowledgePendingMessage(Pair<BrainMessage, MessageContext> message) {}
 }
@@ -1,36 +1,47 @@
 package org.varamadon.autorefactor.server.agent.memory.impl;
 
-import com.google.common.collect.ImmutableList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.function.BiFunction;
 import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+import org.varamadon.autorefactor.server.agent.events.MessageAppendedEvent;
 import org.varamadon.autorefactor.server.agent.memory.MessageContext;
 import org.varamadon.autorefactor.server.agent.memory.RefactoringAgentMessagesStore;
 
 /**
  * Implementation of {@link RefactoringAgentMessagesStore} that stores data in memory. Should be
  * replaced with a persistent storage mechanism to enable fault tolerance.
+ *
+ * <p>Conversations are kept in append-only {@link MessageLog}s, so storing a message does not copy
+ * the history and {@link #getMessages} returns a snapshot view without copying it either. Every
+ * append is recorded as a {@link MessageAppendedEvent} when Flight Recorder is enabled.
  */
 @Component
+@ConditionalOnProperty(
+    name = "org.varamadon.autorefactor.agent.messages-store",
+    havingValue = "in-memory",
+    matchIfMissing = true)
 public class InMemoryMessagesStore implements RefactoringAgentMessagesStore {
-  private final ConcurrentMap<String, ImmutableList<BrainMessage>> messages =
-      new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, MessageLog> messages = new ConcurrentHashMap<>();
   private final BlockingQueue<Pair<BrainMessage, MessageContext>> pendingMessagesWithContext =
       new LinkedBlockingQueue<>();
 
   @Override
   public void storeMessage(String repositoryId, BrainMessage message) {
-    messages.compute(repositoryId, addToStoredMessagesFunction(message));
+    int historyLength =
+        messages.computeIfAbsent(repositoryId, ignored -> new MessageLog()).append(message);
+    new MessageAppendedEvent().commit(repositoryId, message, historyLength);
   }
 
   @Override
-  public ImmutableList<BrainMessage> getMessages(String repositoryId) {
-    return messages.get(repositoryId);
+  public List<BrainMessage> getMessages(String repositoryId) {
+    MessageLog log = messages.get(repositoryId);
+    return log == null ? List.of() : log.snapshot();
   }
 
   @Override
@@ -49,14 +60,8 @@ public class InMemoryMessagesStore implements RefactoringAgentMessagesStore {
     return pendingMessagesWithContext.take();
   }
 
-  private BiFunction<String, ImmutableList<BrainMessage>, ImmutableList<BrainMessage>>
-      addToStoredMessagesFunction(BrainMessage message) {
-    return (ignored, storedMessages) -> copyMessagesWith(storedMessages, message);
-  }
-
-  private ImmutableList<BrainMessage> copyMessagesWith(
-      ImmutableList<BrainMessage> messages, BrainMessage message) {
-    if (messages == null) return ImmutableList.of(message);
-    return new ImmutableList.Builder<BrainMessage>().addAll(messages).add(message).build();
+  @Override
+  public int getPendingMessagesCount() {
+    return pendingMessagesWithContext.size();
   }
 }
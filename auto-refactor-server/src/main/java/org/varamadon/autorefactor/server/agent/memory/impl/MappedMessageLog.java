@@ -0,0 +1,301 @@
+package org.varamadon.autorefactor.server.agent.memory.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessageType;
+
+/**
+ * Append-only log of the messages of a single conversation, stored in memory-mapped segment files
+ * of a directory. Only the positions and lengths of the messages are kept on the heap, the messages
+ * are decoded from the mapped segments whenever they are read.
+ *
+ * <p>Every record consists of its length, the message type and the UTF-8 encoded content. Appends
+ * don't touch the disk: the length of a record is only written by {@link #force}, after the records
+ * are forced, and is then forced itself. Segments are filled with zeros when created and a zero
+ * length marks the end of the log, so a record that was not forced is never read after a crash, not
+ * even a crash of the operating system. The log is forced before the pending message that follows
+ * its messages is logged, so a message is never lost while its pending message is replayed, and the
+ * messages of a turn interrupted by a crash are dropped instead of being stored twice when the turn
+ * is replayed.
+ *
+ * <p>Appends are serialized, snapshots can be taken concurrently with appends. A snapshot never
+ * changes, because the records it covers are never overwritten.
+ */
+final class MappedMessageLog {
+  private static final String SEGMENT_EXTENSION = ".segment";
+  private static final int LENGTH_BYTES = Integer.BYTES;
+  private static final int TYPE_BYTES = 1;
+  private static final BrainMessageType[] MESSAGE_TYPES = BrainMessageType.values();
+
+  private final Path directory;
+  private final int segmentSize;
+  private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+  private int writeOffset;
+  private boolean deleted;
+
+  /** Positions of the records, the segment index in the upper half and the offset in the lower. */
+  private long[] positions = new long[64];
+
+  /** Lengths of the records, read from here since the unforced ones are not written yet. */
+  private int[] lengths = new int[64];
+
+  /** Number of messages whose lengths are forced to disk. */
+  private int forcedSize;
+
+  /** Number of published messages. Written after the record itself to publish it to readers. */
+  private volatile int size;
+
+  private MappedMessageLog(Path directory, int segmentSize) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+  }
+
+  /** Creates an empty log in the given directory, replacing segments left there before. */
+  static MappedMessageLog create(Path directory, int segmentSize) {
+    try {
+      Files.createDirectories(directory);
+      deleteSegmentFiles(directory);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to create message log directory " + directory, e);
+    }
+    return new MappedMessageLog(directory, segmentSize);
+  }
+
+  /** Opens the log stored in the given directory and indexes the records it contains. */
+  static MappedMessageLog open(Path directory, int segmentSize) {
+    MappedMessageLog log = new MappedMessageLog(directory, segmentSize);
+    try (Stream<Path> files = Files.list(directory)) {
+      List<Path> segmentFiles =
+          files.filter(it -> it.toString().endsWith(SEGMENT_EXTENSION)).sorted().toList();
+      for (Path segmentFile : segmentFiles) {
+        log.recoverSegment(map(segmentFile, Files.size(segmentFile)));
+      }
+      log.clearTail();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to open message log " + directory, e);
+    }
+    return log;
+  }
+
+  synchronized void append(BrainMessage message) {
+    if (deleted) {
+      throw new IllegalStateException("Message log " + directory + " is deleted");
+    }
+    byte[] content = message.content().getBytes(StandardCharsets.UTF_8);
+    int recordLength = TYPE_BYTES + content.length;
+    int segmentIndex = segments.size() - 1;
+    if (segmentIndex < 0
+        || writeOffset + LENGTH_BYTES + recordLength > segments.get(segmentIndex).capacity()) {
+      addSegment(Math.max(segmentSize, LENGTH_BYTES + recordLength));
+      segmentIndex = segments.size() - 1;
+    }
+    MappedByteBuffer segment = segments.get(segmentIndex);
+    segment.put(writeOffset + LENGTH_BYTES, (byte) message.messageType().ordinal());
+    segment.put(writeOffset + LENGTH_BYTES + TYPE_BYTES, content);
+    addPosition(segmentIndex, writeOffset, recordLength);
+    writeOffset += LENGTH_BYTES + recordLength;
+    size = size + 1;
+  }
+
+  /**
+   * Makes the messages appended so far durable. The records are forced first and their lengths
+   * after them, one segment at a time, so the log on disk always ends at a complete record.
+   */
+  synchronized void force() {
+    if (deleted || forcedSize == size) {
+      return;
+    }
+    for (int first = forcedSize; first < size; first = getNextSegmentStart(first)) {
+      forceRecords(first, getNextSegmentStart(first));
+    }
+    for (int first = forcedSize; first < size; first = getNextSegmentStart(first)) {
+      int end = getNextSegmentStart(first);
+      MappedByteBuffer segment = segments.get(getSegmentIndex(first));
+      for (int i = first; i < end; i++) {
+        segment.putInt((int) positions[i], lengths[i]);
+      }
+      forceRecords(first, end);
+    }
+    forcedSize = size;
+  }
+
+  /** Returns an immutable view of the messages appended so far, decoded when accessed. */
+  List<BrainMessage> snapshot() {
+    int snapshotSize = size;
+    long[] snapshotPositions = positions;
+    int[] snapshotLengths = lengths;
+    // Segments are added before the messages in them are published
+    return new Snapshot(List.copyOf(segments), snapshotPositions, snapshotLengths, snapshotSize);
+  }
+
+  /**
+   * Drops the mappings of the log and deletes the segment files. A mapping can't be unmapped safely
+   * while it may still be read, so the segments are unmapped once the snapshots taken before are no
+   * longer used, and they stay readable until then.
+   */
+  synchronized void delete() {
+    deleted = true;
+    segments.clear();
+    positions = new long[0];
+    lengths = new int[0];
+    size = 0;
+    try {
+      deleteSegmentFiles(directory);
+      Files.delete(directory);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to delete message log " + directory, e);
+    }
+  }
+
+  private void addSegment(int capacity) {
+    Path segmentFile =
+        directory.resolve(String.format("%010d%s", segments.size(), SEGMENT_EXTENSION));
+    try {
+      segments.add(map(segmentFile, capacity));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to create message log segment " + segmentFile, e);
+    }
+    writeOffset = 0;
+  }
+
+  /** Indexes the complete records of the segment and continues writing after them. */
+  private void recoverSegment(MappedByteBuffer segment) {
+    segments.add(segment);
+    int segmentIndex = segments.size() - 1;
+    int offset = 0;
+    while (offset + LENGTH_BYTES <= segment.capacity()) {
+      int recordLength = segment.getInt(offset);
+      if (recordLength <= 0 || offset + LENGTH_BYTES + recordLength > segment.capacity()) {
+        break;
+      }
+      addPosition(segmentIndex, offset, recordLength);
+      size = size + 1;
+      forcedSize = size;
+      offset += LENGTH_BYTES + recordLength;
+    }
+    writeOffset = offset;
+  }
+
+  /**
+   * Zeros the rest of the last segment. A crash while lengths were forced may have left the length
+   * of a later record on disk without an earlier one, which must not be read once new records are
+   * written over them.
+   */
+  private void clearTail() {
+    if (segments.isEmpty()) {
+      return;
+    }
+    MappedByteBuffer segment = segments.get(segments.size() - 1);
+    boolean cleared = false;
+    for (int offset = writeOffset; offset < segment.capacity(); offset++) {
+      if (segment.get(offset) != 0) {
+        segment.put(offset, (byte) 0);
+        cleared = true;
+      }
+    }
+    if (cleared) {
+      segment.force();
+    }
+  }
+
+  private void addPosition(int segmentIndex, int offset, int recordLength) {
+    if (size == positions.length) {
+      // Snapshots keep the old arrays, their published part is never modified
+      positions = Arrays.copyOf(positions, positions.length * 2);
+      lengths = Arrays.copyOf(lengths, lengths.length * 2);
+    }
+    positions[size] = ((long) segmentIndex << 32) | offset;
+    lengths[size] = recordLength;
+  }
+
+  /** Returns the index of the first message after the given one that is in another segment. */
+  private int getNextSegmentStart(int index) {
+    int segmentIndex = getSegmentIndex(index);
+    int next = index + 1;
+    while (next < size && getSegmentIndex(next) == segmentIndex) {
+      next++;
+    }
+    return next;
+  }
+
+  private int getSegmentIndex(int index) {
+    return (int) (positions[index] >>> 32);
+  }
+
+  /** Forces the records from the first index to the end index, which are in the same segment. */
+  private void forceRecords(int first, int end) {
+    int start = (int) positions[first];
+    int stop = (int) positions[end - 1] + LENGTH_BYTES + lengths[end - 1];
+    segments.get(getSegmentIndex(first)).force(start, stop - start);
+  }
+
+  private static BrainMessage read(
+      List<MappedByteBuffer> segments, long position, int recordLength) {
+    MappedByteBuffer segment = segments.get((int) (position >>> 32));
+    int offset = (int) position;
+    BrainMessageType messageType = MESSAGE_TYPES[segment.get(offset + LENGTH_BYTES)];
+    byte[] content = new byte[recordLength - TYPE_BYTES];
+    segment.get(offset + LENGTH_BYTES + TYPE_BYTES, content);
+    return new BrainMessage(messageType, new String(content, StandardCharsets.UTF_8));
+  }
+
+  private static void deleteSegmentFiles(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : files.toList()) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  private static MappedByteBuffer map(Path segmentFile, long capacity) throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(
+            segmentFile,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      // The mapping stays valid after the channel is closed
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+  }
+
+  private static final class Snapshot extends AbstractList<BrainMessage> implements RandomAccess {
+    private final List<MappedByteBuffer> segments;
+    private final long[] positions;
+    private final int[] lengths;
+    private final int size;
+
+    private Snapshot(List<MappedByteBuffer> segments, long[] positions, int[] lengths, int size) {
+      this.segments = segments;
+      this.positions = positions;
+      this.lengths = lengths;
+      this.size = size;
+    }
+
+    @Override
+    public BrainMessage get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+      }
+      return read(segments, positions[index], lengths[index]);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+}
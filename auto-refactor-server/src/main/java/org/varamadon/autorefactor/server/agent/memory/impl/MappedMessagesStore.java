@@ -0,0 +1,207 @@
+package org.varamadon.autorefactor.server.agent.memory.impl;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+import org.varamadon.autorefactor.server.agent.memory.MessageContext;
+import org.varamadon.autorefactor.server.agent.memory.RefactoringAgentMessagesStore;
+
+/**
+ * Implementation of {@link RefactoringAgentMessagesStore} that keeps the conversations off the heap
+ * in memory-mapped {@link MappedMessageLog}s, one directory of segment files per repository.
+ * Conversations survive server restarts and are loaded again on startup.
+ *
+ * <p>Pending messages are appended to a {@link PendingMessageLog} before they are queued, and the
+ * ones that were not acknowledged are queued again on startup. The conversation is forced to disk
+ * once per pending message, right before it's logged, instead of once per stored message.
+ */
+@Component
+@ConditionalOnProperty(
+    name = "org.varamadon.autorefactor.agent.messages-store",
+    havingValue = "mapped")
+public class MappedMessagesStore implements RefactoringAgentMessagesStore {
+  private static final String PENDING_MESSAGES_FILE = "pending.log";
+
+  private final Logger log = LoggerFactory.getLogger(MappedMessagesStore.class);
+  private final Path directory;
+  private final int segmentSize;
+  private final ConcurrentMap<String, MappedMessageLog> messages = new ConcurrentHashMap<>();
+  private final BlockingQueue<Pair<BrainMessage, MessageContext>> pendingMessagesWithContext =
+      new LinkedBlockingQueue<>();
+
+  /**
+   * Sequence numbers of the pending messages in the log by message identity, in queue order if the
+   * same message was stored several times. Guarded by itself.
+   */
+  private final Map<Pair<BrainMessage, MessageContext>, Deque<Long>> pendingSequences =
+      new IdentityHashMap<>();
+
+  private final PendingMessageLog pendingMessageLog;
+
+  /**
+   * Creates a new instance of the MappedMessagesStore and recovers the conversations stored in the
+   * given directory.
+   *
+   * @param directory the directory where the segment files are stored, created if it doesn't exist.
+   * @param segmentSize the size of a segment file in bytes. A message that doesn't fit into a
+   *     segment gets a segment of its own.
+   * @param groupCommit whether concurrently stored pending messages are forced to disk together
+   *     instead of one by one.
+   */
+  public MappedMessagesStore(
+      @Value("${org.varamadon.autorefactor.agent.messages-store.directory:messages}")
+          Path directory,
+      @Value("${org.varamadon.autorefactor.agent.messages-store.segment-size:16777216}")
+          int segmentSize,
+      @Value("${org.varamadon.autorefactor.agent.messages-store.group-commit:true}")
+          boolean groupCommit) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    recoverLogs();
+    this.pendingMessageLog =
+        PendingMessageLog.open(
+            directory.resolve(PENDING_MESSAGES_FILE), groupCommit, this::queuePendingMessage);
+    log.info("Replayed {} pending messages", pendingMessagesWithContext.size());
+  }
+
+  @Override
+  public void storeMessage(String repositoryId, BrainMessage message) {
+    messages
+        .computeIfAbsent(
+            repositoryId,
+            ignored -> MappedMessageLog.create(getLogDirectory(repositoryId), segmentSize))
+        .append(message);
+  }
+
+  @Override
+  public List<BrainMessage> getMessages(String repositoryId) {
+    MappedMessageLog messageLog = messages.get(repositoryId);
+    return messageLog == null ? List.of() : messageLog.snapshot();
+  }
+
+  @Override
+  public void deleteMessages(String repositoryId) {
+    MappedMessageLog messageLog = messages.remove(repositoryId);
+    if (messageLog == null) {
+      return;
+    }
+    try {
+      messageLog.delete();
+    } catch (UncheckedIOException e) {
+      log.warn("Failed to delete messages of repository {}", repositoryId, e);
+    }
+  }
+
+  @Override
+  public void storePendingMessageWithContext(Pair<BrainMessage, MessageContext> message) {
+    MappedMessageLog messageLog = messages.get(message.getValue().repositoryId());
+    if (messageLog != null) {
+      messageLog.force();
+    }
+    queuePendingMessage(pendingMessageLog.append(message), message);
+  }
+
+  @Override
+  public Pair<BrainMessage, MessageContext> awaitNextPendingMessageWithContext()
+      throws InterruptedException {
+    return pendingMessagesWithContext.take();
+  }
+
+  @Override
+  public int getPendingMessagesCount() {
+    return pendingMessagesWithContext.size();
+  }
+
+  @Override
+  public void acknowledgePendingMessage(Pair<BrainMessage, MessageContext> message) {
+    Long sequence;
+    synchronized (pendingSequences) {
+      Deque<Long> sequences = pendingSequences.get(message);
+      if (sequences == null) {
+        return;
+      }
+      sequence = sequences.poll();
+      if (sequences.isEmpty()) {
+        pendingSequences.remove(message);
+      }
+    }
+    pendingMessageLog.acknowledge(sequence);
+  }
+
+  @PreDestroy
+  void close() throws IOException {
+    messages.values().forEach(MappedMessageLog::force);
+    pendingMessageLog.close();
+  }
+
+  private void queuePendingMessage(long sequence, Pair<BrainMessage, MessageContext> message) {
+    synchronized (pendingSequences) {
+      pendingSequences.computeIfAbsent(message, ignored -> new ArrayDeque<>()).add(sequence);
+      pendingMessagesWithContext.add(message);
+    }
+  }
+
+  /** Opens the log of every repository that has a directory of segment files. */
+  private void recoverLogs() {
+    try {
+      Files.createDirectories(directory);
+      List<Path> logDirectories;
+      try (Stream<Path> files = Files.list(directory)) {
+        logDirectories = files.filter(Files::isDirectory).toList();
+      }
+      for (Path logDirectory : logDirectories) {
+        recoverLog(logDirectory);
+      }
+      log.info("Recovered messages of {} repositories from {}", messages.size(), directory);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to recover messages from " + directory, e);
+    }
+  }
+
+  private void recoverLog(Path logDirectory) {
+    String repositoryId;
+    try {
+      repositoryId =
+          new String(
+              Base64.getUrlDecoder().decode(logDirectory.getFileName().toString()),
+              StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      log.warn("Skipping unknown directory {}", logDirectory);
+      return;
+    }
+    try {
+      messages.put(repositoryId, MappedMessageLog.open(logDirectory, segmentSize));
+    } catch (RuntimeException e) {
+      log.warn("Skipping unreadable messages of repository {}", repositoryId, e);
+    }
+  }
+
+  /** Repository ids are encoded, so any id is a valid directory name. */
+  private Path getLogDirectory(String repositoryId) {
+    return directory.resolve(
+        Base64.getUrlEncoder()
+            .withoutPadding()
+            .encodeToString(repositoryId.getBytes(StandardCharsets.UTF_8)));
+  }
+}
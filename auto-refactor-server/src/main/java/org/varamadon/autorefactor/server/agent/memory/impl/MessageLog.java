@@ -0,0 +1,68 @@
+package org.varamadon.autorefactor.server.agent.memory.impl;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+
+/**
+ * Append-only log of the messages of a single conversation. Messages are stored in fixed-size
+ * chunks that are never copied, so appending is amortized O(1) and taking a snapshot only
+ * allocates a small view object.
+ *
+ * <p>Appends are serialized, snapshots can be taken concurrently with appends. A snapshot never
+ * changes, because the messages it covers are never overwritten.
+ */
+final class MessageLog {
+  private static final int CHUNK_SIZE = 256;
+
+  private BrainMessage[][] chunks = new BrainMessage[4][];
+
+  /** Number of published messages. Written after the message itself to publish it to readers. */
+  private volatile int size;
+
+  /** Appends the message and returns the number of messages in the log. */
+  synchronized int append(BrainMessage message) {
+    int index = size;
+    int chunkIndex = index / CHUNK_SIZE;
+    if (chunkIndex == chunks.length) {
+      chunks = Arrays.copyOf(chunks, chunks.length * 2);
+    }
+    if (chunks[chunkIndex] == null) {
+      chunks[chunkIndex] = new BrainMessage[CHUNK_SIZE];
+    }
+    chunks[chunkIndex][index % CHUNK_SIZE] = message;
+    size = index + 1;
+    return size;
+  }
+
+  /** Returns an immutable view of the messages appended so far. */
+  List<BrainMessage> snapshot() {
+    int snapshotSize = size;
+    return new Snapshot(chunks, snapshotSize);
+  }
+
+  private static final class Snapshot extends AbstractList<BrainMessage> implements RandomAccess {
+    private final BrainMessage[][] chunks;
+    private final int size;
+
+    private Snapshot(BrainMessage[][] chunks, int size) {
+      this.chunks = chunks;
+      this.size = size;
+    }
+
+    @Override
+    public BrainMessage get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+      }
+      return chunks[index / CHUNK_SIZE][index % CHUNK_SIZE];
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+}
@@ -0,0 +1,377 @@
+package org.varamadon.autorefactor.server.agent.memory.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+import org.apache.commons.lang3.tuple.Pair;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessageType;
+import org.varamadon.autorefactor.server.agent.memory.MessageContext;
+
+/**
+ * Write-ahead log of the pending messages. Every pending message is appended before it's queued and
+ * an acknowledgement is appended once it has been processed, so the messages that were not
+ * acknowledged can be replayed after a restart.
+ *
+ * <p>With group commit, appending threads don't force the log to disk one by one. The first thread
+ * waiting for its record to become durable forces everything written so far, the others wait for it
+ * and return without forcing again if their records were covered. Without group commit, every
+ * append forces the log on its own.
+ *
+ * <p>Acknowledgements are forced like the messages, and so is the truncation of the log once no
+ * message is left unacknowledged, so the log on disk never replays a message that was processed
+ * before one that was not.
+ *
+ * <p>Every record consists of its length, its CRC32 checksum and its payload, so a record torn by a
+ * crash is detected and ends the replay.
+ */
+final class PendingMessageLog implements AutoCloseable {
+  private static final byte ENQUEUED = 1;
+  private static final byte ACKNOWLEDGED = 2;
+  private static final int HEADER_BYTES = Integer.BYTES + Integer.BYTES;
+  private static final BrainMessageType[] MESSAGE_TYPES = BrainMessageType.values();
+
+  private final Path file;
+  private final boolean groupCommit;
+  private final FileChannel channel;
+
+  /**
+   * Guards appends, the counters below and the forcing of the log. Not a monitor, since waiting on
+   * a monitor would pin the carrier threads of the virtual threads running the runs.
+   */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Condition forceCompleted = lock.newCondition();
+
+  /** Number of bytes appended since the log was opened. */
+  private long writtenBytes;
+
+  /** Number of bytes appended since the log was opened that are known to be on disk. */
+  private long forcedBytes;
+
+  private boolean forcing;
+  private long nextSequence;
+  private int unacknowledgedCount;
+
+  private PendingMessageLog(Path file, boolean groupCommit, long nextSequence, int unacknowledged)
+      throws IOException {
+    this.file = file;
+    this.groupCommit = groupCommit;
+    this.nextSequence = nextSequence;
+    this.unacknowledgedCount = unacknowledged;
+    this.channel =
+        FileChannel.open(
+            file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  /**
+   * Opens the log stored in the given file and passes the messages that were not acknowledged to
+   * the consumer in the order they were appended. The log is compacted to contain only them.
+   */
+  static PendingMessageLog open(
+      Path file,
+      boolean groupCommit,
+      BiConsumer<Long, Pair<BrainMessage, MessageContext>> replayed) {
+    try {
+      Map<Long, Pair<BrainMessage, MessageContext>> unacknowledged = replay(file);
+      Path compactedFile = file.resolveSibling(file.getFileName() + ".compacted");
+      try (FileChannel compacted =
+          FileChannel.open(
+              compactedFile,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING)) {
+        for (Map.Entry<Long, Pair<BrainMessage, MessageContext>> entry :
+            unacknowledged.entrySet()) {
+          compacted.write(ByteBuffer.wrap(encodeEnqueued(entry.getKey(), entry.getValue())));
+        }
+        compacted.force(true);
+      }
+      Files.move(compactedFile, file, StandardCopyOption.ATOMIC_MOVE);
+      long nextSequence =
+          unacknowledged.keySet().stream().mapToLong(Long::longValue).max().orElse(0) + 1;
+      PendingMessageLog log =
+          new PendingMessageLog(file, groupCommit, nextSequence, unacknowledged.size());
+      unacknowledged.forEach(replayed::accept);
+      return log;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to open pending message log " + file, e);
+    }
+  }
+
+  /** Appends the message and returns its sequence number once the record is on disk. */
+  long append(Pair<BrainMessage, MessageContext> message) {
+    long sequence;
+    long endOfRecord;
+    lock.lock();
+    try {
+      sequence = nextSequence++;
+      endOfRecord = write(encodeEnqueued(sequence, message));
+      unacknowledgedCount++;
+    } finally {
+      lock.unlock();
+    }
+    awaitDurable(endOfRecord);
+    return sequence;
+  }
+
+  /**
+   * Appends the acknowledgement of the message with the given sequence number and returns once it
+   * is on disk. Acknowledgements are forced like the messages, so a message whose processing has
+   * completed is never replayed, and its effects on the client, like an applied action plan, are
+   * never repeated. When no message is left unacknowledged, the log is truncated and forced
+   * instead.
+   */
+  void acknowledge(long sequence) {
+    long endOfRecord;
+    lock.lock();
+    try {
+      unacknowledgedCount--;
+      if (unacknowledgedCount == 0 && !forcing) {
+        truncate();
+        return;
+      }
+      endOfRecord = write(encode(ACKNOWLEDGED, sequence, new byte[0]));
+    } finally {
+      lock.unlock();
+    }
+    awaitDurable(endOfRecord);
+  }
+
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+    try {
+      channel.close();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Waits until the given number of bytes is on disk, forcing the log if needed. */
+  private void awaitDurable(long bytes) {
+    if (groupCommit) {
+      awaitForced(bytes);
+      return;
+    }
+    lock.lock();
+    try {
+      if (forcedBytes < bytes) {
+        force(bytes);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private long write(byte[] record) {
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(record);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to write pending message log " + file, e);
+    }
+    writtenBytes += record.length;
+    return writtenBytes;
+  }
+
+  /**
+   * Waits until the given number of bytes is on disk. If no other thread is forcing the log, the
+   * calling thread forces everything written so far outside the lock, so other threads can append
+   * meanwhile and be covered by the next force.
+   */
+  private void awaitForced(long bytes) {
+    while (true) {
+      long batchEnd;
+      lock.lock();
+      try {
+        while (forcing && forcedBytes < bytes) {
+          try {
+            forceCompleted.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for pending message log", e);
+          }
+        }
+        if (forcedBytes >= bytes) {
+          return;
+        }
+        forcing = true;
+        batchEnd = writtenBytes;
+      } finally {
+        lock.unlock();
+      }
+      boolean succeeded = false;
+      try {
+        forceChannel();
+        succeeded = true;
+      } finally {
+        lock.lock();
+        try {
+          forcing = false;
+          if (succeeded) {
+            forcedBytes = Math.max(forcedBytes, batchEnd);
+          }
+          forceCompleted.signalAll();
+        } finally {
+          lock.unlock();
+        }
+      }
+    }
+  }
+
+  private void force(long bytes) {
+    forceChannel();
+    forcedBytes = Math.max(forcedBytes, bytes);
+  }
+
+  private void forceChannel() {
+    try {
+      channel.force(false);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to force pending message log " + file, e);
+    }
+  }
+
+  private void truncate() {
+    try {
+      channel.truncate(0);
+      channel.force(true);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to truncate pending message log " + file, e);
+    }
+  }
+
+  /** Reads the log and returns the messages that were not acknowledged by their sequence number. */
+  private static Map<Long, Pair<BrainMessage, MessageContext>> replay(Path file)
+      throws IOException {
+    Map<Long, Pair<BrainMessage, MessageContext>> unacknowledged = new LinkedHashMap<>();
+    if (!Files.exists(file)) {
+      return unacknowledged;
+    }
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      byte[] payload;
+      while ((payload = readRecord(input)) != null) {
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+        byte kind = record.readByte();
+        long sequence = record.readLong();
+        if (kind == ENQUEUED) {
+          unacknowledged.put(sequence, decodeMessage(record));
+        } else {
+          unacknowledged.remove(sequence);
+        }
+      }
+    }
+    return unacknowledged;
+  }
+
+  /** Returns the payload of the next record, or null at the end of the log or at a torn record. */
+  private static byte[] readRecord(DataInputStream input) throws IOException {
+    int length;
+    int checksum;
+    byte[] payload;
+    try {
+      length = input.readInt();
+      checksum = input.readInt();
+      if (length <= 0) {
+        return null;
+      }
+      payload = input.readNBytes(length);
+    } catch (EOFException e) {
+      return null;
+    }
+    if (payload.length < length || checksum(payload) != checksum) {
+      return null;
+    }
+    return payload;
+  }
+
+  private static byte[] encodeEnqueued(long sequence, Pair<BrainMessage, MessageContext> message) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream output = new DataOutputStream(bytes);
+      BrainMessage brainMessage = message.getKey();
+      MessageContext context = message.getValue();
+      output.writeByte(brainMessage.messageType().ordinal());
+      writeString(output, brainMessage.content());
+      writeString(output, context.repositoryId());
+      writeString(output, context.fileHash());
+      output.writeInt(context.fileHashes().size());
+      for (String fileHash : context.fileHashes()) {
+        writeString(output, fileHash);
+      }
+      writeString(output, context.model());
+      return encode(ENQUEUED, sequence, bytes.toByteArray());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static Pair<BrainMessage, MessageContext> decodeMessage(DataInputStream input)
+      throws IOException {
+    BrainMessageType messageType = MESSAGE_TYPES[input.readByte()];
+    String content = readString(input);
+    String repositoryId = readString(input);
+    String fileHash = readString(input);
+    int fileHashesCount = input.readInt();
+    List<String> fileHashes = new ArrayList<>(fileHashesCount);
+    for (int i = 0; i < fileHashesCount; i++) {
+      fileHashes.add(readString(input));
+    }
+    // Records appended before the model was logged end here
+    String model = input.available() > 0 ? readString(input) : "";
+    return Pair.of(
+        new BrainMessage(messageType, content),
+        new MessageContext(repositoryId, fileHash, List.copyOf(fileHashes), model));
+  }
+
+  private static byte[] encode(byte kind, long sequence, byte[] body) {
+    ByteBuffer payload = ByteBuffer.allocate(1 + Long.BYTES + body.length);
+    payload.put(kind).putLong(sequence).put(body);
+    byte[] payloadBytes = payload.array();
+    return ByteBuffer.allocate(HEADER_BYTES + payloadBytes.length)
+        .putInt(payloadBytes.length)
+        .putInt(checksum(payloadBytes))
+        .put(payloadBytes)
+        .array();
+  }
+
+  private static int checksum(byte[] payload) {
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    return (int) crc.getValue();
+  }
+
+  private static void writeString(DataOutputStream output, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static String readString(DataInputStream input) throws IOException {
+    return new String(input.readNBytes(input.readInt()), StandardCharsets.UTF_8);
+  }
+}
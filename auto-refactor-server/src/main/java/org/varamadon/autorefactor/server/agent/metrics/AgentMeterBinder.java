@@ -0,0 +1,152 @@
+package org.varamadon.autorefactor.server.agent.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+import org.varamadon.autorefactor.server.agent.brain.limit.AdaptiveConcurrencyLimiter;
+import org.varamadon.autorefactor.server.agent.brain.limit.BrainRateLimiter;
+import org.varamadon.autorefactor.server.agent.brain.resilience.ResilientCallExecutor;
+import org.varamadon.autorefactor.server.agent.cache.ActionPlanCache;
+import org.varamadon.autorefactor.server.agent.command.compression.TransportCompression;
+import org.varamadon.autorefactor.server.agent.content.FileContentStore;
+import org.varamadon.autorefactor.server.agent.memory.RefactoringAgentMessagesStore;
+import org.varamadon.autorefactor.server.agent.validation.ActionPlanValidator;
+import org.varamadon.autorefactor.server.agent.validation.PruneReason;
+
+/**
+ * Exports the state the agent components already keep: the depth of the pending messages queue, the
+ * utilization of the brain limiters, the retries and hedges of brain calls, the bytes saved by
+ * compression, the hits of the action plan cache, the action items pruned by validation and the
+ * files shared in the content store. Values are read when the registry is scraped.
+ */
+@Component
+public class AgentMeterBinder implements MeterBinder {
+  private final RefactoringAgentMessagesStore messagesStore;
+  private final BrainRateLimiter rateLimiter;
+  private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+  private final ResilientCallExecutor resilientCallExecutor;
+  private final TransportCompression compression;
+  private final ActionPlanCache actionPlanCache;
+  private final ActionPlanValidator actionPlanValidator;
+  private final FileContentStore fileContentStore;
+
+  public AgentMeterBinder(
+      RefactoringAgentMessagesStore messagesStore,
+      BrainRateLimiter rateLimiter,
+      AdaptiveConcurrencyLimiter concurrencyLimiter,
+      ResilientCallExecutor resilientCallExecutor,
+      TransportCompression compression,
+      ActionPlanCache actionPlanCache,
+      ActionPlanValidator actionPlanValidator,
+      FileContentStore fileContentStore) {
+    this.messagesStore = messagesStore;
+    this.rateLimiter = rateLimiter;
+    this.concurrencyLimiter = concurrencyLimiter;
+    this.resilientCallExecutor = resilientCallExecutor;
+    this.compression = compression;
+    this.actionPlanCache = actionPlanCache;
+    this.actionPlanValidator = actionPlanValidator;
+    this.fileContentStore = fileContentStore;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder(
+            "agent.messages.pending",
+            messagesStore,
+            RefactoringAgentMessagesStore::getPendingMessagesCount)
+        .description("Assistant messages waiting to be processed")
+        .register(registry);
+
+    Gauge.builder(
+            "agent.brain.rate.limit.utilization",
+            rateLimiter,
+            BrainRateLimiter::getTokensUtilization)
+        .description("Utilization of the tokens per minute budget")
+        .tag("budget", "tokens")
+        .register(registry);
+    Gauge.builder(
+            "agent.brain.rate.limit.utilization",
+            rateLimiter,
+            BrainRateLimiter::getRequestsUtilization)
+        .description("Utilization of the requests per minute budget")
+        .tag("budget", "requests")
+        .register(registry);
+    FunctionCounter.builder(
+            "agent.brain.rate.limit.waits", rateLimiter, BrainRateLimiter::getWaitCount)
+        .description("Brain calls that waited for the rate limit budget")
+        .register(registry);
+
+    Gauge.builder(
+            "agent.brain.concurrency.limit",
+            concurrencyLimiter,
+            AdaptiveConcurrencyLimiter::getLimit)
+        .description("Current limit of brain calls in flight")
+        .register(registry);
+    Gauge.builder(
+            "agent.brain.concurrency.in.flight",
+            concurrencyLimiter,
+            AdaptiveConcurrencyLimiter::getInFlight)
+        .description("Brain calls in flight")
+        .register(registry);
+    FunctionCounter.builder(
+            "agent.brain.concurrency.queued",
+            concurrencyLimiter,
+            AdaptiveConcurrencyLimiter::getQueuedCount)
+        .description("Brain calls that waited for a concurrency permit")
+        .register(registry);
+
+    Gauge.builder(
+            "agent.brain.retry.rate", resilientCallExecutor, ResilientCallExecutor::getRetryRate)
+        .description("Retries per brain call")
+        .register(registry);
+    Gauge.builder(
+            "agent.brain.hedge.rate", resilientCallExecutor, ResilientCallExecutor::getHedgeRate)
+        .description("Hedged duplicates per brain call")
+        .register(registry);
+
+    FunctionCounter.builder(
+            "agent.compression.saved", compression, TransportCompression::getSentBytesSaved)
+        .description("Bytes saved by compressing the transport to the tools")
+        .baseUnit("bytes")
+        .tag("direction", "sent")
+        .register(registry);
+    FunctionCounter.builder(
+            "agent.compression.saved", compression, TransportCompression::getReceivedBytesSaved)
+        .description("Bytes saved by compressing the transport to the tools")
+        .baseUnit("bytes")
+        .tag("direction", "received")
+        .register(registry);
+
+    FunctionCounter.builder(
+            "agent.plan.cache.lookups", actionPlanCache, ActionPlanCache::getHitCount)
+        .description("Lookups of the action plan cache")
+        .tag("result", "hit")
+        .register(registry);
+    FunctionCounter.builder(
+            "agent.plan.cache.lookups", actionPlanCache, ActionPlanCache::getMissCount)
+        .description("Lookups of the action plan cache")
+        .tag("result", "miss")
+        .register(registry);
+
+    for (PruneReason reason : PruneReason.values()) {
+      FunctionCounter.builder(
+              "agent.action.items.pruned",
+              actionPlanValidator,
+              validator -> validator.getPrunedCount(reason))
+          .description("Action items pruned before they were sent to the tools")
+          .tag("reason", reason.name())
+          .register(registry);
+    }
+
+    Gauge.builder("agent.content.store.files", fileContentStore, FileContentStore::getFileCount)
+        .description("Distinct file contents held in the content store")
+        .register(registry);
+    FunctionCounter.builder(
+            "agent.content.store.shared", fileContentStore, FileContentStore::getSharedCount)
+        .description("Files served from the content store instead of being stored again")
+        .register(registry);
+  }
+}
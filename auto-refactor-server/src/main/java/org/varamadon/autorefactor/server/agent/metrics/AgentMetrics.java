@@ -0,0 +1,186 @@
+package org.varamadon.autorefactor.server.agent.metrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+import org.varamadon.autorefactor.server.agent.brain.TokenCounter;
+import org.varamadon.autorefactor.shared.model.ActionItem;
+
+/**
+ * Metrics of the stages of refactoring runs, exported by Actuator in Prometheus format. Meters of
+ * runs, files, brain calls and action plans are tagged with the repository and the model, requests
+ * to the tools with the repository and the endpoint.
+ *
+ * <p>Every repository creates its own time series. Deployments processing many short-lived
+ * repositories can turn the repository tag off.
+ */
+@Component
+public class AgentMetrics {
+  public static final String FILES_NEXT_ENDPOINT = "/files/next";
+  public static final String ACTIONS_EXECUTE_ENDPOINT = "/actions/execute";
+  public static final String FINISH_ENDPOINT = "/finish";
+
+  private final MeterRegistry registry;
+  private final boolean repositoryTag;
+  private final ToIntFunction<String> tokenCounter;
+  private final ConcurrentMap<String, Long> runStartNanos = new ConcurrentHashMap<>();
+
+  /** Start times of the files being processed by repository and file hash. */
+  private final ConcurrentMap<String, Map<String, Long>> fileStartNanos = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a new instance of the AgentMetrics.
+   *
+   * @param registry the registry the meters are registered in.
+   * @param repositoryTag whether the meters are tagged with the repository.
+   * @param tokenCounter the counter of the tokens of prompts and answers.
+   */
+  @Autowired
+  public AgentMetrics(
+      MeterRegistry registry,
+      @Value("${org.varamadon.autorefactor.agent.metrics.repository-tag:true}")
+          boolean repositoryTag,
+      TokenCounter tokenCounter) {
+    this(registry, repositoryTag, tokenCounter::count);
+  }
+
+  @VisibleForTesting
+  AgentMetrics(MeterRegistry registry, boolean repositoryTag, ToIntFunction<String> tokenCounter) {
+    this.registry = registry;
+    this.repositoryTag = repositoryTag;
+    this.tokenCounter = tokenCounter;
+    Gauge.builder("agent.runs.active", runStartNanos, Map::size)
+        .description("Runs started and not finished yet")
+        .register(registry);
+  }
+
+  public void recordRunStarted(String repositoryId) {
+    runStartNanos.put(repositoryId, System.nanoTime());
+  }
+
+  /** Records the duration of the run and forgets the files that were not completed. */
+  public void recordRunFinished(String repositoryId, String model) {
+    fileStartNanos.remove(repositoryId);
+    Long startNanos = runStartNanos.remove(repositoryId);
+    if (startNanos != null) {
+      Timer.builder("agent.runs")
+          .description("Duration of the runs from start to finish")
+          .tags(tags(repositoryId, model))
+          .register(registry)
+          .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /** Records that the file was taken from the tool, the time of the file starts now. */
+  public void recordFileStarted(String repositoryId, String fileHash) {
+    fileStartNanos
+        .computeIfAbsent(repositoryId, ignored -> new ConcurrentHashMap<>())
+        .put(fileHash, System.nanoTime());
+  }
+
+  /** Records the end-to-end time of the file, from taking it to applying its action plan. */
+  public void recordFileCompleted(String repositoryId, String fileHash, String model) {
+    Map<String, Long> startNanosByHash = fileStartNanos.get(repositoryId);
+    Long startNanos = startNanosByHash == null ? null : startNanosByHash.remove(fileHash);
+    if (startNanos != null) {
+      Timer.builder("agent.files")
+          .description("End-to-end time of the files from taking them to applying their plans")
+          .tags(tags(repositoryId, model))
+          .register(registry)
+          .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /** Estimates the number of tokens of the given messages. */
+  public int estimateTokens(List<BrainMessage> messages) {
+    int tokens = 0;
+    for (BrainMessage message : messages) {
+      tokens += estimateTokens(message);
+    }
+    return tokens;
+  }
+
+  /** Estimates the number of tokens of the given message. */
+  public int estimateTokens(BrainMessage message) {
+    return tokenCounter.applyAsInt(message.content());
+  }
+
+  /** Records the latency of a brain call and the estimated tokens of its prompt and answer. */
+  public void recordBrainCall(
+      String repositoryId,
+      String model,
+      int promptTokens,
+      int completionTokens,
+      long latencyNanos) {
+    Tags tags = tags(repositoryId, model);
+    Timer.builder("agent.brain.calls")
+        .description("Latency of the calls to the brain")
+        .tags(tags)
+        .register(registry)
+        .record(latencyNanos, TimeUnit.NANOSECONDS);
+    tokensCounter(tags, "prompt").increment(promptTokens);
+    tokensCounter(tags, "completion").increment(completionTokens);
+  }
+
+  private Counter tokensCounter(Tags tags, String type) {
+    return Counter.builder("agent.brain.tokens")
+        .description("Estimated tokens of the prompts and answers of the brain")
+        .tags(tags)
+        .tag("type", type)
+        .register(registry);
+  }
+
+  /** Counts the action items of a deserialized action plan by type. */
+  public void recordActionItems(String repositoryId, String model, List<ActionItem> actionItems) {
+    for (ActionItem actionItem : actionItems) {
+      Counter.builder("agent.action.items")
+          .description("Action items generated by the brain")
+          .tags(tags(repositoryId, model))
+          .tag("type", actionItem.getType().name())
+          .register(registry)
+          .increment();
+    }
+  }
+
+  /** Counts an action plan of the brain that couldn't be deserialized. */
+  public void recordPlanParseFailure(String repositoryId, String model) {
+    Counter.builder("agent.plan.parse.failures")
+        .description("Action plans of the brain that couldn't be deserialized")
+        .tags(tags(repositoryId, model))
+        .register(registry)
+        .increment();
+  }
+
+  /** Records the latency of a request to the tool of the repository. */
+  public void recordToolRequest(
+      String repositoryId, String endpoint, long latencyNanos, boolean succeeded) {
+    Timer.builder("agent.tool.requests")
+        .description("Latency of the requests to the tools")
+        .tags(repositoryTags(repositoryId))
+        .tag("endpoint", endpoint)
+        .tag("outcome", succeeded ? "success" : "error")
+        .register(registry)
+        .record(latencyNanos, TimeUnit.NANOSECONDS);
+  }
+
+  private Tags tags(String repositoryId, String model) {
+    return repositoryTags(repositoryId).and("model", model);
+  }
+
+  private Tags repositoryTags(String repositoryId) {
+    return repositoryTag ? Tags.of("repository", repositoryId) : Tags.empty();
+  }
+}
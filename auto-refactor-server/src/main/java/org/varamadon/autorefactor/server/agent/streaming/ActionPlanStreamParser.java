@@ -0,0 +1,132 @@
+package org.varamadon.autorefactor.server.agent.streaming;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import org.varamadon.autorefactor.server.agent.brain.AnswerStreamListener;
+
+/**
+ * Incremental parser of brain answers. The answer is either a command, like "nextFile", or a JSON
+ * array of action items. Which one it is becomes known from its first non-whitespace character.
+ * The JSON text of every action item is passed to the consumer as soon as its object is closed,
+ * without waiting for the rest of the array.
+ *
+ * <p>The parser only tracks nesting and string literals, it doesn't validate the JSON. Each item
+ * should be deserialized separately.
+ */
+public class ActionPlanStreamParser implements AnswerStreamListener {
+  private final ImmutableSet<String> commands;
+  private final Consumer<String> itemConsumer;
+  private final StringBuilder command = new StringBuilder();
+  private final StringBuilder item = new StringBuilder();
+  private AnswerType answerType = AnswerType.UNKNOWN;
+  private int depth;
+  private boolean inString;
+  private boolean escaped;
+
+  /**
+   * Creates a new instance of the ActionPlanStreamParser.
+   *
+   * @param commands the commands the brain may answer with instead of an action plan.
+   * @param itemConsumer the consumer of the JSON text of every action item of the plan.
+   */
+  public ActionPlanStreamParser(Set<String> commands, Consumer<String> itemConsumer) {
+    this.commands = ImmutableSet.copyOf(commands);
+    this.itemConsumer = itemConsumer;
+  }
+
+  @Override
+  public void onChunk(String chunk) {
+    for (int i = 0; i < chunk.length(); i++) {
+      char c = chunk.charAt(i);
+      switch (answerType) {
+        case UNKNOWN -> detectAnswerType(c);
+        case COMMAND -> command.append(c);
+        case PLAN -> acceptPlanCharacter(c);
+      }
+    }
+  }
+
+  /**
+   * The answer is complete once the action plan array is closed or the answer is one of the known
+   * commands.
+   */
+  @Override
+  public boolean isAnswerComplete() {
+    return switch (answerType) {
+      case UNKNOWN -> false;
+      case COMMAND -> commands.contains(command.toString().strip());
+      case PLAN -> depth == 0;
+    };
+  }
+
+  /** Returns true if the answer is known to be an action plan. */
+  public boolean isActionPlan() {
+    return answerType == AnswerType.PLAN;
+  }
+
+  private void detectAnswerType(char c) {
+    if (Character.isWhitespace(c)) {
+      return;
+    }
+    if (c == '[') {
+      answerType = AnswerType.PLAN;
+      depth = 1;
+    } else {
+      answerType = AnswerType.COMMAND;
+      command.append(c);
+    }
+  }
+
+  private void acceptPlanCharacter(char c) {
+    if (depth == 0) { // Anything after the end of the plan is ignored
+      return;
+    }
+    if (inString) {
+      item.append(c);
+      if (escaped) {
+        escaped = false;
+      } else if (c == '\\') {
+        escaped = true;
+      } else if (c == '"') {
+        inString = false;
+      }
+      return;
+    }
+    switch (c) {
+      case '{', '[' -> {
+        if (depth == 1) {
+          item.setLength(0);
+        }
+        depth++;
+        item.append(c);
+      }
+      case '}', ']' -> {
+        depth--;
+        if (depth == 0) {
+          return;
+        }
+        item.append(c);
+        if (depth == 1) {
+          itemConsumer.accept(item.toString());
+          item.setLength(0);
+        }
+      }
+      case '"' -> {
+        inString = true;
+        item.append(c);
+      }
+      default -> {
+        if (depth > 1) {
+          item.append(c);
+        }
+      }
+    }
+  }
+
+  private enum AnswerType {
+    UNKNOWN,
+    COMMAND,
+    PLAN
+  }
+}
@@ -0,0 +1,159 @@
+package org.varamadon.autorefactor.server.agent.validation;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import javax.lang.model.SourceVersion;
+import org.varamadon.autorefactor.server.agent.content.LineIndex;
+import org.varamadon.autorefactor.shared.model.ActionItem;
+import org.varamadon.autorefactor.shared.model.ActionItemType;
+import org.varamadon.autorefactor.shared.model.AddCommentAction;
+import org.varamadon.autorefactor.shared.model.RenameMethodAction;
+import org.varamadon.autorefactor.shared.model.RenameVariableAction;
+
+/**
+ * Validation of the items of a single action plan, in the order they are applied. Items are checked
+ * against the file content and against the items accepted before them, so the validation is
+ * stateful and not thread-safe. A validation without a line index, for a file that is not being
+ * processed anymore or when validation is disabled, accepts all items.
+ */
+public final class ActionPlanValidation {
+  private final LineIndex lineIndex;
+  private final Consumer<PruneReason> prunedItems;
+  private final List<ActionItem> acceptedItems = new ArrayList<>();
+  private final Set<ActionItem> distinctItems = new HashSet<>();
+
+  /** New names of the accepted renames by the renamed identifier. */
+  private final Map<RenameSource, String> newNames = new HashMap<>();
+
+  /** Old names of the accepted renames by the new name on the line. */
+  private final Map<RenameTarget, String> oldNames = new HashMap<>();
+
+  ActionPlanValidation(LineIndex lineIndex, Consumer<PruneReason> prunedItems) {
+    this.lineIndex = lineIndex;
+    this.prunedItems = prunedItems;
+  }
+
+  /**
+   * Checks the given item and accepts it if it is valid. Returns the reason for pruning the item if
+   * it is not.
+   */
+  public Optional<PruneReason> check(ActionItem actionItem) {
+    if (lineIndex == null) {
+      acceptedItems.add(actionItem);
+      return Optional.empty();
+    }
+    Optional<PruneReason> pruneReason = findPruneReason(actionItem);
+    pruneReason.ifPresentOrElse(prunedItems, () -> accept(actionItem));
+    return pruneReason;
+  }
+
+  private Optional<PruneReason> findPruneReason(ActionItem actionItem) {
+    if (distinctItems.contains(actionItem)) {
+      return Optional.of(PruneReason.DUPLICATE);
+    }
+    if (actionItem instanceof RenameMethodAction renameMethod) {
+      return checkRename(
+          renameMethod.getType(),
+          renameMethod.line(),
+          renameMethod.oldName(),
+          renameMethod.newName());
+    }
+    if (actionItem instanceof RenameVariableAction renameVariable) {
+      return checkRename(
+          renameVariable.getType(),
+          renameVariable.line(),
+          renameVariable.oldName(),
+          renameVariable.newName());
+    }
+    return checkLine(((AddCommentAction) actionItem).line());
+  }
+
+  private Optional<PruneReason> checkLine(Integer line) {
+    if (line == null || !lineIndex.hasLine(line)) {
+      return Optional.of(PruneReason.LINE_OUT_OF_RANGE);
+    }
+    return Optional.empty();
+  }
+
+  private Optional<PruneReason> checkRename(
+      ActionItemType type, Integer line, String oldName, String newName) {
+    Optional<PruneReason> lineReason = checkLine(line);
+    if (lineReason.isPresent()) {
+      return lineReason;
+    }
+    if (oldName == null || !containsIdentifier(line, oldName)) {
+      return Optional.of(PruneReason.NAME_NOT_ON_LINE);
+    }
+    if (newName == null || !SourceVersion.isName(newName) || newName.equals(oldName)) {
+      return Optional.of(PruneReason.INVALID_NEW_NAME);
+    }
+    String acceptedNewName = newNames.get(new RenameSource(type, line, oldName));
+    String acceptedOldName = oldNames.get(new RenameTarget(type, line, newName));
+    if ((acceptedNewName != null && !acceptedNewName.equals(newName))
+        || (acceptedOldName != null && !acceptedOldName.equals(oldName))) {
+      return Optional.of(PruneReason.CONFLICTING_RENAME);
+    }
+    return Optional.empty();
+  }
+
+  /** Returns whether the given identifier is a whole identifier token on the given line. */
+  private boolean containsIdentifier(int line, String identifier) {
+    String content = lineIndex.getContent();
+    int end = lineIndex.getLineEnd(line);
+    int i = lineIndex.getLineStart(line);
+    while (i < end) {
+      if (!Character.isJavaIdentifierStart(content.charAt(i))) {
+        i++;
+        continue;
+      }
+      int tokenStart = i;
+      while (i < end && Character.isJavaIdentifierPart(content.charAt(i))) {
+        i++;
+      }
+      if (i - tokenStart == identifier.length()
+          && content.regionMatches(tokenStart, identifier, 0, identifier.length())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns the items accepted so far, in the order they were checked. */
+  public ImmutableList<ActionItem> getAcceptedItems() {
+    return ImmutableList.copyOf(acceptedItems);
+  }
+
+  private void accept(ActionItem actionItem) {
+    acceptedItems.add(actionItem);
+    distinctItems.add(actionItem);
+    if (actionItem instanceof RenameMethodAction renameMethod) {
+      acceptRename(
+          renameMethod.getType(),
+          renameMethod.line(),
+          renameMethod.oldName(),
+          renameMethod.newName());
+    } else if (actionItem instanceof RenameVariableAction renameVariable) {
+      acceptRename(
+          renameVariable.getType(),
+          renameVariable.line(),
+          renameVariable.oldName(),
+          renameVariable.newName());
+    }
+  }
+
+  private void acceptRename(ActionItemType type, int line, String oldName, String newName) {
+    newNames.put(new RenameSource(type, line, oldName), newName);
+    oldNames.put(new RenameTarget(type, line, newName), oldName);
+  }
+
+  private record RenameSource(ActionItemType type, int line, String oldName) {}
+
+  private record RenameTarget(ActionItemType type, int line, String newName) {}
+}
@@ -0,0 +1,68 @@
+package org.varamadon.autorefactor.server.agent.validation;
+
+import com.google.common.collect.ImmutableList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.varamadon.autorefactor.server.agent.content.LineIndex;
+import org.varamadon.autorefactor.shared.model.ActionItem;
+
+/**
+ * Validates the action items generated by the brain against the content of their file before they
+ * are sent to the client. Items whose line doesn't exist, whose name to rename is not on the line,
+ * and duplicate or conflicting renames would not change anything on the client but still cost it a
+ * lookup, so they are pruned. Pruned items are counted by reason.
+ */
+@Component
+public class ActionPlanValidator {
+  private final boolean enabled;
+  private final Map<PruneReason, LongAdder> prunedCounts = new EnumMap<>(PruneReason.class);
+
+  /**
+   * Creates a new instance of the ActionPlanValidator.
+   *
+   * @param enabled whether invalid items are pruned, otherwise all items are sent to the client.
+   */
+  public ActionPlanValidator(
+      @Value("${org.varamadon.autorefactor.agent.validation.enabled:true}") boolean enabled) {
+    this.enabled = enabled;
+    for (PruneReason reason : PruneReason.values()) {
+      prunedCounts.put(reason, new LongAdder());
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Starts the validation of the items of a plan for the file with the given line index, or of a
+   * file that is not indexed anymore if it is empty. The items are checked one by one, as they are
+   * generated.
+   */
+  public ActionPlanValidation newValidation(Optional<LineIndex> lineIndex) {
+    return new ActionPlanValidation(enabled ? lineIndex.orElse(null) : null, this::recordPruned);
+  }
+
+  /** Returns the valid items of the plan for the file with the given line index. */
+  public ImmutableList<ActionItem> validate(
+      Optional<LineIndex> lineIndex, List<ActionItem> actionItems) {
+    ActionPlanValidation validation = newValidation(lineIndex);
+    actionItems.forEach(validation::check);
+    return validation.getAcceptedItems();
+  }
+
+  /** Counts an item pruned for the given reason. */
+  public void recordPruned(PruneReason reason) {
+    prunedCounts.get(reason).increment();
+  }
+
+  /** Returns the number of items pruned for the given reason. */
+  public long getPrunedCount(PruneReason reason) {
+    return prunedCounts.get(reason).sum();
+  }
+}
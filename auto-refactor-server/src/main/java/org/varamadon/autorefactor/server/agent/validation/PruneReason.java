@@ -0,0 +1,20 @@
+package org.varamadon.autorefactor.server.agent.validation;
+
+/** Reasons for pruning an action item before it is sent to the client. */
+public enum PruneReason {
+  /** The item couldn't be deserialized, while the other items of its plan could. */
+  MALFORMED,
+  /** The line of the item is missing or not in the file. */
+  LINE_OUT_OF_RANGE,
+  /** The name to rename is not an identifier on the line of the item. */
+  NAME_NOT_ON_LINE,
+  /** The new name is not a valid Java identifier or doesn't change the name. */
+  INVALID_NEW_NAME,
+  /** The same item is already in the plan. */
+  DUPLICATE,
+  /**
+   * The plan already renames the same name on the same line to another name, or renames another
+   * name on the same line to the same new name.
+   */
+  CONFLICTING_RENAME
+}
@@ -1,19 +1,67 @@
 package org.varamadon.autorefactor.server.web;
 
 import java.time.Duration;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.web.client.RestTemplate;
+import org.varamadon.autorefactor.server.agent.command.compression.GzipRequestInterceptor;
+import org.varamadon.autorefactor.server.agent.command.compression.TransportCompression;
 
+/**
+ * RestTemplates of the blocking command executor. A RestTemplate has a single read timeout, so
+ * every command with a timeout of its own gets its own RestTemplate, and long action plans don't
+ * share the timeout of quick file requests.
+ */
 @Configuration
 public class RestTemplateConfig {
+  public static final String ACTION_PLAN_REST_TEMPLATE = "actionPlanRestTemplate";
+  public static final String FINISH_REST_TEMPLATE = "finishRestTemplate";
 
+  private final TransportCompression transportCompression;
+  private final Duration connectTimeout;
+
+  public RestTemplateConfig(
+      TransportCompression transportCompression,
+      @Value("${org.varamadon.autorefactor.agent.command.connect-timeout:5s}")
+          Duration connectTimeout) {
+    this.transportCompression = transportCompression;
+    this.connectTimeout = connectTimeout;
+  }
+
+  /** RestTemplate of the next file command, also used by default. */
   @Bean
-  public RestTemplate restTemplate(RestTemplateBuilder builder) {
+  @Primary
+  public RestTemplate restTemplate(
+      RestTemplateBuilder builder,
+      @Value("${org.varamadon.autorefactor.agent.command.next-file-timeout:10s}")
+          Duration readTimeout) {
+    return build(builder, readTimeout);
+  }
+
+  @Bean(ACTION_PLAN_REST_TEMPLATE)
+  public RestTemplate actionPlanRestTemplate(
+      RestTemplateBuilder builder,
+      @Value("${org.varamadon.autorefactor.agent.command.action-plan-timeout:5m}")
+          Duration readTimeout) {
+    return build(builder, readTimeout);
+  }
+
+  @Bean(FINISH_REST_TEMPLATE)
+  public RestTemplate finishRestTemplate(
+      RestTemplateBuilder builder,
+      @Value("${org.varamadon.autorefactor.agent.command.finish-timeout:10s}")
+          Duration readTimeout) {
+    return build(builder, readTimeout);
+  }
+
+  private RestTemplate build(RestTemplateBuilder builder, Duration readTimeout) {
     return builder
-        .setConnectTimeout(Duration.ofSeconds(5))
-        .setReadTimeout(Duration.ofSeconds(5))
+        .additionalInterceptors(new GzipRequestInterceptor(transportCompression))
+        .setConnectTimeout(connectTimeout)
+        .setReadTimeout(readTimeout)
         .build();
   }
 }
@@ -2,6 +2,11 @@ package org.varamadon.autorefactor.server.agent;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.ASSISTANT;
 import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.SYSTEM;
@@ -11,32 +16,83 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
 import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.commons.lang3.tuple.Pair;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.mockito.InOrder;
 import org.varamadon.autorefactor.server.agent.brain.AgentBrain;
+import org.varamadon.autorefactor.server.agent.brain.AnswerStreamListener;
 import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
-import org.varamadon.autorefactor.server.agent.memory.RefactoringAgentMessagesStore;
+import org.varamadon.autorefactor.server.agent.brain.TokenCounter;
+import org.varamadon.autorefactor.server.agent.cache.ActionPlanCache;
+import org.varamadon.autorefactor.server.agent.cache.ActionPlanCacheKey;
+import org.varamadon.autorefactor.server.agent.cache.DiskActionPlanCache;
+import org.varamadon.autorefactor.server.agent.cache.NoOpActionPlanCache;
 import org.varamadon.autorefactor.server.agent.command.RefactoringAgentCommandExecutor;
+import org.varamadon.autorefactor.server.agent.command.ToolsInfoStore;
+import org.varamadon.autorefactor.server.agent.command.impl.FileToolsInfoStore;
+import org.varamadon.autorefactor.server.agent.content.ContentHashing;
+import org.varamadon.autorefactor.server.agent.content.FileContentStore;
+import org.varamadon.autorefactor.server.agent.context.ConversationWindow;
+import org.varamadon.autorefactor.server.agent.context.FileBatchPolicy;
+import org.varamadon.autorefactor.server.agent.execution.PooledRunExecutor;
+import org.varamadon.autorefactor.server.agent.execution.RunExecutor;
+import org.varamadon.autorefactor.server.agent.execution.RunMode;
+import org.varamadon.autorefactor.server.agent.execution.RunSettings;
+import org.varamadon.autorefactor.server.agent.execution.VirtualThreadRunExecutor;
+import org.varamadon.autorefactor.server.agent.memory.MessageContext;
+import org.varamadon.autorefactor.server.agent.memory.RefactoringAgentMessagesStore;
 import org.varamadon.autorefactor.server.agent.memory.impl.InMemoryMessagesStore;
+import org.varamadon.autorefactor.server.agent.memory.impl.MappedMessagesStore;
+import org.varamadon.autorefactor.server.agent.metrics.AgentMetrics;
+import org.varamadon.autorefactor.server.agent.validation.ActionPlanValidator;
+import org.varamadon.autorefactor.server.agent.validation.PruneReason;
 import org.varamadon.autorefactor.shared.model.ActionItem;
 import org.varamadon.autorefactor.shared.model.ActionPlan;
-
 import org.varamadon.autorefactor.shared.model.AddCommentAction;
+import org.varamadon.autorefactor.shared.model.RenameVariableAction;
+import org.varamadon.autorefactor.shared.model.SourceFile;
 
 class RefactoringAgentTest {
+  private static final Duration WAIT_TIMEOUT = Duration.ofSeconds(5);
 
   @Test
   void test() {
     AgentBrain agentBrain = mock();
     RefactoringAgentCommandExecutor commandExecutor = mock();
     RefactoringAgentMessagesStore messagesStore = new InMemoryMessagesStore();
+    FileContentStore fileContentStore = new FileContentStore();
 
     String fileContent = "fileContent";
     String repositoryId = "repositoryId";
     String fileContentWithLines = RefactoringAgent.appendLineNumbers(fileContent);
     when(commandExecutor.executeNextFileCommand(repositoryId))
-        .thenReturn(fileContent)
-        .thenReturn("");
+        .thenReturn(ContentHashing.hash(fileContent))
+        .thenReturn(SourceFile.EMPTY);
 
     ActionItem actionItem = new AddCommentAction(5, "comment");
     ActionPlan actionPlan =
@@ -59,6 +115,8 @@ class RefactoringAgentTest {
 
     // Simulate LLM behaviour
     when(agentBrain.getSystemStartMessage()).thenReturn(systemMessage);
+    when(agentBrain.getModelName()).thenReturn("model");
+    when(agentBrain.getModelName(any())).thenReturn("model");
     when(agentBrain.getNextAnswer(ImmutableList.of(systemMessage)))
         .thenReturn(nextFileMessage); // request next file
     when(agentBrain.getNextAnswer(
@@ -78,7 +136,12 @@ class RefactoringAgentTest {
         .thenReturn(finishMessage); // got empty file, finish
 
     RefactoringAgent agent =
-        new RefactoringAgent(agentBrain, commandExecutor, messagesStore, objectMapper);
+        new AgentBuilder(agentBrain, commandExecutor)
+            .withMessagesStore(messagesStore)
+            .withObjectMapper(objectMapper)
+            .withConversationWindow(new ConversationWindow(-1, false))
+            .withFileContentStore(fileContentStore)
+            .build();
 
     agent.startProcess(repositoryId);
 
@@ -90,6 +153,742 @@ class RefactoringAgentTest {
               verify(commandExecutor).executeActionPlanCommand(repositoryId, actionPlan);
               verify(commandExecutor).executeFinishCommand(repositoryId);
             });
+    assertTrue(agent.getLineIndex(repositoryId, actionPlan.fileHash()).isEmpty());
+    assertEquals(0, fileContentStore.getFileCount());
+  }
+
+  @Test
+  void runStagesAreRecordedAsMetrics() {
+    String repositoryId = "repositoryId";
+    RefactoringAgentCommandExecutor commandExecutor = mock();
+    when(commandExecutor.executeNextFileCommand(repositoryId))
+        .thenReturn(ContentHashing.hash("fileContent"), SourceFile.EMPTY);
+    ProtocolAgentBrain agentBrain = new ProtocolAgentBrain();
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    RefactoringAgent agent =
+        new AgentBuilder(agentBrain, commandExecutor)
+            .withObjectMapper(
+                new MockObjectMapper(ImmutableList.of(new AddCommentAction(1, "comment"))))
+            .withMetrics(new AgentMetrics(meterRegistry, true, new TokenCounter("gpt-4o")))
+            .build();
+
+    agent.startProcess(repositoryId);
+
+    await()
+        .atMost(5, TimeUnit.SECONDS)
+        .untilAsserted(() -> assertEquals(1, meterRegistry.get("agent.runs").timer().count()));
+    String model = agentBrain.getModelName();
+    assertEquals(1, meterRegistry.get("agent.files").tag("model", model).timer().count());
+    assertEquals(
+        4, meterRegistry.get("agent.brain.calls").tag("repository", repositoryId).timer().count());
+    assertEquals(
+        1, meterRegistry.get("agent.action.items").tag("type", "ADD_COMMENT").counter().count());
+    assertEquals(0, meterRegistry.get("agent.runs.active").gauge().value());
+  }
+
+  static Stream<Arguments> runExecutors() {
+    return Stream.of(
+        Arguments.of(new PooledRunExecutor(5, 8)), Arguments.of(new VirtualThreadRunExecutor()));
+  }
+
+  @ParameterizedTest
+  @MethodSource("runExecutors")
+  void repositoriesAreProcessedInParallel(RunExecutor runExecutor) {
+    int repositoriesCount = 5;
+
+    // Runs processed one after another would never plan their files at the same time
+    GatheringAgentBrain agentBrain = new GatheringAgentBrain(repositoriesCount);
+    RefactoringAgentCommandExecutor commandExecutor = mock();
+    for (int i = 0; i < repositoriesCount; i++) {
+      when(commandExecutor.executeNextFileCommand("repository" + i))
+          .thenReturn(ContentHashing.hash("fileContent" + i))
+          .thenReturn(SourceFile.EMPTY);
+    }
+    RefactoringAgent agent =
+        new AgentBuilder(agentBrain, commandExecutor)
+            .withObjectMapper(
+                new MockObjectMapper(ImmutableList.of(new AddCommentAction(1, "comment"))))
+            .withRunExecutor(runExecutor)
+            .build();
+
+    for (int i = 0; i < repositoriesCount; i++) {
+      agent.startProcess("repository" + i);
+    }
+    await()
+        .atMost(10, TimeUnit.SECONDS)
+        .untilAsserted(
+            () -> {
+              for (int i = 0; i < repositoriesCount; i++) {
+                verify(commandExecutor).executeFinishCommand("repository" + i);
+              }
+            });
+
+    assertTrue(agentBrain.isGathered());
+    assertEquals(repositoriesCount, agentBrain.getMaxConcurrentPlanCalls());
+  }
+
+  @Test
+  void cachedActionPlanIsExecutedWithoutCallingBrain(@TempDir Path cacheDirectory) {
+    String repositoryId = "repositoryId";
+    String fileContent = "fileContent";
+    String fileHash = Hashing.sha256().hashString(fileContent, UTF_8).toString();
+    ImmutableList<ActionItem> actionItems = ImmutableList.of(new AddCommentAction(1, "comment"));
+
+    ProtocolAgentBrain agentBrain = new ProtocolAgentBrain();
+    ActionPlanCache actionPlanCache =
+        new DiskActionPlanCache(cacheDirectory, 10, new ObjectMapper());
+    String systemPromptHash =
+        Hashing.sha256().hashString(agentBrain.getSystemStartMessage().content(), UTF_8).toString();
+    actionPlanCache.put(
+        new ActionPlanCacheKey(fileHash, systemPromptHash, agentBrain.getModelName()), actionItems);
+
+    RefactoringAgentCommandExecutor commandExecutor = mock();
+    when(commandExecutor.executeNextFileCommand(repositoryId))
+        .thenReturn(ContentHashing.hash(fileContent))
+        .thenReturn(SourceFile.EMPTY);
+    RefactoringAgent agent =
+        new AgentBuilder(agentBrain, commandExecutor).withActionPlanCache(actionPlanCache).build();
+
+    agent.startProcess(repositoryId);
+
+    await()
+        .atMost(5, TimeUnit.SECONDS)
+        .untilAsserted(() -> verify(commandExecutor).executeFinishCommand(repositoryId));
+    verify(commandExecutor)
+        .executeActionPlanCommand(repositoryId, new ActionPlan(fileHash, actionItems));
+    // Only asked for the first file and finished after the empty one
+    assertEquals(2, agentBrain.getCallCount());
+    assertEquals(1, actionPlanCache.getHitCount());
+  }
+
+  @Test
+  void runInterruptedByRestartIsCompleted(@TempDir Path directory) {
+    String repositoryId = "repositoryId";
+    ProtocolAgentBrain agentBrain = new ProtocolAgentBrain();
+    // The server stopped after the brain asked for the first file, before it was fetched
+    MappedMessagesStore stoppedMessagesStore = new MappedMessagesStore(directory, 4096, true);
+    new FileToolsInfoStore(directory).registerToolUrl(repositoryId, "http://localhost:8081");
+    stoppedMessagesStore.storeMessage(repositoryId, agentBrain.getSystemStartMessage());
+    BrainMessage nextFileMessage = new BrainMessage(ASSISTANT, "nextFile");
+    stoppedMessagesStore.storeMessage(repositoryId, nextFileMessage);
+    stoppedMessagesStore.storePendingMessageWithContext(
+        Pair.of(nextFileMessage, new MessageContext(repositoryId, "")));
+
+    ToolsInfoStore toolsInfoStore = new FileToolsInfoStore(directory);
+    RefactoringAgentCommandExecutor commandExecutor = mock();
+    AtomicInteger fetchedFiles = new AtomicInteger();
+    when(commandExecutor.executeNextFileCommand(repositoryId))
+        .thenAnswer(
+            invocation -> {
+              toolsInfoStore
+                  .getToolUrl(repositoryId)
+                  .orElseThrow(() -> new IllegalStateException("Tool url not found"));
+              return fetchedFiles.getAndIncrement() == 0
+                  ? ContentHashing.hash("fileContent")
+                  : SourceFile.EMPTY;
+            });
+    doAnswer(
+            invocation -> {
+              toolsInfoStore.removeToolUrl(repositoryId);
+              return null;
+            })
+        .when(commandExecutor)
+        .executeFinishCommand(repositoryId);
+    new AgentBuilder(agentBrain, commandExecutor)
+        .withMessagesStore(new MappedMessagesStore(directory, 4096, true))
+        .withObjectMapper(
+            new MockObjectMapper(ImmutableList.of(new AddCommentAction(1, "comment"))))
+        .build();
+
+    await()
+        .atMost(5, TimeUnit.SECONDS)
+        .untilAsserted(() -> verify(commandExecutor).executeFinishCommand(repositoryId));
+    verify(commandExecutor)
+        .executeActionPlanCommand(
+            repositoryId,
+            new ActionPlan(
+                ContentHashing.hash("fileContent").hash(),
+                ImmutableList.of(new AddCommentAction(1, "comment"))));
+    assertEquals(Optional.empty(), new FileToolsInfoStore(directory).getToolUrl(repositoryId));
+  }
+
+  @Test
+  void runStagesAreRecordedAsFlightRecorderEvents(@TempDir Path recordingDirectory)
+      throws IOException {
+    String repositoryId = "repositoryId";
+    String fileContent = "fileContent";
+    String fileHash = Hashing.sha256().hashString(fileContent, UTF_8).toString();
+    RefactoringAgentCommandExecutor commandExecutor = mock();
+    when(commandExecutor.executeNextFileCommand(repositoryId))
+        .thenReturn(ContentHashing.hash(fileContent))
+        .thenReturn(SourceFile.EMPTY);
+    RefactoringAgent agent = new AgentBuilder(new ProtocolAgentBrain(), commandExecutor).build();
+
+    Path recordingFile = recordingDirectory.resolve("run.jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable("org.varamadon.autorefactor.*");
+      recording.start();
+      agent.startProcess(repositoryId);
+      await()
+          .atMost(5, TimeUnit.SECONDS)
+          .untilAsserted(() -> verify(commandExecutor).executeFinishCommand(repositoryId));
+      recording.stop();
+      recording.dump(recordingFile);
+    }
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+    Map<String, List<RecordedEvent>> eventsByName =
+        events.stream().collect(Collectors.groupingBy(it -> it.getEventType().getName()));
+    assertEquals(1, eventsByName.get("org.varamadon.autorefactor.RunStarted").size());
+    assertEquals(1, eventsByName.get("org.varamadon.autorefactor.RunFinished").size());
+    assertEquals(4, eventsByName.get("org.varamadon.autorefactor.BrainCall").size());
+    // The system message, the four answers of the brain, the file and the empty file
+    assertEquals(7, eventsByName.get("org.varamadon.autorefactor.MessageAppended").size());
+    RecordedEvent fileFetched = eventsByName.get("org.varamadon.autorefactor.FileFetched").get(0);
+    assertEquals(repositoryId, fileFetched.getString("repositoryId"));
+    assertEquals(fileHash, fileFetched.getString("fileHash"));
+    assertEquals(fileContent.length(), fileFetched.getLong("fileBytes"));
+    RecordedEvent planDeserialized =
+        eventsByName.get("org.varamadon.autorefactor.PlanDeserialized").get(0);
+    assertEquals(fileHash, planDeserialized.getString("fileHash"));
+    // The brain answers with "plan", which is not a valid action plan
+    assertFalse(planDeserialized.getBoolean("succeeded"));
+    RecordedEvent planApplied = eventsByName.get("org.varamadon.autorefactor.PlanApplied").get(0);
+    assertEquals(fileHash, planApplied.getString("fileHash"));
+    assertTrue(planApplied.getBoolean("succeeded"));
+  }
+
+  @Test
+  void smallFilesAreSentInBatches() {
+    String repositoryId = "repositoryId";
+    ImmutableList<String> fileContents =
+        ImmutableList.of("class A {}", "class B {}", "class Large {}\n".repeat(100), "class C {}");
+    RefactoringAgentCommandExecutor commandExecutor = mock();
+    List<SourceFile> files = fileContents.stream().map(ContentHashing::hash).toList();
+    when(commandExecutor.executeNextFileCommand(repositoryId))
+        .thenReturn(files.get(0), files.get(1), files.get(2), files.get(3), SourceFile.EMPTY);
+    MultiFileAgentBrain agentBrain = new MultiFileAgentBrain();
+    RefactoringAgent agent =
+        new AgentBuilder(agentBrain, commandExecutor)
+            .withFileBatchPolicy(new FileBatchPolicy(true, 60, 4000, 10))
+            .build();
+
+    agent.startProcess(repositoryId);
+
+    await()
+        .atMost(5, TimeUnit.SECONDS)
+        .untilAsserted(() -> verify(commandExecutor).executeFinishCommand(repositoryId));
+    // The large file is sent alone, the file after it starts a new batch
+    assertEquals(List.of(2, 1, 1), agentBrain.getBatchSizes());
+    for (String fileContent : fileContents) {
+      String fileHash = Hashing.sha256().hashString(fileContent, UTF_8).toString();
+      verify(commandExecutor)
+          .executeActionPlanCommand(
+              repositoryId,
+              new ActionPlan(fileHash, ImmutableList.of(new AddCommentAction(1, "comment"))));
+    }
+  }
+
+  @Test
+  void identicalFilesInBatchAreValidatedSeparately() {
+    String repositoryId = "repositoryId";
+    SourceFile file = ContentHashing.hash("class A {}");
+    RefactoringAgentCommandExecutor commandExecutor = mock();
+    when(commandExecutor.executeNextFileCommand(repositoryId))
+        .thenReturn(file, file, SourceFile.EMPTY);
+    FileContentStore fileContentStore = new FileContentStore();
+    RefactoringAgent agent =
+        new AgentBuilder(new MultiFileAgentBrain(5), commandExecutor)
+            .withFileBatchPolicy(new FileBatchPolicy(true, 60, 4000, 10))
+            .withActionPlanValidator(new ActionPlanValidator(true))
+            .withFileContentStore(fileContentStore)
+            .build();
+
+    agent.startProcess(repositoryId);
+
+    await()
+        .atMost(5, TimeUnit.SECONDS)
+        .untilAsserted(() -> verify(commandExecutor).executeFinishCommand(repositoryId));
+    // Both comments are out of range of their file, including the one of the second copy
+    verify(commandExecutor, never()).executeActionPlanCommand(eq(repositoryId), any());
+    assertEquals(0, fileContentStore.getFileCount());
+  }
+
+  @Test
+  void filesArePlannedInParallel() {
+    String repositoryId = "repositoryId";
+    int filesCount = 12;
+    int parallelism = 4;
+
+    RefactoringAgentCommandExecutor commandExecutor = mock();
+    AtomicInteger fetchedFiles = new AtomicInteger();
+    when(commandExecutor.executeNextFileCommand(repositoryId))
+        .thenAnswer(
+            invocation -> {
+              int fileNumber = fetchedFiles.incrementAndGet();
+              return fileNumber <= filesCount
+                  ? ContentHashing.hash("fileContent" + fileNumber)
+                  : SourceFile.EMPTY;
+            });
+    // Serial planning would never plan two files at the same time
+    GatheringAgentBrain agentBrain = new GatheringAgentBrain(parallelism);
+    RefactoringAgent agent =
+        new AgentBuilder(agentBrain, commandExecutor)
+            .withObjectMapper(
+                new MockObjectMapper(ImmutableList.of(new AddCommentAction(1, "comment"))))
+            .withRunSettings(new RunSettings(RunMode.PARALLEL, parallelism, false))
+            .build();
+
+    agent.startProcess(repositoryId);
+    await()
+        .atMost(10, TimeUnit.SECONDS)
+        .untilAsserted(() -> verify(commandExecutor).executeFinishCommand(repositoryId));
+
+    InOrder inOrder = inOrder(commandExecutor);
+    inOrder
+        .verify(commandExecutor, times(filesCount))
+        .executeActionPlanCommand(eq(repositoryId), any());
+    inOrder.verify(commandExecutor).executeFinishCommand(repositoryId);
+    assertEquals(filesCount, agentBrain.getCallCount());
+    assertTrue(agentBrain.isGathered());
+    assertEquals(parallelism, agentBrain.getMaxConcurrentPlanCalls());
+  }
+
+  @Test
+  void clientWorkOverlapsBrainCallsInPipelinedMode() {
+    String repositoryId = "repositoryId";
+    int filesCount = 5;
+
+    // Every fetch, and every call of the brain other than for a plan, counts down its own latch
+    List<CountDownLatch> fetchesStarted = createLatches(filesCount + 1);
+    List<CountDownLatch> commandCallsStarted = createLatches(filesCount + 2);
+    AtomicInteger overlappedFetches = new AtomicInteger();
+    AtomicInteger overlappedApplications = new AtomicInteger();
+    ProtocolAgentBrain agentBrain =
+        new ProtocolAgentBrain() {
+          private final AtomicInteger planCalls = new AtomicInteger();
+          private final AtomicInteger commandCalls = new AtomicInteger();
+
+          @Override
+          public BrainMessage getNextAnswer(List<BrainMessage> messages) {
+            if (!isPlanCall(messages)) {
+              commandCallsStarted.get(commandCalls.getAndIncrement()).countDown();
+            } else if (awaitLatch(fetchesStarted.get(planCalls.incrementAndGet()))) {
+              // The file after this one is fetched while its plan is generated
+              overlappedFetches.incrementAndGet();
+            }
+            return super.getNextAnswer(messages);
+          }
+        };
+
+    RefactoringAgentCommandExecutor commandExecutor = mock();
+    AtomicInteger fetchedFiles = new AtomicInteger();
+    when(commandExecutor.executeNextFileCommand(repositoryId))
+        .thenAnswer(
+            invocation -> {
+              int fileNumber = fetchedFiles.incrementAndGet();
+              fetchesStarted.get(fileNumber - 1).countDown();
+              return fileNumber <= filesCount
+                  ? ContentHashing.hash("fileContent" + fileNumber)
+                  : SourceFile.EMPTY;
+            });
+    List<String> appliedFileHashes = Collections.synchronizedList(new ArrayList<>());
+    doAnswer(
+            invocation -> {
+              // The plan is applied while the brain is asked for its next command
+              if (awaitLatch(commandCallsStarted.get(appliedFileHashes.size() + 1))) {
+                overlappedApplications.incrementAndGet();
+              }
+              appliedFileHashes.add(invocation.<ActionPlan>getArgument(1).fileHash());
+              return null;
+            })
+        .when(commandExecutor)
+        .executeActionPlanCommand(eq(repositoryId), any());
+    RefactoringAgent agent =
+        new AgentBuilder(agentBrain, commandExecutor)
+            .withObjectMapper(
+                new MockObjectMapper(ImmutableList.of(new AddCommentAction(1, "comment"))))
+            .withRunSettings(new RunSettings(RunMode.PIPELINED, 4, false))
+            .build();
+
+    agent.startProcess(repositoryId);
+    await()
+        .atMost(10, TimeUnit.SECONDS)
+        .untilAsserted(() -> verify(commandExecutor).executeFinishCommand(repositoryId));
+
+    List<String> expectedFileHashes = new ArrayList<>();
+    for (int i = 1; i <= filesCount; i++) {
+      expectedFileHashes.add(Hashing.sha256().hashString("fileContent" + i, UTF_8).toString());
+    }
+    assertEquals(expectedFileHashes, appliedFileHashes);
+    InOrder inOrder = inOrder(commandExecutor);
+    inOrder
+        .verify(commandExecutor, times(filesCount))
+        .executeActionPlanCommand(eq(repositoryId), any());
+    inOrder.verify(commandExecutor).executeFinishCommand(repositoryId);
+    assertEquals(filesCount, overlappedFetches.get());
+    assertEquals(filesCount, overlappedApplications.get());
+  }
+
+  @Test
+  void actionItemsAreAppliedWhileThePlanIsStreamed() {
+    String repositoryId = "repositoryId";
+    String fileContent = "fileContent";
+    String fileHash = Hashing.sha256().hashString(fileContent, UTF_8).toString();
+
+    List<Integer> appliedItemsBeforeChunks = List.of(0, 1, 1, 2);
+    StreamingAgentBrain agentBrain =
+        new StreamingAgentBrain(
+            List.of(
+                "[{\"type\": \"addComment\", \"line\": 1, \"content\": \"{\"}",
+                ", {\"type\": \"renameVariable\", \"line\": 2, ",
+                "\"oldName\": \"a\", \"newName\": \"b\"}",
+                "]"),
+            appliedItemsBeforeChunks);
+    RefactoringAgentCommandExecutor commandExecutor = mock();
+    when(commandExecutor.executeNextFileCommand(repositoryId))
+        .thenReturn(ContentHashing.hash(fileContent), SourceFile.EMPTY);
+    doAnswer(
+            invocation -> {
+              agentBrain.onItemsApplied(invocation.<ActionPlan>getArgument(1).actionItems());
+              return null;
+            })
+        .when(commandExecutor)
+        .executeActionPlanCommand(eq(repositoryId), any());
+    RefactoringAgent agent =
+        new AgentBuilder(agentBrain, commandExecutor)
+            .withRunSettings(new RunSettings(RunMode.SERIAL, 4, true))
+            .build();
+
+    agent.startProcess(repositoryId);
+    await()
+        .atMost(5, TimeUnit.SECONDS)
+        .untilAsserted(() -> verify(commandExecutor).executeFinishCommand(repositoryId));
+
+    assertEquals(appliedItemsBeforeChunks, agentBrain.getAppliedItemsBeforeChunks());
+    assertEquals(
+        List.of(new AddCommentAction(1, "{"), new RenameVariableAction(2, "a", "b")),
+        agentBrain.getAppliedItems());
+    verify(commandExecutor, times(2))
+        .executeActionPlanCommand(eq(repositoryId), argThat(it -> it.fileHash().equals(fileHash)));
+  }
+
+  @Test
+  void invalidActionItemsArePrunedWhileThePlanIsStreamed() {
+    String repositoryId = "repositoryId";
+    String fileContent = "int a = 1;\nint c = a;\n";
+
+    List<Integer> appliedItemsBeforeChunks = List.of(0, 1, 1, 1, 1, 2);
+    StreamingAgentBrain agentBrain =
+        new StreamingAgentBrain(
+            List.of(
+                "[{\"type\": \"addComment\", \"line\": 1, \"content\": \"one\"}",
+                ", {\"type\": \"renameVariable\", \"line\": 9, ",
+                "\"oldName\": \"a\", \"newName\": \"b\"}",
+                ", {\"type\": \"renameVariable\", \"line\": 2, ",
+                "\"oldName\": \"a\", \"newName\": \"b\"}",
+                ", {\"type\": \"addComment\", \"line\": 1, \"content\": \"one\"}]"),
+            appliedItemsBeforeChunks);
+    RefactoringAgentCommandExecutor commandExecutor = mock();
+    when(commandExecutor.executeNextFileCommand(repositoryId))
+        .thenReturn(ContentHashing.hash(fileContent), SourceFile.EMPTY);
+    doAnswer(
+            invocation -> {
+              agentBrain.onItemsApplied(invocation.<ActionPlan>getArgument(1).actionItems());
+              return null;
+            })
+        .when(commandExecutor)
+        .executeActionPlanCommand(eq(repositoryId), any());
+    ActionPlanValidator actionPlanValidator = new ActionPlanValidator(true);
+    RefactoringAgent agent =
+        new AgentBuilder(agentBrain, commandExecutor)
+            .withRunSettings(new RunSettings(RunMode.SERIAL, 4, true))
+            .withActionPlanValidator(actionPlanValidator)
+            .build();
+
+    agent.startProcess(repositoryId);
+    await()
+        .atMost(5, TimeUnit.SECONDS)
+        .untilAsserted(() -> verify(commandExecutor).executeFinishCommand(repositoryId));
+
+    assertEquals(appliedItemsBeforeChunks, agentBrain.getAppliedItemsBeforeChunks());
+    assertEquals(
+        List.of(new AddCommentAction(1, "one"), new RenameVariableAction(2, "a", "b")),
+        agentBrain.getAppliedItems());
+    assertEquals(1, actionPlanValidator.getPrunedCount(PruneReason.LINE_OUT_OF_RANGE));
+    assertEquals(1, actionPlanValidator.getPrunedCount(PruneReason.DUPLICATE));
+  }
+
+  private static List<CountDownLatch> createLatches(int count) {
+    return Stream.generate(() -> new CountDownLatch(1)).limit(count).toList();
+  }
+
+  /** Waits for the latch and returns whether it was counted down before the timeout. */
+  private static boolean awaitLatch(CountDownLatch latch) {
+    return Uninterruptibles.awaitUninterruptibly(latch, WAIT_TIMEOUT);
+  }
+
+  /**
+   * Builds the agent under test. Unless a test sets them, the agent runs in serial mode on a single
+   * thread, with an in-memory messages store and without caching or validating plans.
+   */
+  static class AgentBuilder {
+    private final AgentBrain agentBrain;
+    private final RefactoringAgentCommandExecutor commandExecutor;
+    private RefactoringAgentMessagesStore messagesStore = new InMemoryMessagesStore();
+    private ObjectMapper objectMapper = new ObjectMapper();
+    private RunExecutor runExecutor;
+    private ConversationWindow conversationWindow = new ConversationWindow(1, true);
+    private ActionPlanCache actionPlanCache = new NoOpActionPlanCache();
+    private FileBatchPolicy fileBatchPolicy = new FileBatchPolicy(false, 60, 4000, 10);
+    private RunSettings runSettings = new RunSettings(RunMode.SERIAL, 4, false);
+    private AgentMetrics metrics =
+        new AgentMetrics(new SimpleMeterRegistry(), true, new TokenCounter("gpt-4o"));
+    private ActionPlanValidator actionPlanValidator = new ActionPlanValidator(false);
+    private FileContentStore fileContentStore = new FileContentStore();
+
+    AgentBuilder(AgentBrain agentBrain, RefactoringAgentCommandExecutor commandExecutor) {
+      this.agentBrain = agentBrain;
+      this.commandExecutor = commandExecutor;
+    }
+
+    AgentBuilder withMessagesStore(RefactoringAgentMessagesStore messagesStore) {
+      this.messagesStore = messagesStore;
+      return this;
+    }
+
+    AgentBuilder withObjectMapper(ObjectMapper objectMapper) {
+      this.objectMapper = objectMapper;
+      return this;
+    }
+
+    AgentBuilder withRunExecutor(RunExecutor runExecutor) {
+      this.runExecutor = runExecutor;
+      return this;
+    }
+
+    AgentBuilder withConversationWindow(ConversationWindow conversationWindow) {
+      this.conversationWindow = conversationWindow;
+      return this;
+    }
+
+    AgentBuilder withActionPlanCache(ActionPlanCache actionPlanCache) {
+      this.actionPlanCache = actionPlanCache;
+      return this;
+    }
+
+    AgentBuilder withFileBatchPolicy(FileBatchPolicy fileBatchPolicy) {
+      this.fileBatchPolicy = fileBatchPolicy;
+      return this;
+    }
+
+    AgentBuilder withRunSettings(RunSettings runSettings) {
+      this.runSettings = runSettings;
+      return this;
+    }
+
+    AgentBuilder withMetrics(AgentMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+    }
+
+    AgentBuilder withActionPlanValidator(ActionPlanValidator actionPlanValidator) {
+      this.actionPlanValidator = actionPlanValidator;
+      return this;
+    }
+
+    AgentBuilder withFileContentStore(FileContentStore fileContentStore) {
+      this.fileContentStore = fileContentStore;
+      return this;
+    }
+
+    RefactoringAgent build() {
+      return new RefactoringAgent(
+          agentBrain,
+          commandExecutor,
+          messagesStore,
+          objectMapper,
+          runExecutor != null ? runExecutor : new PooledRunExecutor(1, 8),
+          conversationWindow,
+          actionPlanCache,
+          fileBatchPolicy,
+          runSettings,
+          metrics,
+          actionPlanValidator,
+          fileContentStore);
+    }
+  }
+
+  /** Brain that follows the refactoring protocol and answers every file with the "plan" answer. */
+  static class ProtocolAgentBrain implements AgentBrain {
+    private final AtomicInteger callCount = new AtomicInteger();
+
+    @Override
+    public BrainMessage getNextAnswer(List<BrainMessage> messages) {
+      callCount.incrementAndGet();
+      BrainMessage lastMessage = messages.get(messages.size() - 1);
+      if (lastMessage.messageType() != USER) {
+        return new BrainMessage(ASSISTANT, "nextFile");
+      }
+      if (Objects.equals(lastMessage.content(), "")) {
+        return new BrainMessage(ASSISTANT, "finish");
+      }
+      return new BrainMessage(ASSISTANT, "plan");
+    }
+
+    @Override
+    public BrainMessage getSystemStartMessage() {
+      return new BrainMessage(SYSTEM, "start");
+    }
+
+    @Override
+    public BrainMessage getMultiFileSystemStartMessage() {
+      return new BrainMessage(SYSTEM, "start multi-file");
+    }
+
+    @Override
+    public String getModelName() {
+      return "model";
+    }
+
+    int getCallCount() {
+      return callCount.get();
+    }
+
+    /** Returns whether the brain is asked for the plan of a file rather than for a command. */
+    static boolean isPlanCall(List<BrainMessage> messages) {
+      BrainMessage lastMessage = messages.get(messages.size() - 1);
+      return lastMessage.messageType() == USER && !lastMessage.content().isEmpty();
+    }
+  }
+
+  /**
+   * Brain whose calls for plans wait until the given number of them run at the same time, so
+   * planning that is not concurrent is detected without measuring how long it takes.
+   */
+  static class GatheringAgentBrain extends ProtocolAgentBrain {
+    private final CountDownLatch gathered;
+    private final AtomicInteger concurrentPlanCalls = new AtomicInteger();
+    private final AtomicInteger maxConcurrentPlanCalls = new AtomicInteger();
+
+    GatheringAgentBrain(int planCalls) {
+      this.gathered = new CountDownLatch(planCalls);
+    }
+
+    @Override
+    public BrainMessage getNextAnswer(List<BrainMessage> messages) {
+      if (!isPlanCall(messages)) {
+        return super.getNextAnswer(messages);
+      }
+      maxConcurrentPlanCalls.accumulateAndGet(concurrentPlanCalls.incrementAndGet(), Math::max);
+      try {
+        gathered.countDown();
+        awaitLatch(gathered);
+        return super.getNextAnswer(messages);
+      } finally {
+        concurrentPlanCalls.decrementAndGet();
+      }
+    }
+
+    boolean isGathered() {
+      return gathered.getCount() == 0;
+    }
+
+    int getMaxConcurrentPlanCalls() {
+      return maxConcurrentPlanCalls.get();
+    }
+  }
+
+  /**
+   * Brain that streams every action plan in the given chunks and remembers how many action items
+   * were already applied before every chunk was generated. Before every chunk it gives the agent up
+   * to the wait timeout to apply the expected number of items.
+   */
+  static class StreamingAgentBrain extends ProtocolAgentBrain {
+    private final List<String> planChunks;
+    private final List<Integer> expectedAppliedItems;
+    private final List<Integer> appliedItemsBeforeChunks = new ArrayList<>();
+    private final List<ActionItem> appliedItems = Collections.synchronizedList(new ArrayList<>());
+
+    /** Has a permit for every applied item that the brain has not waited for yet. */
+    private final Semaphore appliedItemPermits = new Semaphore(0);
+
+    StreamingAgentBrain(List<String> planChunks, List<Integer> expectedAppliedItems) {
+      this.planChunks = planChunks;
+      this.expectedAppliedItems = expectedAppliedItems;
+    }
+
+    @Override
+    public BrainMessage streamNextAnswer(
+        List<BrainMessage> messages, AnswerStreamListener listener) {
+      BrainMessage answer = getNextAnswer(messages);
+      if (!Objects.equals(answer.content(), "plan")) {
+        listener.onChunk(answer.content());
+        return answer;
+      }
+      int awaitedItems = 0;
+      for (int i = 0; i < planChunks.size(); i++) {
+        int missingItems = expectedAppliedItems.get(i) - awaitedItems;
+        if (missingItems > 0
+            && Uninterruptibles.tryAcquireUninterruptibly(
+                appliedItemPermits, missingItems, WAIT_TIMEOUT)) {
+          awaitedItems += missingItems;
+        }
+        appliedItemsBeforeChunks.add(appliedItems.size());
+        listener.onChunk(planChunks.get(i));
+      }
+      return new BrainMessage(ASSISTANT, String.join("", planChunks));
+    }
+
+    void onItemsApplied(List<ActionItem> items) {
+      appliedItems.addAll(items);
+      appliedItemPermits.release(items.size());
+    }
+
+    List<Integer> getAppliedItemsBeforeChunks() {
+      return appliedItemsBeforeChunks;
+    }
+
+    List<ActionItem> getAppliedItems() {
+      return appliedItems;
+    }
+  }
+
+  /** Brain that answers multi-file prompts with a comment for the given line of every file. */
+  static class MultiFileAgentBrain extends ProtocolAgentBrain {
+    private final int commentedLine;
+    private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+    MultiFileAgentBrain() {
+      this(1);
+    }
+
+    MultiFileAgentBrain(int commentedLine) {
+      this.commentedLine = commentedLine;
+    }
+
+    @Override
+    public BrainMessage getNextAnswer(List<BrainMessage> messages) {
+      BrainMessage answer = super.getNextAnswer(messages);
+      if (!Objects.equals(answer.content(), "plan")) {
+        return answer;
+      }
+      List<String> filePlans = new ArrayList<>();
+      messages.get(messages.size() - 1).content()
+          .lines()
+          .filter(line -> line.matches("File \\d+:"))
+          .forEach(
+              line ->
+                  filePlans.add(
+                      "\"%d\": [{\"type\": \"addComment\", \"line\": %d, \"content\": \"comment\"}]"
+                          .formatted(filePlans.size() + 1, commentedLine)));
+      batchSizes.add(filePlans.size());
+      return new BrainMessage(ASSISTANT, "{" + String.join(",", filePlans) + "}");
+    }
+
+    List<Integer> getBatchSizes() {
+      return batchSizes;
+    }
   }
 
   static class MockObjectMapper extends ObjectMapper {
@@ -0,0 +1,15 @@
+package org.varamadon.autorefactor.server.agent.brain;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.knuddels.jtokkit.api.EncodingType;
+import org.junit.jupiter.api.Test;
+
+class TokenCounterTest {
+  @Test
+  void tokensAreCountedWithEncodingOfModel() {
+    assertEquals(EncodingType.O200K_BASE, TokenCounter.getEncodingType("gpt-4o"));
+    assertEquals(EncodingType.O200K_BASE, TokenCounter.getEncodingType("gpt-4o-mini"));
+    assertEquals(EncodingType.CL100K_BASE, TokenCounter.getEncodingType("gpt-4"));
+  }
+}
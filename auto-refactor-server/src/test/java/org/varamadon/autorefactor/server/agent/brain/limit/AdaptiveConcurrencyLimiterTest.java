@@ -0,0 +1,178 @@
+package org.varamadon.autorefactor.server.agent.brain.limit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.USER;
+
+import com.google.common.base.Ticker;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.varamadon.autorefactor.server.agent.brain.AgentBrain;
+import org.varamadon.autorefactor.server.agent.brain.BrainCallException;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+
+class AdaptiveConcurrencyLimiterTest {
+  private static final Duration BASE_LATENCY = Duration.ofSeconds(2);
+
+  private final FakeTicker ticker = new FakeTicker();
+
+  @Test
+  void limitGrowsWhileLatencyIsFlat() {
+    AdaptiveConcurrencyLimiter limiter = createLimiter();
+
+    simulate(limiter, (inFlight, round) -> BASE_LATENCY, inFlight -> false, 100);
+
+    assertEquals(64, limiter.getLimit());
+  }
+
+  @Test
+  void limitFollowsLatencyInflation() {
+    AdaptiveConcurrencyLimiter limiter = createLimiter();
+    // The provider answers 16 calls at a time, further calls inflate the latency
+    LatencyCurve curve =
+        (inFlight, round) ->
+            inFlight <= 16 ? BASE_LATENCY : BASE_LATENCY.multipliedBy(inFlight).dividedBy(8);
+
+    List<Integer> limits = simulate(limiter, curve, inFlight -> false, 300);
+
+    assertTrue(limits.subList(100, 300).stream().allMatch(limit -> limit >= 12 && limit <= 24));
+  }
+
+  @Test
+  void limitIsCutOnOverload() {
+    AdaptiveConcurrencyLimiter limiter = createLimiter();
+
+    List<Integer> limits =
+        simulate(limiter, (inFlight, round) -> BASE_LATENCY, inFlight -> inFlight > 10, 100);
+
+    assertTrue(limits.subList(20, 100).stream().allMatch(limit -> limit >= 7 && limit <= 11));
+  }
+
+  @Test
+  void limitIsKeptWhenLatencyDriftsSlowly() {
+    AdaptiveConcurrencyLimiter limiter = createLimiter();
+    // The latency of the provider grows from 2 to 40 seconds during the day
+    LatencyCurve curve = (inFlight, round) -> BASE_LATENCY.plus(Duration.ofMillis(38L * round));
+
+    simulate(limiter, curve, inFlight -> false, 1000);
+
+    assertEquals(64, limiter.getLimit());
+  }
+
+  @Test
+  void queueWaitIsTrackedSeparately() throws Exception {
+    AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(true, 1, 1, 64, 2.0, 0.75, ticker);
+    AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire();
+    Thread queuedCall = new Thread(() -> limiter.acquire().onSuccess());
+    queuedCall.start();
+    while (queuedCall.getState() != Thread.State.WAITING) {
+      Thread.onSpinWait();
+    }
+
+    ticker.advance(Duration.ofSeconds(5));
+    permit.onSuccess();
+    queuedCall.join();
+
+    assertEquals(1, limiter.getQueuedCount());
+    assertEquals(5_000, limiter.getQueueWaitMillis());
+    assertEquals(2, limiter.getCallCount());
+    assertEquals(5_000, limiter.getCallLatencyMillis());
+  }
+
+  @Test
+  void overloadedBrainCutsLimit() {
+    AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(true, 8, 1, 64, 2.0, 0.75, ticker);
+    ConcurrencyLimitedAgentBrain agentBrain =
+        new ConcurrencyLimitedAgentBrain(new OverloadedAgentBrain(), limiter);
+
+    assertThrows(
+        BrainCallException.class,
+        () -> agentBrain.getNextAnswer(List.of(new BrainMessage(USER, "class A {}"))));
+
+    assertEquals(6, limiter.getLimit());
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  private AdaptiveConcurrencyLimiter createLimiter() {
+    return new AdaptiveConcurrencyLimiter(true, 4, 1, 64, 2.0, 0.75, ticker);
+  }
+
+  /**
+   * Keeps as many calls in flight as the limiter allows, round after round, and returns the limit
+   * after every round.
+   */
+  private List<Integer> simulate(
+      AdaptiveConcurrencyLimiter limiter,
+      LatencyCurve curve,
+      OverloadCurve overloadCurve,
+      int rounds) {
+    List<Integer> limits = new ArrayList<>();
+    for (int round = 0; round < rounds; round++) {
+      List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+      for (int i = limiter.getLimit(); i > 0; i--) {
+        permits.add(limiter.acquire());
+      }
+      ticker.advance(curve.latency(permits.size(), round));
+      boolean overloaded = overloadCurve.isOverloaded(permits.size());
+      for (AdaptiveConcurrencyLimiter.Permit permit : permits) {
+        if (overloaded) {
+          permit.onOverload();
+        } else {
+          permit.onSuccess();
+        }
+      }
+      limits.add(limiter.getLimit());
+    }
+    return limits;
+  }
+
+  /** Latency of the simulated provider by the number of calls in flight and the round. */
+  private interface LatencyCurve {
+    Duration latency(int inFlight, int round);
+  }
+
+  /** Whether the simulated provider rejects calls by the number of calls in flight. */
+  private interface OverloadCurve {
+    boolean isOverloaded(int inFlight);
+  }
+
+  private static class OverloadedAgentBrain implements AgentBrain {
+    @Override
+    public BrainMessage getNextAnswer(List<BrainMessage> messages) {
+      throw new BrainCallException("429 - Rate limit reached", null, true, true);
+    }
+
+    @Override
+    public BrainMessage getSystemStartMessage() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public BrainMessage getMultiFileSystemStartMessage() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getModelName() {
+      return "overloaded";
+    }
+  }
+
+  private static class FakeTicker extends Ticker {
+    private volatile long nanos;
+
+    void advance(Duration duration) {
+      nanos += duration.toNanos();
+    }
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+  }
+}
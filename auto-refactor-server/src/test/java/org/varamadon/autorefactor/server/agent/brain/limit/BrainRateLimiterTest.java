@@ -0,0 +1,103 @@
+package org.varamadon.autorefactor.server.agent.brain.limit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.ASSISTANT;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.USER;
+
+import com.google.common.base.Ticker;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+
+class BrainRateLimiterTest {
+  private static final int ANSWER_TOKENS = 96;
+
+  private final FakeTicker ticker = new FakeTicker();
+  private final List<Long> sleeps = new ArrayList<>();
+
+  /** Costs 400 + 4 prompt tokens and 96 reserved answer tokens. */
+  private final List<BrainMessage> prompt = List.of(new BrainMessage(USER, "x".repeat(400)));
+
+  @Test
+  void callsWaitForTokensBudget() {
+    BrainRateLimiter rateLimiter = createRateLimiter(1000, 100);
+
+    rateLimiter.acquire(prompt);
+    rateLimiter.acquire(prompt);
+    rateLimiter.acquire(prompt);
+
+    // The second call takes the rest of the budget, the third one is 500 tokens over it
+    assertEquals(List.of(TimeUnit.SECONDS.toNanos(30)), sleeps);
+    assertEquals(1, rateLimiter.getWaitCount());
+    assertEquals(30_000, rateLimiter.getWaitTimeMillis());
+    assertEquals(1.0, rateLimiter.getTokensUtilization(), 1e-9);
+  }
+
+  @Test
+  void callsWaitForRequestsBudget() {
+    BrainRateLimiter rateLimiter = createRateLimiter(100_000, 2);
+
+    rateLimiter.acquire(prompt);
+    rateLimiter.acquire(prompt);
+    rateLimiter.acquire(prompt);
+
+    assertEquals(List.of(TimeUnit.SECONDS.toNanos(30)), sleeps);
+  }
+
+  @Test
+  void unusedAnswerTokensAreReturned() {
+    BrainRateLimiter rateLimiter = createRateLimiter(1000, 100);
+
+    long reservedTokens = rateLimiter.acquire(prompt);
+    rateLimiter.complete(reservedTokens, new BrainMessage(ASSISTANT, "x".repeat(46)));
+
+    assertEquals(ANSWER_TOKENS, reservedTokens);
+    assertEquals(0.45, rateLimiter.getTokensUtilization(), 1e-9);
+  }
+
+  @Test
+  void answerOverItsReservationIsChargedAsDebt() {
+    BrainRateLimiter rateLimiter = createRateLimiter(1000, 100);
+
+    long reservedTokens = rateLimiter.acquire(prompt);
+    rateLimiter.complete(reservedTokens, new BrainMessage(ASSISTANT, "x".repeat(696)));
+    rateLimiter.acquire(prompt);
+
+    // The first call used 1100 tokens, the second one waits for its 500 and the 100 of debt
+    assertEquals(List.of(TimeUnit.SECONDS.toNanos(36)), sleeps);
+  }
+
+  @Test
+  void failedCallReturnsOnlyItsAnswerTokens() {
+    BrainRateLimiter rateLimiter = createRateLimiter(1000, 100);
+
+    rateLimiter.release(rateLimiter.acquire(prompt));
+
+    assertEquals(0.404, rateLimiter.getTokensUtilization(), 1e-9);
+  }
+
+  private BrainRateLimiter createRateLimiter(long tokensPerMinute, long requestsPerMinute) {
+    return new BrainRateLimiter(
+        true,
+        tokensPerMinute,
+        requestsPerMinute,
+        ANSWER_TOKENS,
+        String::length,
+        ticker,
+        nanos -> {
+          sleeps.add(nanos);
+          ticker.nanos += nanos;
+        });
+  }
+
+  private static class FakeTicker extends Ticker {
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+  }
+}
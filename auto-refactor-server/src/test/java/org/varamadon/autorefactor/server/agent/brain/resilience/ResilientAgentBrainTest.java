@@ -0,0 +1,202 @@
+package org.varamadon.autorefactor.server.agent.brain.resilience;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.ASSISTANT;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.USER;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import org.junit.jupiter.api.Test;
+import org.varamadon.autorefactor.server.agent.brain.AgentBrain;
+import org.varamadon.autorefactor.server.agent.brain.AnswerStreamListener;
+import org.varamadon.autorefactor.server.agent.brain.BrainCallException;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+import org.varamadon.autorefactor.server.agent.brain.TokenCounter;
+import org.varamadon.autorefactor.server.agent.brain.limit.AdaptiveConcurrencyLimiter;
+import org.varamadon.autorefactor.server.agent.brain.limit.BrainRateLimiter;
+import org.varamadon.autorefactor.server.agent.brain.limit.ConcurrencyLimitedAgentBrain;
+import org.varamadon.autorefactor.server.agent.brain.limit.RateLimitedAgentBrain;
+
+class ResilientAgentBrainTest {
+  private static final List<BrainMessage> PROMPT = List.of(new BrainMessage(USER, "class A {}"));
+  private static final BrainMessage ANSWER = new BrainMessage(ASSISTANT, "nextFile");
+
+  private final List<Long> sleeps = new ArrayList<>();
+
+  @Test
+  void transientFailuresAreRetriedWithBackoff() {
+    ScriptedAgentBrain scriptedBrain =
+        new ScriptedAgentBrain(call -> call < 2 ? failure(true) : ANSWER);
+    ResilientCallExecutor callExecutor = createCallExecutor(false);
+    AgentBrain agentBrain = new ResilientAgentBrain(scriptedBrain, callExecutor);
+
+    assertEquals(ANSWER, agentBrain.getNextAnswer(PROMPT));
+
+    // The random part of the backoff is always the maximum in the test
+    assertEquals(List.of(TimeUnit.SECONDS.toNanos(1), TimeUnit.SECONDS.toNanos(2)), sleeps);
+    assertEquals(2.0, callExecutor.getRetryRate());
+  }
+
+  @Test
+  void permanentFailuresAreNotRetried() {
+    ScriptedAgentBrain scriptedBrain = new ScriptedAgentBrain(call -> failure(false));
+    AgentBrain agentBrain = new ResilientAgentBrain(scriptedBrain, createCallExecutor(false));
+
+    assertThrows(BrainCallException.class, () -> agentBrain.getNextAnswer(PROMPT));
+
+    assertEquals(1, scriptedBrain.calls.get());
+  }
+
+  @Test
+  void retriesAreLimited() {
+    ScriptedAgentBrain scriptedBrain = new ScriptedAgentBrain(call -> failure(true));
+    AgentBrain agentBrain = new ResilientAgentBrain(scriptedBrain, createCallExecutor(false));
+
+    assertThrows(BrainCallException.class, () -> agentBrain.getNextAnswer(PROMPT));
+
+    assertEquals(3, scriptedBrain.calls.get());
+  }
+
+  @Test
+  void streamedAnswerIsNotRetriedAfterFirstChunk() {
+    ScriptedAgentBrain scriptedBrain = new ScriptedAgentBrain(call -> failure(true));
+    AgentBrain agentBrain = new ResilientAgentBrain(scriptedBrain, createCallExecutor(false));
+    List<String> chunks = new ArrayList<>();
+
+    assertThrows(BrainCallException.class, () -> agentBrain.streamNextAnswer(PROMPT, chunks::add));
+
+    assertEquals(1, scriptedBrain.calls.get());
+    assertEquals(List.of("["), chunks);
+  }
+
+  @Test
+  void stragglerIsHedged() throws InterruptedException {
+    CountDownLatch stragglerCancelled = new CountDownLatch(1);
+    int warmUpCalls = 20;
+    ScriptedAgentBrain scriptedBrain =
+        new ScriptedAgentBrain(
+            call -> {
+              if (call == warmUpCalls) {
+                try {
+                  Thread.sleep(Duration.ofMinutes(1).toMillis());
+                } catch (InterruptedException e) {
+                  stragglerCancelled.countDown();
+                }
+              }
+              return ANSWER;
+            });
+    ResilientCallExecutor callExecutor = createCallExecutor(true);
+    AgentBrain agentBrain = new ResilientAgentBrain(scriptedBrain, callExecutor);
+    for (int i = 0; i < warmUpCalls; i++) {
+      agentBrain.getNextAnswer(PROMPT);
+    }
+
+    assertEquals(ANSWER, agentBrain.getNextAnswer(PROMPT));
+
+    assertTrue(stragglerCancelled.await(10, TimeUnit.SECONDS));
+    assertEquals(warmUpCalls + 2, scriptedBrain.calls.get());
+    assertEquals(1.0 / (warmUpCalls + 1), callExecutor.getHedgeRate(), 1e-9);
+    assertEquals(1.0 / (warmUpCalls + 1), callExecutor.getHedgeWinRate(), 1e-9);
+  }
+
+  @Test
+  void abandonedStragglerReleasesItsPermitAndBudget() throws InterruptedException {
+    CountDownLatch stragglerInterrupted = new CountDownLatch(1);
+    CountDownLatch stragglerUnblocked = new CountDownLatch(1);
+    int warmUpCalls = 20;
+    int answerTokens = 1000;
+    ScriptedAgentBrain scriptedBrain =
+        new ScriptedAgentBrain(
+            call -> {
+              if (call == warmUpCalls) {
+                // Blocked like an HTTP call that ignores the interrupt
+                Uninterruptibles.awaitUninterruptibly(stragglerUnblocked);
+                stragglerInterrupted.countDown();
+              }
+              return ANSWER;
+            });
+    AdaptiveConcurrencyLimiter concurrencyLimiter =
+        new AdaptiveConcurrencyLimiter(true, 2, 1, 2, Double.MAX_VALUE, 0.75);
+    BrainRateLimiter rateLimiter =
+        new BrainRateLimiter(true, 1_000_000, 1_000, answerTokens, new TokenCounter("gpt-4o"));
+    AgentBrain agentBrain =
+        new ResilientAgentBrain(
+            new RateLimitedAgentBrain(
+                new ConcurrencyLimitedAgentBrain(scriptedBrain, concurrencyLimiter), rateLimiter),
+            createCallExecutor(true));
+    for (int i = 0; i < warmUpCalls; i++) {
+      agentBrain.getNextAnswer(PROMPT);
+    }
+
+    assertEquals(ANSWER, agentBrain.getNextAnswer(PROMPT));
+
+    // The straggler is still blocked, but holds neither a permit nor tokens for its answer
+    assertEquals(1, stragglerInterrupted.getCount());
+    assertEquals(0, concurrencyLimiter.getInFlight());
+    assertTrue(rateLimiter.getTokensUtilization() * 1_000_000 < answerTokens);
+    assertEquals(ANSWER, agentBrain.getNextAnswer(PROMPT));
+    stragglerUnblocked.countDown();
+    assertTrue(stragglerInterrupted.await(10, TimeUnit.SECONDS));
+  }
+
+  private ResilientCallExecutor createCallExecutor(boolean hedging) {
+    return new ResilientCallExecutor(
+        3,
+        Duration.ofSeconds(1),
+        Duration.ofSeconds(30),
+        hedging,
+        0.95,
+        Duration.ofMillis(50),
+        () -> 1.0,
+        sleeps::add);
+  }
+
+  private static BrainMessage failure(boolean retryable) {
+    throw new BrainCallException("502 - Bad gateway", null, false, retryable);
+  }
+
+  /** Brain whose answers are scripted by the number of the call, starting with zero. */
+  private static class ScriptedAgentBrain implements AgentBrain {
+    private final IntFunction<BrainMessage> script;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    ScriptedAgentBrain(IntFunction<BrainMessage> script) {
+      this.script = script;
+    }
+
+    @Override
+    public BrainMessage getNextAnswer(List<BrainMessage> messages) {
+      return script.apply(calls.getAndIncrement());
+    }
+
+    @Override
+    public BrainMessage streamNextAnswer(
+        List<BrainMessage> messages, AnswerStreamListener listener) {
+      listener.onChunk("[");
+      return getNextAnswer(messages);
+    }
+
+    @Override
+    public BrainMessage getSystemStartMessage() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public BrainMessage getMultiFileSystemStartMessage() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getModelName() {
+      return "scripted";
+    }
+  }
+}
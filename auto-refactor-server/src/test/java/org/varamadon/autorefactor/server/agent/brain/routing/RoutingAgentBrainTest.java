@@ -0,0 +1,102 @@
+package org.varamadon.autorefactor.server.agent.brain.routing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.ASSISTANT;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.SYSTEM;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.USER;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.varamadon.autorefactor.server.agent.brain.AgentBrain;
+import org.varamadon.autorefactor.server.agent.brain.BrainCallException;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+
+class RoutingAgentBrainTest {
+  private final BrainRouter router = new BrainRouter(true, "small", 20, 1000, 3, String::length);
+  private final ModelAgentBrain smallBrain = new ModelAgentBrain("small");
+  private final ModelAgentBrain largeBrain = new ModelAgentBrain("large");
+  private final AgentBrain agentBrain = new RoutingAgentBrain(smallBrain, largeBrain, router);
+
+  @Test
+  void promptsAreRoutedByTheirFeatures() {
+    assertEquals("small", agentBrain.getNextAnswer(prompt("class A {}")).content());
+    assertEquals("large", agentBrain.getNextAnswer(prompt("int a;\n".repeat(21))).content());
+    assertEquals("large", agentBrain.getNextAnswer(prompt("x".repeat(1000))).content());
+    assertEquals(
+        "large",
+        agentBrain.getNextAnswer(prompt("if (a && b || c) {}\nwhile (d) {}")).content());
+  }
+
+  @Test
+  void promptFeaturesAreMeasuredOnTheLastUserMessage() {
+    PromptFeatures features =
+        PromptFeatures.of(
+            List.of(
+                new BrainMessage(SYSTEM, "system"),
+                new BrainMessage(USER, "if (a) {}\nif (b) {}\nif (c) {}"),
+                new BrainMessage(ASSISTANT, "[]"),
+                new BrainMessage(USER, "List<?> list = a ? b : c;\nfor (;;) {}")),
+            String::length);
+
+    assertEquals(new PromptFeatures(2, 74, 2), features);
+  }
+
+  @Test
+  void callsAreRecordedByModel() {
+    agentBrain.getNextAnswer(prompt("class A {}"));
+    agentBrain.getNextAnswer(prompt("class B {}"));
+    largeBrain.failing = true;
+    List<BrainMessage> largePrompt = prompt("x".repeat(1000));
+    assertThrows(BrainCallException.class, () -> agentBrain.getNextAnswer(largePrompt));
+
+    assertEquals(2, router.getRouteStats().get("small").calls());
+    assertEquals(0, router.getRouteStats().get("small").failures());
+    assertEquals(1, router.getRouteStats().get("large").calls());
+    assertEquals(1, router.getRouteStats().get("large").failures());
+  }
+
+  @Test
+  void modelNameIsTheModelAnsweringThePrompt() {
+    assertEquals("small", agentBrain.getModelName(prompt("class A {}")));
+    assertEquals("large", agentBrain.getModelName(prompt("x".repeat(1000))));
+    assertEquals("large", agentBrain.getModelName());
+  }
+
+  private static List<BrainMessage> prompt(String fileContent) {
+    return List.of(new BrainMessage(SYSTEM, "system"), new BrainMessage(USER, fileContent));
+  }
+
+  /** Brain answering with the name of its model. */
+  private static class ModelAgentBrain implements AgentBrain {
+    private final String modelName;
+    private boolean failing;
+
+    ModelAgentBrain(String modelName) {
+      this.modelName = modelName;
+    }
+
+    @Override
+    public BrainMessage getNextAnswer(List<BrainMessage> messages) {
+      if (failing) {
+        throw new BrainCallException("500 - Internal error", null, false, true);
+      }
+      return new BrainMessage(ASSISTANT, modelName);
+    }
+
+    @Override
+    public BrainMessage getSystemStartMessage() {
+      return new BrainMessage(SYSTEM, modelName);
+    }
+
+    @Override
+    public BrainMessage getMultiFileSystemStartMessage() {
+      return new BrainMessage(SYSTEM, modelName);
+    }
+
+    @Override
+    public String getModelName() {
+      return modelName;
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package org.varamadon.autorefactor.server.agent.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.varamadon.autorefactor.shared.model.ActionItem;
+import org.varamadon.autorefactor.shared.model.AddCommentAction;
+import org.varamadon.autorefactor.shared.model.RenameMethodAction;
+
+class DiskActionPlanCacheTest {
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final ImmutableList<ActionItem> actionItems =
+      ImmutableList.of(new AddCommentAction(1, "comment"), new RenameMethodAction(2, "a", "b"));
+
+  @Test
+  void countsHitsAndMisses(@TempDir Path directory) {
+    DiskActionPlanCache cache = new DiskActionPlanCache(directory, 10, objectMapper);
+    ActionPlanCacheKey key = new ActionPlanCacheKey("fileHash", "promptHash", "gpt-4o");
+
+    assertEquals(Optional.empty(), cache.get(key));
+    cache.put(key, actionItems);
+
+    assertEquals(Optional.of(actionItems), cache.get(key));
+    assertEquals(
+        Optional.empty(), cache.get(new ActionPlanCacheKey("fileHash", "promptHash", "o1")));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  void survivesRestart(@TempDir Path directory) {
+    ActionPlanCacheKey key = new ActionPlanCacheKey("fileHash", "promptHash", "gpt-4o");
+    new DiskActionPlanCache(directory, 10, objectMapper).put(key, actionItems);
+
+    DiskActionPlanCache restartedCache = new DiskActionPlanCache(directory, 10, objectMapper);
+
+    assertEquals(Optional.of(actionItems), restartedCache.get(key));
+  }
+
+  @Test
+  void evictsLeastRecentlyUsedEntries(@TempDir Path directory) {
+    DiskActionPlanCache cache = new DiskActionPlanCache(directory, 2, objectMapper);
+    ActionPlanCacheKey firstKey = new ActionPlanCacheKey("first", "promptHash", "gpt-4o");
+    ActionPlanCacheKey secondKey = new ActionPlanCacheKey("second", "promptHash", "gpt-4o");
+    ActionPlanCacheKey thirdKey = new ActionPlanCacheKey("third", "promptHash", "gpt-4o");
+
+    cache.put(firstKey, actionItems);
+    cache.put(secondKey, actionItems);
+    cache.get(firstKey);
+    cache.put(thirdKey, actionItems);
+
+    assertTrue(cache.get(firstKey).isPresent());
+    assertTrue(cache.get(secondKey).isEmpty());
+    assertTrue(cache.get(thirdKey).isPresent());
+    assertTrue(new DiskActionPlanCache(directory, 2, objectMapper).get(secondKey).isEmpty());
+  }
+}
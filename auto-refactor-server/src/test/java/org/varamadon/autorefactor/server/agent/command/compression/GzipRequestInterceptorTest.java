@@ -0,0 +1,90 @@
+package org.varamadon.autorefactor.server.agent.command.compression;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.InterceptingClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+
+class GzipRequestInterceptorTest {
+  private final TransportCompression compression = new TransportCompression(true, 1024);
+  private final ClientHttpRequestFactory requestFactory =
+      new InterceptingClientHttpRequestFactory(
+          new SimpleClientHttpRequestFactory(),
+          List.of(new GzipRequestInterceptor(compression)));
+  private HttpServer tool;
+
+  /** Tool that echoes the request body, compressed if the request was compressed. */
+  @BeforeEach
+  void startTool() throws IOException {
+    tool = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    tool.createContext(
+        "/echo",
+        exchange -> {
+          boolean compressed =
+              "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+          InputStream requestBody = exchange.getRequestBody();
+          byte[] body =
+              (compressed ? new GZIPInputStream(requestBody) : requestBody).readAllBytes();
+          if (compressed) {
+            ByteArrayOutputStream compressedBody = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressedBody)) {
+              gzip.write(body);
+            }
+            body = compressedBody.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+          }
+          exchange.sendResponseHeaders(200, body.length);
+          try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+          }
+        });
+    tool.start();
+  }
+
+  @AfterEach
+  void stopTool() {
+    tool.stop(0);
+  }
+
+  @Test
+  void onlyBodiesAboveThresholdAreCompressed() throws IOException {
+    String smallBody = "class A {}";
+    String largeBody = "class A {}\n".repeat(1000);
+
+    assertEquals(smallBody, echo(smallBody));
+    assertEquals(0, compression.getSentBytesSaved());
+    assertEquals(0, compression.getReceivedBytesSaved());
+
+    assertEquals(largeBody, echo(largeBody));
+    assertTrue(compression.getSentBytesSaved() > 0);
+    assertTrue(compression.getReceivedBytesSaved() > 0);
+  }
+
+  private String echo(String body) throws IOException {
+    URI uri = URI.create("http://localhost:" + tool.getAddress().getPort() + "/echo");
+    ClientHttpRequest request = requestFactory.createRequest(uri, HttpMethod.POST);
+    request.getBody().write(body.getBytes(UTF_8));
+    try (ClientHttpResponse response = request.execute()) {
+      return new String(response.getBody().readAllBytes(), UTF_8);
+    }
+  }
+}
@@ -0,0 +1,288 @@
+package org.varamadon.autorefactor.server.agent.command.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.varamadon.autorefactor.server.agent.brain.TokenCounter;
+import org.varamadon.autorefactor.server.agent.command.compression.TransportCompression;
+import org.varamadon.autorefactor.server.agent.content.ContentHashing;
+import org.varamadon.autorefactor.server.agent.metrics.AgentMetrics;
+import org.varamadon.autorefactor.shared.model.ActionItem;
+import org.varamadon.autorefactor.shared.model.ActionPlan;
+import org.varamadon.autorefactor.shared.model.AddCommentAction;
+import org.varamadon.autorefactor.shared.model.SourceFile;
+
+class HttpClientCommandExecutorTest {
+  private static final String REPOSITORY_ID = "repositoryId";
+  private static final Duration TOOL_LATENCY = Duration.ofMillis(300);
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final List<String> receivedActionPlans = new CopyOnWriteArrayList<>();
+  private final InMemoryToolsInfoStore toolsInfoStore = new InMemoryToolsInfoStore();
+  private HttpServer tool;
+  private volatile Duration nextFileLatency = Duration.ZERO;
+  private volatile String nextFileContent = "class A {}";
+  private volatile String nextFileHash;
+  private volatile boolean actionPlanResponseLost;
+  private final Queue<SourceFile> toolFiles = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger nextFileRequests = new AtomicInteger();
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @BeforeEach
+  void startTool() throws IOException {
+    tool = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    tool.setExecutor(Executors.newCachedThreadPool());
+    tool.createContext(
+        "/files/next",
+        exchange -> {
+          Uninterruptibles.sleepUninterruptibly(nextFileLatency);
+          nextFileRequests.incrementAndGet();
+          String query = exchange.getRequestURI().getQuery();
+          if (query == null) {
+            if (nextFileHash != null) {
+              exchange.getResponseHeaders().add(SourceFile.HASH_HEADER, nextFileHash);
+              exchange.getResponseHeaders().add(SourceFile.CHAR_COUNT_HEADER, "10");
+            }
+            respond(exchange, nextFileContent);
+            return;
+          }
+          int count = Integer.parseInt(query.replaceAll(".*count=(\\d+).*", "$1"));
+          List<SourceFile> batch = new ArrayList<>();
+          while (batch.size() < count && !toolFiles.isEmpty()) {
+            batch.add(toolFiles.poll());
+          }
+          respond(exchange, objectMapper.writeValueAsString(batch));
+        });
+    tool.createContext(
+        "/actions/execute",
+        exchange -> {
+          receivedActionPlans.add(readRequestBody(exchange));
+          if (actionPlanResponseLost) {
+            exchange.close();
+            return;
+          }
+          Uninterruptibles.sleepUninterruptibly(TOOL_LATENCY);
+          respond(exchange, "");
+        });
+    tool.createContext("/finish", exchange -> respond(exchange, ""));
+    tool.start();
+    toolsInfoStore.registerToolUrl(
+        REPOSITORY_ID, "http://localhost:" + tool.getAddress().getPort());
+  }
+
+  @AfterEach
+  void stopTool() {
+    tool.stop(0);
+  }
+
+  @Test
+  void commandsAreSentToTheTool() {
+    HttpClientCommandExecutor commandExecutor = createCommandExecutor(Duration.ofSeconds(5));
+    ActionPlan actionPlan = new ActionPlan("hash", List.of(new AddCommentAction(1, "comment")));
+
+    assertEquals(
+        "class A {}", commandExecutor.executeNextFileCommandAsync(REPOSITORY_ID).join().content());
+    commandExecutor.executeActionPlanCommand(REPOSITORY_ID, actionPlan);
+    commandExecutor.executeFinishCommand(REPOSITORY_ID);
+
+    assertEquals(
+        List.of(actionPlan),
+        receivedActionPlans.stream().map(this::readActionPlan).toList());
+    assertFalse(toolsInfoStore.getToolUrl(REPOSITORY_ID).isPresent());
+  }
+
+  @Test
+  void filesAreFetchedInBatches() {
+    HttpClientCommandExecutor commandExecutor =
+        createCommandExecutor(Duration.ofSeconds(5), new ToolFileBuffer(2, 1024));
+    toolFiles.addAll(
+        List.of(
+            new SourceFile("a", 10, "class A {}"),
+            new SourceFile("b", 10, "class B {}"),
+            new SourceFile("c", 10, "class C {}")));
+
+    List<SourceFile> files = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      files.add(commandExecutor.executeNextFileCommand(REPOSITORY_ID));
+    }
+
+    assertEquals(
+        List.of("class A {}", "class B {}", "class C {}", ""),
+        files.stream().map(SourceFile::content).toList());
+    assertEquals(List.of("a", "b", "c", ""), files.stream().map(SourceFile::hash).toList());
+    assertEquals(3, nextFileRequests.get());
+  }
+
+  @Test
+  void hashSentByToolIsTrustedIfLengthMatches() {
+    HttpClientCommandExecutor commandExecutor = createCommandExecutor(Duration.ofSeconds(5));
+    nextFileHash = "hash";
+
+    assertEquals("hash", commandExecutor.executeNextFileCommand(REPOSITORY_ID).hash());
+
+    nextFileContent = "class AB {}";
+    assertEquals(
+        ContentHashing.sha256(nextFileContent),
+        commandExecutor.executeNextFileCommand(REPOSITORY_ID).hash());
+  }
+
+  @Test
+  void actionPlanIsNotResentIfTheConnectionIsLost() {
+    HttpClientCommandExecutor commandExecutor = createCommandExecutor(Duration.ofSeconds(5));
+    actionPlanResponseLost = true;
+
+    CompletionException exception =
+        assertThrows(
+            CompletionException.class,
+            () ->
+                commandExecutor.executeActionPlanCommand(
+                    REPOSITORY_ID, new ActionPlan("hash", List.of())));
+
+    assertInstanceOf(IOException.class, exception.getCause());
+    assertEquals(1, receivedActionPlans.size());
+  }
+
+  @Test
+  void largeBodiesAreCompressed() {
+    TransportCompression compression = new TransportCompression(true, 1024);
+    HttpClientCommandExecutor commandExecutor =
+        createCommandExecutor(Duration.ofSeconds(5), new ToolFileBuffer(1, 0), compression);
+    nextFileContent = "class A {}\n".repeat(1000);
+    List<ActionItem> actionItems = new ArrayList<>();
+    for (int i = 1; i <= 100; i++) {
+      actionItems.add(new AddCommentAction(i, "comment"));
+    }
+    ActionPlan actionPlan = new ActionPlan("hash", actionItems);
+
+    assertEquals(nextFileContent, commandExecutor.executeNextFileCommand(REPOSITORY_ID).content());
+    commandExecutor.executeActionPlanCommand(REPOSITORY_ID, actionPlan);
+
+    assertEquals(actionPlan, readActionPlan(receivedActionPlans.get(0)));
+    assertTrue(compression.getReceivedBytesSaved() > 0);
+    assertTrue(compression.getSentBytesSaved() > 0);
+  }
+
+  @Test
+  void actionPlanCommandHasItsOwnTimeout() {
+    HttpClientCommandExecutor commandExecutor = createCommandExecutor(TOOL_LATENCY.dividedBy(3));
+
+    commandExecutor.executeActionPlanCommand(REPOSITORY_ID, new ActionPlan("hash", List.of()));
+
+    nextFileLatency = TOOL_LATENCY;
+    CompletionException exception =
+        assertThrows(
+            CompletionException.class, () -> commandExecutor.executeNextFileCommand(REPOSITORY_ID));
+    assertInstanceOf(HttpTimeoutException.class, exception.getCause());
+
+    Timer actionPlanRequests =
+        meterRegistry
+            .get("agent.tool.requests")
+            .tags("endpoint", AgentMetrics.ACTIONS_EXECUTE_ENDPOINT, "outcome", "success")
+            .timer();
+    assertEquals(1, actionPlanRequests.count());
+    assertTrue(actionPlanRequests.totalTime(TimeUnit.NANOSECONDS) >= TOOL_LATENCY.toNanos());
+    assertEquals(
+        1,
+        meterRegistry
+            .get("agent.tool.requests")
+            .tags("endpoint", AgentMetrics.FILES_NEXT_ENDPOINT, "outcome", "error")
+            .timer()
+            .count());
+  }
+
+  private HttpClientCommandExecutor createCommandExecutor(Duration nextFileTimeout) {
+    return createCommandExecutor(nextFileTimeout, new ToolFileBuffer(1, 0));
+  }
+
+  private HttpClientCommandExecutor createCommandExecutor(
+      Duration nextFileTimeout, ToolFileBuffer fileBuffer) {
+    return createCommandExecutor(nextFileTimeout, fileBuffer, new TransportCompression(false, 0));
+  }
+
+  private HttpClientCommandExecutor createCommandExecutor(
+      Duration nextFileTimeout, ToolFileBuffer fileBuffer, TransportCompression compression) {
+    return new HttpClientCommandExecutor(
+        toolsInfoStore,
+        objectMapper,
+        fileBuffer,
+        compression,
+        new AgentMetrics(meterRegistry, true, new TokenCounter("gpt-4o")),
+        Duration.ofSeconds(1),
+        nextFileTimeout,
+        Duration.ofSeconds(5),
+        Duration.ofSeconds(1));
+  }
+
+  private ActionPlan readActionPlan(String actionPlan) {
+    try {
+      return objectMapper.readValue(actionPlan, ActionPlan.class);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Reads the request body, decompressing it if needed. */
+  private static String readRequestBody(HttpExchange exchange) throws IOException {
+    InputStream body = exchange.getRequestBody();
+    if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+      body = new GZIPInputStream(body);
+    }
+    return new String(body.readAllBytes(), UTF_8);
+  }
+
+  /** Responds with the given body, compressing it like the client does if it is large enough. */
+  private static void respond(HttpExchange exchange, String body) throws IOException {
+    byte[] bytes = body.getBytes(UTF_8);
+    String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+    if (acceptEncoding != null && acceptEncoding.contains("gzip") && bytes.length >= 1024) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+        gzip.write(bytes);
+      }
+      bytes = compressed.toByteArray();
+      exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+    }
+    if (bytes.length == 0) {
+      // The exchange is closed with the headers, writing to it would make the server close the
+      // connection, which the client may already be reusing for its next request
+      exchange.sendResponseHeaders(200, -1);
+      return;
+    }
+    exchange.sendResponseHeaders(200, bytes.length);
+    try (OutputStream responseBody = exchange.getResponseBody()) {
+      responseBody.write(bytes);
+    }
+  }
+}
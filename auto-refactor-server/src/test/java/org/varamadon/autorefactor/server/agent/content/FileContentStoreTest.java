@@ -0,0 +1,83 @@
+package org.varamadon.autorefactor.server.agent.content;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.varamadon.autorefactor.shared.model.SourceFile;
+
+class FileContentStoreTest {
+  @Test
+  void identicalContentsAreStoredOnce() {
+    FileContentStore store = new FileContentStore();
+    SourceFile file = ContentHashing.hash("class A {}\n");
+    SourceFile copy = ContentHashing.hash(new String("class A {}\n"));
+
+    StoredFile storedFile = store.acquire("repository1", file);
+    StoredFile storedCopy = store.acquire("repository2", copy);
+
+    assertSame(storedFile, storedCopy);
+    assertSame(storedFile.getNumberedContent(), storedCopy.getNumberedContent());
+    assertEquals(1, store.getFileCount());
+    assertEquals(1, store.getSharedCount());
+
+    store.release(storedFile);
+    assertEquals(1, store.getFileCount());
+    store.release(storedCopy);
+    assertEquals(0, store.getFileCount());
+  }
+
+  @Test
+  void contentNotMatchingStoredContentIsNotShared() {
+    FileContentStore store = new FileContentStore();
+    SourceFile file = ContentHashing.hash("class A {}");
+    StoredFile storedFile = store.acquire("repository1", file);
+
+    StoredFile otherFile =
+        store.acquire("repository2", new SourceFile(file.hash(), 10, "class B {}"));
+
+    assertNotSame(storedFile, otherFile);
+    assertEquals("class B {}", otherFile.getContent());
+    assertFalse(otherFile.matchesHash());
+    store.release(otherFile);
+    assertEquals(1, store.getFileCount());
+    store.release(storedFile);
+    assertEquals(0, store.getFileCount());
+  }
+
+  @Test
+  void contentNotMatchingItsHashIsSharedOnlyWithinItsRepository() {
+    FileContentStore store = new FileContentStore();
+    SourceFile file = ContentHashing.hash("class A {}");
+    SourceFile forgedFile = new SourceFile(file.hash(), 10, "class B {}");
+
+    StoredFile storedForgedFile = store.acquire("repository1", forgedFile);
+    StoredFile forgedCopy = store.acquire("repository1", forgedFile);
+    StoredFile otherForgedCopy = store.acquire("repository2", forgedFile);
+    StoredFile otherFile = store.acquire("repository2", file);
+
+    assertSame(storedForgedFile, forgedCopy);
+    assertNotSame(storedForgedFile, otherForgedCopy);
+    assertNotSame(storedForgedFile, otherFile);
+    assertFalse(storedForgedFile.matchesHash());
+    assertTrue(otherFile.matchesHash());
+    assertEquals("class A {}", otherFile.getContent());
+    assertEquals(1, store.getFileCount());
+    assertEquals(1, store.getSharedCount());
+  }
+
+  @Test
+  void hashIsTrustedOnlyWithMatchingCharCount() {
+    assertEquals("hash", ContentHashing.withTrustedHash("hash", "10", "class A {}").hash());
+    assertEquals(
+        ContentHashing.sha256("class A {}"),
+        ContentHashing.withTrustedHash("hash", "9", "class A {}").hash());
+    assertEquals(
+        ContentHashing.sha256("class A {}"),
+        ContentHashing.withTrustedHash(null, null, "class A {}").hash());
+    assertSame(SourceFile.EMPTY, ContentHashing.withTrustedHash("hash", "0", ""));
+  }
+}
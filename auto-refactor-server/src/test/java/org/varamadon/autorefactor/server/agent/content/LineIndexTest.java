@@ -0,0 +1,90 @@
+package org.varamadon.autorefactor.server.agent.content;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class LineIndexTest {
+  private static final String SEPARATOR = System.lineSeparator();
+
+  @Test
+  void resolvesLinesWithAnyTerminator() {
+    LineIndex lineIndex = LineIndex.of("class A {\r\n  int a;\r\n\n  int b;\r}");
+
+    assertEquals(5, lineIndex.getLineCount());
+    assertEquals("class A {", lineIndex.getLine(1));
+    assertEquals("  int a;", lineIndex.getLine(2));
+    assertEquals("", lineIndex.getLine(3));
+    assertEquals("  int b;", lineIndex.getLine(4));
+    assertEquals("}", lineIndex.getLine(5));
+    assertFalse(lineIndex.hasLine(0));
+    assertFalse(lineIndex.hasLine(6));
+    assertThrows(IndexOutOfBoundsException.class, () -> lineIndex.getLine(6));
+  }
+
+  @Test
+  void trailingEmptyLinesAreNotLines() {
+    assertEquals(2, LineIndex.of("a\nb\n").getLineCount());
+    assertEquals(2, LineIndex.of("a\nb").getLineCount());
+    assertEquals(2, LineIndex.of("a\nb\n\r\n\n").getLineCount());
+    assertEquals("b", LineIndex.of("a\nb\n\n").getLine(2));
+    assertEquals(2, LineIndex.of("\na\n\n").getLineCount());
+    assertEquals(0, LineIndex.of("\n\n").getLineCount());
+  }
+
+  @Test
+  void unicodeLineBreaksTerminateLines() {
+    LineIndex lineIndex = LineIndex.of("a\u2028b\u0085c\u2029d\u000Be\fz");
+
+    assertEquals(6, lineIndex.getLineCount());
+    assertEquals("b", lineIndex.getLine(2));
+    assertEquals("z", lineIndex.getLine(6));
+  }
+
+  @Test
+  void linesAreTheLinesSplitByLineBreakPattern() {
+    for (String content :
+        List.of(
+            "", "a", "\n", "\r\n", "\r\r\n", "\na", "a\r\n\r\nb\r", "a\u2028\u2028", "a\n \n")) {
+      String[] lines = content.split("\\R");
+      LineIndex lineIndex = LineIndex.of(content);
+
+      assertEquals(lines.length, lineIndex.getLineCount(), content);
+      for (int line = 1; line <= lines.length; line++) {
+        assertEquals(lines[line - 1], lineIndex.getLine(line), content);
+      }
+    }
+  }
+
+  @Test
+  void rendersNumberedLines() {
+    LineIndex lineIndex = LineIndex.of("Hello\r\nWorld\n");
+
+    assertEquals("1 | Hello" + SEPARATOR + "2 | World" + SEPARATOR, lineIndex.toNumberedString());
+    assertEquals(
+        "File 1:" + SEPARATOR + "1 | Hello" + SEPARATOR + "2 | World" + SEPARATOR,
+        lineIndex.appendNumberedTo(new StringBuilder("File 1:" + SEPARATOR)).toString());
+  }
+
+  @Test
+  void rendersManyLinesWithoutResizing() {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 12_345; i++) {
+      content.append("line ").append(i).append('\n');
+    }
+    LineIndex lineIndex = LineIndex.of(content.toString());
+
+    String numbered = lineIndex.toNumberedString();
+
+    assertEquals(12_345, lineIndex.getLineCount());
+    assertEquals("line 12344", lineIndex.getLine(12_345));
+    assertTrue(numbered.endsWith("12345 | line 12344" + SEPARATOR));
+    StringBuilder builder = new StringBuilder();
+    lineIndex.appendNumberedTo(builder);
+    assertEquals(numbered.length(), builder.capacity());
+  }
+}
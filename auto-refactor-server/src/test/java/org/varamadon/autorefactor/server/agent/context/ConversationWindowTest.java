@@ -0,0 +1,69 @@
+package org.varamadon.autorefactor.server.agent.context;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.ASSISTANT;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.SYSTEM;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.USER;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+
+class ConversationWindowTest {
+  private final BrainMessage systemMessage = new BrainMessage(SYSTEM, "start");
+  private final BrainMessage nextFileMessage = new BrainMessage(ASSISTANT, "nextFile");
+  private final BrainMessage firstFileMessage = new BrainMessage(USER, "1 | class A {}");
+  private final BrainMessage firstPlanMessage = new BrainMessage(ASSISTANT, "[]");
+  private final BrainMessage secondFileMessage = new BrainMessage(USER, "1 | class B {}");
+  private final BrainMessage secondPlanMessage = new BrainMessage(ASSISTANT, "[]");
+  private final BrainMessage thirdFileMessage = new BrainMessage(USER, "1 | class C {}");
+
+  private final List<BrainMessage> history =
+      ImmutableList.of(
+          systemMessage,
+          nextFileMessage,
+          firstFileMessage,
+          firstPlanMessage,
+          nextFileMessage,
+          secondFileMessage,
+          secondPlanMessage,
+          nextFileMessage,
+          thirdFileMessage);
+
+  @Test
+  void keepsWholeHistoryWhenUnbounded() {
+    assertEquals(history, new ConversationWindow(-1, true).apply(history));
+  }
+
+  @Test
+  void keepsOnlyCurrentFileExchange() {
+    List<BrainMessage> window = new ConversationWindow(0, false).apply(history);
+
+    assertEquals(ImmutableList.of(systemMessage, nextFileMessage, thirdFileMessage), window);
+  }
+
+  @Test
+  void keepsPreviousFileExchangesAndSummary() {
+    List<BrainMessage> window = new ConversationWindow(1, true).apply(history);
+
+    assertEquals(7, window.size());
+    assertEquals(systemMessage, window.get(0));
+    assertEquals(SYSTEM, window.get(1).messageType());
+    assertEquals(
+        ImmutableList.of(
+            nextFileMessage,
+            secondFileMessage,
+            secondPlanMessage,
+            nextFileMessage,
+            thirdFileMessage),
+        window.subList(2, 7));
+  }
+
+  @Test
+  void keepsHistoryWithFewerExchanges() {
+    List<BrainMessage> shortHistory = history.subList(0, 4);
+
+    assertEquals(shortHistory, new ConversationWindow(1, true).apply(shortHistory));
+  }
+}
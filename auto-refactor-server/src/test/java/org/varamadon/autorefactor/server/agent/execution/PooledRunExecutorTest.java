@@ -0,0 +1,43 @@
+package org.varamadon.autorefactor.server.agent.execution;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class PooledRunExecutorTest {
+  @Test
+  void repositoryRegisteredAgainRunsAfterTasksOfReleasedMailbox() throws InterruptedException {
+    PooledRunExecutor runExecutor = new PooledRunExecutor(2, 2);
+    CountDownLatch released = new CountDownLatch(1);
+    CountDownLatch proceed = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(1);
+    List<String> events = new CopyOnWriteArrayList<>();
+
+    runExecutor.execute(
+        "repositoryId",
+        () -> {
+          runExecutor.release("repositoryId");
+          released.countDown();
+          Uninterruptibles.awaitUninterruptibly(proceed, 5, TimeUnit.SECONDS);
+          events.add("old run");
+        });
+    assertTrue(released.await(5, TimeUnit.SECONDS));
+    runExecutor.execute(
+        "repositoryId",
+        () -> {
+          events.add("new run");
+          done.countDown();
+        });
+    proceed.countDown();
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(List.of("old run", "new run"), events);
+    runExecutor.shutdown();
+  }
+}
@@ -0,0 +1,61 @@
+package org.varamadon.autorefactor.server.agent.execution;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class VirtualThreadRunExecutorTest {
+  @Test
+  void scopeIsClosedAfterForksOfReleasedRun() throws Exception {
+    VirtualThreadRunExecutor runExecutor = new VirtualThreadRunExecutor();
+    CountDownLatch proceed = new CountDownLatch(1);
+    List<String> events = new CopyOnWriteArrayList<>();
+    CompletableFuture<CompletableFuture<String>> forked = new CompletableFuture<>();
+
+    runExecutor.execute(
+        "repositoryId",
+        () -> {
+          runExecutor.release("repositoryId");
+          forked.complete(
+              runExecutor.fork(
+                  "repositoryId",
+                  () -> {
+                    Uninterruptibles.awaitUninterruptibly(proceed, 5, TimeUnit.SECONDS);
+                    return "fork";
+                  }));
+        });
+    CompletableFuture<String> fork = forked.get(5, TimeUnit.SECONDS);
+    runExecutor.execute("repositoryId", () -> events.add("late task"));
+    await().atMost(5, TimeUnit.SECONDS).until(() -> events.size() == 1);
+
+    assertEquals(1, runExecutor.getScopeCount());
+    proceed.countDown();
+    assertEquals("fork", fork.get(5, TimeUnit.SECONDS));
+    await().atMost(5, TimeUnit.SECONDS).until(() -> runExecutor.getScopeCount() == 0);
+  }
+
+  @Test
+  void lateTaskOfFinishedRunDoesNotLeaveScope() throws InterruptedException {
+    VirtualThreadRunExecutor runExecutor = new VirtualThreadRunExecutor();
+    CountDownLatch done = new CountDownLatch(2);
+
+    runExecutor.execute(
+        "repositoryId",
+        () -> {
+          runExecutor.release("repositoryId");
+          done.countDown();
+        });
+    runExecutor.execute("repositoryId", done::countDown);
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    await().atMost(5, TimeUnit.SECONDS).until(() -> runExecutor.getScopeCount() == 0);
+  }
+}
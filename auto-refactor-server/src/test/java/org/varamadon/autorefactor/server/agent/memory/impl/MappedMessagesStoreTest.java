@@ -0,0 +1,162 @@
+package org.varamadon.autorefactor.server.agent.memory.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.ASSISTANT;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.SYSTEM;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.USER;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+import org.varamadon.autorefactor.server.agent.memory.MessageContext;
+
+class MappedMessagesStoreTest {
+  private static final int SEGMENT_SIZE = 64;
+
+  private final List<BrainMessage> messages =
+      List.of(
+          new BrainMessage(SYSTEM, "system prompt"),
+          new BrainMessage(USER, "1 | class \u00c4 {}\n".repeat(10)),
+          new BrainMessage(ASSISTANT, "[]"),
+          new BrainMessage(USER, ""),
+          new BrainMessage(ASSISTANT, "finish"));
+
+  @Test
+  void messagesSpanSegments(@TempDir Path directory) throws IOException {
+    MappedMessagesStore store = new MappedMessagesStore(directory, SEGMENT_SIZE, true);
+
+    messages.forEach(message -> store.storeMessage("repositoryId", message));
+
+    assertEquals(messages, store.getMessages("repositoryId"));
+    assertEquals(List.of(), store.getMessages("otherRepositoryId"));
+    assertTrue(countSegments(directory) > 2);
+  }
+
+  @Test
+  void snapshotIsNotAffectedByLaterMessages(@TempDir Path directory) {
+    MappedMessagesStore store = new MappedMessagesStore(directory, SEGMENT_SIZE, true);
+    store.storeMessage("repositoryId", messages.get(0));
+
+    List<BrainMessage> snapshot = store.getMessages("repositoryId");
+    messages.forEach(message -> store.storeMessage("repositoryId", message));
+
+    assertEquals(List.of(messages.get(0)), snapshot);
+  }
+
+  @Test
+  void deletingMessagesDeletesSegments(@TempDir Path directory) throws IOException {
+    MappedMessagesStore store = new MappedMessagesStore(directory, SEGMENT_SIZE, true);
+    messages.forEach(message -> store.storeMessage("repositoryId", message));
+
+    store.deleteMessages("repositoryId");
+
+    assertEquals(List.of(), store.getMessages("repositoryId"));
+    assertEquals(0, countSegments(directory));
+  }
+
+  @Test
+  void snapshotIsReadableAfterMessagesAreDeleted(@TempDir Path directory) {
+    MappedMessagesStore store = new MappedMessagesStore(directory, SEGMENT_SIZE, true);
+    messages.forEach(message -> store.storeMessage("repositoryId", message));
+    List<BrainMessage> snapshot = store.getMessages("repositoryId");
+
+    store.deleteMessages("repositoryId");
+
+    assertEquals(messages, snapshot);
+  }
+
+  @Test
+  void recoversMessagesOnRestart(@TempDir Path directory) throws IOException {
+    MappedMessagesStore store = new MappedMessagesStore(directory, SEGMENT_SIZE, true);
+    messages.forEach(message -> store.storeMessage("repository/id", message));
+    store.storeMessage("deletedRepositoryId", messages.get(0));
+    store.deleteMessages("deletedRepositoryId");
+    store.close();
+
+    MappedMessagesStore restartedStore = new MappedMessagesStore(directory, SEGMENT_SIZE, true);
+
+    assertEquals(messages, restartedStore.getMessages("repository/id"));
+    assertTrue(restartedStore.getMessages("deletedRepositoryId").isEmpty());
+    restartedStore.storeMessage("repository/id", messages.get(0));
+    assertEquals(messages.size() + 1, restartedStore.getMessages("repository/id").size());
+  }
+
+  @Test
+  void crashDropsOnlyMessagesStoredAfterLastPendingMessage(@TempDir Path directory) {
+    MappedMessagesStore store = new MappedMessagesStore(directory, SEGMENT_SIZE, true);
+    messages.subList(0, 3).forEach(message -> store.storeMessage("repositoryId", message));
+    store.storePendingMessageWithContext(
+        Pair.of(messages.get(2), new MessageContext("repositoryId", "fileHash")));
+    messages.subList(3, 5).forEach(message -> store.storeMessage("repositoryId", message));
+
+    MappedMessagesStore restartedStore = new MappedMessagesStore(directory, SEGMENT_SIZE, true);
+
+    assertEquals(messages.subList(0, 3), restartedStore.getMessages("repositoryId"));
+    restartedStore.storeMessage("repositoryId", messages.get(4));
+    restartedStore.storePendingMessageWithContext(
+        Pair.of(messages.get(4), new MessageContext("repositoryId", "")));
+    assertEquals(
+        List.of(messages.get(0), messages.get(1), messages.get(2), messages.get(4)),
+        new MappedMessagesStore(directory, SEGMENT_SIZE, true).getMessages("repositoryId"));
+  }
+
+  @Test
+  void replaysPendingMessagesThatWereNotAcknowledged(@TempDir Path directory)
+      throws InterruptedException {
+    MappedMessagesStore store = new MappedMessagesStore(directory, SEGMENT_SIZE, true);
+    Pair<BrainMessage, MessageContext> processed =
+        Pair.of(messages.get(2), new MessageContext("repositoryId", "fileHash"));
+    Pair<BrainMessage, MessageContext> interrupted =
+        Pair.of(messages.get(4), new MessageContext("repositoryId", ""));
+    Pair<BrainMessage, MessageContext> queued =
+        Pair.of(
+            messages.get(2),
+            new MessageContext("repositoryId", "", List.of("first", "second")).withModel("model"));
+    store.storePendingMessageWithContext(processed);
+    store.storePendingMessageWithContext(interrupted);
+    store.storePendingMessageWithContext(queued);
+    store.acknowledgePendingMessage(store.awaitNextPendingMessageWithContext());
+    store.awaitNextPendingMessageWithContext();
+
+    MappedMessagesStore restartedStore = new MappedMessagesStore(directory, SEGMENT_SIZE, true);
+
+    assertEquals(interrupted, restartedStore.awaitNextPendingMessageWithContext());
+    assertEquals(queued, restartedStore.awaitNextPendingMessageWithContext());
+  }
+
+  @Test
+  void acknowledgedPendingMessagesAreNotReplayed(@TempDir Path directory)
+      throws InterruptedException {
+    MappedMessagesStore store = new MappedMessagesStore(directory, SEGMENT_SIZE, false);
+    Pair<BrainMessage, MessageContext> pendingMessage =
+        Pair.of(messages.get(2), new MessageContext("repositoryId", "fileHash"));
+    store.storePendingMessageWithContext(pendingMessage);
+    store.storePendingMessageWithContext(pendingMessage);
+    store.acknowledgePendingMessage(store.awaitNextPendingMessageWithContext());
+    store.acknowledgePendingMessage(store.awaitNextPendingMessageWithContext());
+    store.storePendingMessageWithContext(pendingMessage);
+
+    MappedMessagesStore restartedStore = new MappedMessagesStore(directory, SEGMENT_SIZE, false);
+    restartedStore.acknowledgePendingMessage(restartedStore.awaitNextPendingMessageWithContext());
+
+    MappedMessagesStore secondRestartedStore =
+        new MappedMessagesStore(directory, SEGMENT_SIZE, false);
+    Pair<BrainMessage, MessageContext> nextMessage =
+        Pair.of(messages.get(4), new MessageContext("repositoryId", ""));
+    secondRestartedStore.storePendingMessageWithContext(nextMessage);
+    assertEquals(nextMessage, secondRestartedStore.awaitNextPendingMessageWithContext());
+  }
+
+  private static long countSegments(Path directory) throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      return files.filter(file -> file.toString().endsWith(".segment")).count();
+    }
+  }
+}
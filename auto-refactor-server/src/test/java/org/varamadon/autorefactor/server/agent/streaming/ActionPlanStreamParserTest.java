@@ -0,0 +1,53 @@
+package org.varamadon.autorefactor.server.agent.streaming;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class ActionPlanStreamParserTest {
+  private final List<String> items = new ArrayList<>();
+  private final ActionPlanStreamParser parser =
+      new ActionPlanStreamParser(Set.of("nextFile", "finish"), items::add);
+
+  @Test
+  void itemIsEmittedAsSoonAsItsObjectIsClosed() {
+    parser.onChunk(" [\n  {\"type\": \"addComment\", \"li");
+    assertTrue(parser.isActionPlan());
+    assertTrue(items.isEmpty());
+
+    parser.onChunk("ne\": 1, \"content\": \"x\"}");
+    assertEquals(List.of("{\"type\": \"addComment\", \"line\": 1, \"content\": \"x\"}"), items);
+    assertFalse(parser.isAnswerComplete());
+
+    parser.onChunk(",\n  {\"type\": \"renameMethod\"}\n]");
+    assertEquals(List.of(items.get(0), "{\"type\": \"renameMethod\"}"), items);
+    assertTrue(parser.isAnswerComplete());
+  }
+
+  @Test
+  void bracesInsideStringsAreIgnored() {
+    String item = "{\"content\": \"} ] \\\" {\", \"nested\": {\"a\": [1, 2]}}";
+    for (char c : ("[" + item + "]").toCharArray()) {
+      parser.onChunk(String.valueOf(c));
+    }
+
+    assertEquals(List.of(item), items);
+    assertTrue(parser.isAnswerComplete());
+  }
+
+  @Test
+  void commandIsDetectedWithoutParsingItems() {
+    parser.onChunk("next");
+    assertFalse(parser.isActionPlan());
+    assertFalse(parser.isAnswerComplete());
+
+    parser.onChunk("File");
+    assertTrue(parser.isAnswerComplete());
+    assertTrue(items.isEmpty());
+  }
+}
@@ -0,0 +1,78 @@
+package org.varamadon.autorefactor.server.agent.validation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import org.varamadon.autorefactor.server.agent.content.LineIndex;
+import org.varamadon.autorefactor.shared.model.ActionItem;
+import org.varamadon.autorefactor.shared.model.AddCommentAction;
+import org.varamadon.autorefactor.shared.model.RenameMethodAction;
+import org.varamadon.autorefactor.shared.model.RenameVariableAction;
+
+class ActionPlanValidationTest {
+  private static final LineIndex LINE_INDEX =
+      LineIndex.of("class A {\n  int count = 1;\n  void run(int count2) { count++; }\n}\n");
+
+  @Test
+  void checksItemsAgainstFileContent() {
+    ActionPlanValidation validation =
+        new ActionPlanValidator(true).newValidation(Optional.of(LINE_INDEX));
+
+    assertEquals(Optional.empty(), validation.check(new AddCommentAction(1, "comment")));
+    assertEquals(
+        Optional.of(PruneReason.LINE_OUT_OF_RANGE),
+        validation.check(new AddCommentAction(5, "comment")));
+    assertEquals(
+        Optional.of(PruneReason.LINE_OUT_OF_RANGE),
+        validation.check(new RenameVariableAction(null, "count", "total")));
+    assertEquals(
+        Optional.of(PruneReason.NAME_NOT_ON_LINE),
+        validation.check(new RenameVariableAction(3, "coun", "total")));
+    assertEquals(
+        Optional.of(PruneReason.NAME_NOT_ON_LINE),
+        validation.check(new RenameMethodAction(2, "run", "execute")));
+    assertEquals(
+        Optional.of(PruneReason.INVALID_NEW_NAME),
+        validation.check(new RenameVariableAction(2, "count", "1total")));
+    assertEquals(
+        Optional.of(PruneReason.INVALID_NEW_NAME),
+        validation.check(new RenameVariableAction(2, "count", "count")));
+    assertEquals(
+        Optional.empty(), validation.check(new RenameVariableAction(3, "count2", "limit")));
+    assertEquals(Optional.empty(), validation.check(new RenameMethodAction(3, "run", "execute")));
+  }
+
+  @Test
+  void prunesDuplicateAndConflictingRenames() {
+    ActionPlanValidator validator = new ActionPlanValidator(true);
+    RenameVariableAction rename = new RenameVariableAction(3, "count", "total");
+
+    List<ActionItem> validItems =
+        validator.validate(
+            Optional.of(LINE_INDEX),
+            List.of(
+                rename,
+                new RenameVariableAction(3, "count", "sum"),
+                new RenameVariableAction(3, "count2", "total"),
+                rename,
+                new RenameVariableAction(2, "count", "sum")));
+
+    assertEquals(List.of(rename, new RenameVariableAction(2, "count", "sum")), validItems);
+    assertEquals(2, validator.getPrunedCount(PruneReason.CONFLICTING_RENAME));
+    assertEquals(1, validator.getPrunedCount(PruneReason.DUPLICATE));
+  }
+
+  @Test
+  void acceptsAllItemsWhenDisabledOrNotIndexed() {
+    List<ActionItem> actionItems =
+        List.of(new AddCommentAction(9, "comment"), new AddCommentAction(9, "comment"));
+
+    assertEquals(
+        actionItems, new ActionPlanValidator(false).validate(Optional.of(LINE_INDEX), actionItems));
+    ActionPlanValidator validator = new ActionPlanValidator(true);
+    assertEquals(actionItems, validator.validate(Optional.empty(), actionItems));
+    assertEquals(0, validator.getPrunedCount(PruneReason.DUPLICATE));
+  }
+}
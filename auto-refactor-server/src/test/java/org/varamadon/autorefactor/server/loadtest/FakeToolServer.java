@@ -0,0 +1,190 @@
+package org.varamadon.autorefactor.server.loadtest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import org.varamadon.autorefactor.shared.model.ActionPlan;
+import org.varamadon.autorefactor.shared.model.SourceFile;
+
+/**
+ * In-process tool serving the files of several synthetic repositories over HTTP, like the client
+ * plugin does. Every repository gets its own tool URL with the repository as the path prefix, and
+ * the endpoints behave like the ones of the client, including batches of files and compressed
+ * action plans. Action plans are counted instead of applied.
+ *
+ * <p>The latency of a file is the time from serving it to receiving its action plan.
+ */
+class FakeToolServer implements AutoCloseable {
+  private final ObjectMapper objectMapper;
+  private final HttpServer server;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final ConcurrentMap<String, Repository> repositories = new ConcurrentHashMap<>();
+  private final Queue<Long> fileLatenciesNanos = new ConcurrentLinkedQueue<>();
+  private final AtomicLong actionItemsCount = new AtomicLong();
+
+  private static class Repository {
+    private final Queue<String> files;
+    private final Map<String, Long> servedNanosByHash = new ConcurrentHashMap<>();
+    private final CompletableFuture<Void> finished = new CompletableFuture<>();
+
+    private Repository(List<String> files) {
+      this.files = new ConcurrentLinkedQueue<>(files);
+    }
+  }
+
+  FakeToolServer(ObjectMapper objectMapper) throws IOException {
+    this.objectMapper = objectMapper;
+    this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setExecutor(executor);
+    server.createContext("/", this::handle);
+    server.start();
+  }
+
+  /**
+   * Registers a repository with the given files.
+   *
+   * @return the tool URL of the repository.
+   */
+  String register(String repositoryId, List<String> files) {
+    repositories.put(repositoryId, new Repository(files));
+    return "http://localhost:" + server.getAddress().getPort() + "/" + repositoryId;
+  }
+
+  /** Returns a future that completes when the repository gets the finish command. */
+  CompletableFuture<Void> getFinished(String repositoryId) {
+    return repositories.get(repositoryId).finished;
+  }
+
+  /** Returns the number of served files of the repository that didn't get their plans yet. */
+  int getUnplannedFilesCount(String repositoryId) {
+    Repository repository = repositories.get(repositoryId);
+    return repository.files.size() + repository.servedNanosByHash.size();
+  }
+
+  List<Long> getFileLatenciesNanos() {
+    return new ArrayList<>(fileLatenciesNanos);
+  }
+
+  long getActionItemsCount() {
+    return actionItemsCount.get();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      String[] path = exchange.getRequestURI().getPath().split("/", 3);
+      Repository repository = path.length == 3 ? repositories.get(path[1]) : null;
+      if (repository == null) {
+        respond(exchange, 404, "UNKNOWN_REPOSITORY");
+        return;
+      }
+      switch ("/" + path[2]) {
+        case "/files/next" -> nextFiles(exchange, repository);
+        case "/actions/execute" -> executeActionPlan(exchange, repository);
+        case "/finish" -> {
+          respond(exchange, 200, "");
+          repository.finished.complete(null);
+        }
+        default -> respond(exchange, 404, "UNKNOWN_ENDPOINT");
+      }
+    }
+  }
+
+  private void nextFiles(HttpExchange exchange, Repository repository) throws IOException {
+    String query = exchange.getRequestURI().getQuery();
+    if (query == null) {
+      String file = repository.files.poll();
+      if (file != null) {
+        SourceFile sourceFile = serve(repository, file);
+        exchange.getResponseHeaders().add(SourceFile.HASH_HEADER, sourceFile.hash());
+        exchange
+            .getResponseHeaders()
+            .add(SourceFile.CHAR_COUNT_HEADER, String.valueOf(sourceFile.charCount()));
+      }
+      respond(exchange, 200, file == null ? "" : file);
+      return;
+    }
+    int count = Integer.parseInt(query.replaceAll(".*count=(\\d+).*", "$1"));
+    long maxBytes = Long.parseLong(query.replaceAll(".*maxBytes=(\\d+).*", "$1"));
+    List<SourceFile> batch = new ArrayList<>();
+    long batchBytes = 0;
+    while (batch.size() < count) {
+      String file = repository.files.peek();
+      if (file == null) {
+        break;
+      }
+      int fileBytes = file.getBytes(UTF_8).length;
+      if (!batch.isEmpty() && batchBytes + fileBytes > maxBytes) {
+        break;
+      }
+      batch.add(serve(repository, repository.files.poll()));
+      batchBytes += fileBytes;
+    }
+    respond(exchange, 200, objectMapper.writeValueAsString(batch));
+  }
+
+  private SourceFile serve(Repository repository, String file) {
+    String hash = Hashing.sha256().hashString(file, UTF_8).toString();
+    repository.servedNanosByHash.put(hash, System.nanoTime());
+    return new SourceFile(hash, file.length(), file);
+  }
+
+  private void executeActionPlan(HttpExchange exchange, Repository repository)
+      throws IOException {
+    ActionPlan actionPlan = objectMapper.readValue(readRequestBody(exchange), ActionPlan.class);
+    Long servedNanos = repository.servedNanosByHash.remove(actionPlan.fileHash());
+    if (servedNanos == null) {
+      respond(exchange, 400, "ABSENT_FILE");
+      return;
+    }
+    fileLatenciesNanos.add(System.nanoTime() - servedNanos);
+    actionItemsCount.addAndGet(actionPlan.actionItems().size());
+    respond(exchange, 200, "");
+  }
+
+  private static byte[] readRequestBody(HttpExchange exchange) throws IOException {
+    boolean compressed = "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+    try (InputStream body =
+        compressed
+            ? new GZIPInputStream(exchange.getRequestBody())
+            : exchange.getRequestBody()) {
+      return body.readAllBytes();
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(UTF_8);
+    if (bytes.length == 0) {
+      exchange.sendResponseHeaders(status, -1);
+      return;
+    }
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream responseBody = exchange.getResponseBody()) {
+      responseBody.write(bytes);
+    }
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}
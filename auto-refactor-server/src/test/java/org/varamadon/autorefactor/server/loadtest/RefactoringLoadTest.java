@@ -0,0 +1,187 @@
+package org.varamadon.autorefactor.server.loadtest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.varamadon.autorefactor.server.agent.RefactoringAgent;
+import org.varamadon.autorefactor.server.agent.brain.TokenCounter;
+import org.varamadon.autorefactor.server.agent.cache.NoOpActionPlanCache;
+import org.varamadon.autorefactor.server.agent.command.compression.TransportCompression;
+import org.varamadon.autorefactor.server.agent.command.impl.HttpClientCommandExecutor;
+import org.varamadon.autorefactor.server.agent.command.impl.InMemoryToolsInfoStore;
+import org.varamadon.autorefactor.server.agent.command.impl.ToolFileBuffer;
+import org.varamadon.autorefactor.server.agent.content.FileContentStore;
+import org.varamadon.autorefactor.server.agent.context.ConversationWindow;
+import org.varamadon.autorefactor.server.agent.context.FileBatchPolicy;
+import org.varamadon.autorefactor.server.agent.execution.PooledRunExecutor;
+import org.varamadon.autorefactor.server.agent.execution.RunMode;
+import org.varamadon.autorefactor.server.agent.execution.RunSettings;
+import org.varamadon.autorefactor.server.agent.memory.impl.InMemoryMessagesStore;
+import org.varamadon.autorefactor.server.agent.metrics.AgentMetrics;
+import org.varamadon.autorefactor.server.agent.validation.ActionPlanValidator;
+import org.varamadon.autorefactor.server.web.AgentController;
+
+/**
+ * Runs many repositories through the whole server at once, with {@link SyntheticAgentBrain}
+ * instead of a model and {@link FakeToolServer} instead of the client plugin, and reports runs per
+ * hour, per-file latency percentiles and heap usage. Nothing leaves the machine.
+ *
+ * <p>The load is configured with system properties prefixed with {@code loadtest.}, for example
+ * {@code ./gradlew loadTest -Dloadtest.repositories=100 -Dloadtest.brain-latency-millis=500}.
+ */
+@Tag("loadtest")
+class RefactoringLoadTest {
+  private static final int REPOSITORIES = Integer.getInteger("loadtest.repositories", 20);
+  private static final int FILES_PER_REPOSITORY = Integer.getInteger("loadtest.files", 25);
+  private static final int MIN_FILE_LINES = Integer.getInteger("loadtest.min-file-lines", 50);
+  private static final int MAX_FILE_LINES = Integer.getInteger("loadtest.max-file-lines", 2000);
+  private static final long BRAIN_LATENCY_MILLIS =
+      Long.getLong("loadtest.brain-latency-millis", 100);
+  private static final double BRAIN_LATENCY_SIGMA =
+      Double.parseDouble(System.getProperty("loadtest.brain-latency-sigma", "0.5"));
+  private static final int MIN_PLAN_SIZE = Integer.getInteger("loadtest.min-plan-size", 1);
+  private static final int MAX_PLAN_SIZE = Integer.getInteger("loadtest.max-plan-size", 10);
+  private static final RunMode RUN_MODE =
+      RunMode.valueOf(System.getProperty("loadtest.run-mode", "serial").toUpperCase(Locale.ROOT));
+  private static final int RUN_POOL_SIZE = Integer.getInteger("loadtest.run-pool-size", 8);
+  private static final int FILE_BATCH_SIZE = Integer.getInteger("loadtest.file-batch-size", 1);
+  private static final long SEED = Long.getLong("loadtest.seed", 42);
+  private static final Duration TIMEOUT =
+      Duration.ofMinutes(Long.getLong("loadtest.timeout-minutes", 30));
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Test
+  void refactorRepositories() throws Exception {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    AtomicLong peakHeapBytes = new AtomicLong();
+    ScheduledExecutorService heapSampler = Executors.newSingleThreadScheduledExecutor();
+    heapSampler.scheduleAtFixedRate(
+        () -> peakHeapBytes.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+        0,
+        50,
+        TimeUnit.MILLISECONDS);
+
+    InMemoryToolsInfoStore toolsInfoStore = new InMemoryToolsInfoStore();
+    AgentMetrics metrics =
+        new AgentMetrics(new SimpleMeterRegistry(), true, new TokenCounter("gpt-4o"));
+    RefactoringAgent agent =
+        new RefactoringAgent(
+            new SyntheticAgentBrain(
+                objectMapper,
+                SEED,
+                Duration.ofMillis(BRAIN_LATENCY_MILLIS),
+                BRAIN_LATENCY_SIGMA,
+                MIN_PLAN_SIZE,
+                MAX_PLAN_SIZE),
+            new HttpClientCommandExecutor(
+                toolsInfoStore,
+                objectMapper,
+                new ToolFileBuffer(FILE_BATCH_SIZE, 1 << 20),
+                new TransportCompression(true, 1024),
+                metrics,
+                Duration.ofSeconds(5),
+                Duration.ofSeconds(10),
+                Duration.ofMinutes(5),
+                Duration.ofSeconds(10)),
+            new InMemoryMessagesStore(),
+            objectMapper,
+            new PooledRunExecutor(RUN_POOL_SIZE, 64),
+            new ConversationWindow(1, true),
+            new NoOpActionPlanCache(),
+            new FileBatchPolicy(false, 60, 4000, 10),
+            new RunSettings(RUN_MODE, 4, false),
+            metrics,
+            new ActionPlanValidator(true),
+            new FileContentStore());
+    AgentController controller = new AgentController(agent, toolsInfoStore);
+
+    try (FakeToolServer tool = new FakeToolServer(objectMapper)) {
+      List<String> repositoryIds = new ArrayList<>();
+      List<String> toolUrls = new ArrayList<>();
+      for (int i = 0; i < REPOSITORIES; i++) {
+        String repositoryId = "repository" + i;
+        repositoryIds.add(repositoryId);
+        toolUrls.add(
+            tool.register(
+                repositoryId,
+                SyntheticCorpus.generate(
+                    repositoryId, SEED, FILES_PER_REPOSITORY, MIN_FILE_LINES, MAX_FILE_LINES)));
+      }
+
+      long start = System.nanoTime();
+      for (int i = 0; i < REPOSITORIES; i++) {
+        controller.startRefactoringProcess(repositoryIds.get(i), toolUrls.get(i));
+      }
+      CompletableFuture.allOf(
+              repositoryIds.stream().map(tool::getFinished).toArray(CompletableFuture[]::new))
+          .get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+      long elapsedNanos = System.nanoTime() - start;
+      heapSampler.shutdownNow();
+
+      for (String repositoryId : repositoryIds) {
+        assertEquals(0, tool.getUnplannedFilesCount(repositoryId), repositoryId);
+      }
+      List<Long> fileLatenciesNanos = tool.getFileLatenciesNanos();
+      assertEquals(REPOSITORIES * FILES_PER_REPOSITORY, fileLatenciesNanos.size());
+
+      System.gc();
+      report(
+          elapsedNanos,
+          fileLatenciesNanos,
+          tool.getActionItemsCount(),
+          peakHeapBytes.get(),
+          memory.getHeapMemoryUsage().getUsed());
+    } finally {
+      heapSampler.shutdownNow();
+    }
+  }
+
+  private static void report(
+      long elapsedNanos,
+      List<Long> fileLatenciesNanos,
+      long actionItemsCount,
+      long peakHeapBytes,
+      long retainedHeapBytes) {
+    Collections.sort(fileLatenciesNanos);
+    double elapsedHours = elapsedNanos / 3.6e12;
+    System.out.printf(
+        "%d repositories of %d files in %s mode, brain median latency %dms:%n",
+        REPOSITORIES, FILES_PER_REPOSITORY, RUN_MODE, BRAIN_LATENCY_MILLIS);
+    System.out.printf(
+        "  runs per hour %,.0f, files per second %,.1f, action items %,d%n",
+        REPOSITORIES / elapsedHours,
+        fileLatenciesNanos.size() / (elapsedNanos / 1e9),
+        actionItemsCount);
+    System.out.printf(
+        "  file latency p50 %dms, p90 %dms, p99 %dms, max %dms%n",
+        percentileMillis(fileLatenciesNanos, 0.5),
+        percentileMillis(fileLatenciesNanos, 0.9),
+        percentileMillis(fileLatenciesNanos, 0.99),
+        percentileMillis(fileLatenciesNanos, 1.0));
+    System.out.printf(
+        "  heap peak %,dMB, retained after the runs %,dMB%n",
+        peakHeapBytes >> 20, retainedHeapBytes >> 20);
+  }
+
+  /** Returns the nearest-rank percentile of the sorted latencies. */
+  private static long percentileMillis(List<Long> sortedLatenciesNanos, double percentile) {
+    int rank = (int) Math.ceil(percentile * sortedLatenciesNanos.size());
+    return TimeUnit.NANOSECONDS.toMillis(sortedLatenciesNanos.get(Math.max(rank, 1) - 1));
+  }
+}
@@ -0,0 +1,111 @@
+package org.varamadon.autorefactor.server.loadtest;
+
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.ASSISTANT;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.SYSTEM;
+import static org.varamadon.autorefactor.server.agent.brain.BrainMessageType.USER;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.varamadon.autorefactor.server.agent.brain.AgentBrain;
+import org.varamadon.autorefactor.server.agent.brain.BrainMessage;
+import org.varamadon.autorefactor.shared.model.ActionItem;
+import org.varamadon.autorefactor.shared.model.AddCommentAction;
+
+/**
+ * {@link AgentBrain} that answers like the real one without calling any model. It asks for the
+ * next file until it gets an empty one, and answers every file with a plan of comments on random
+ * lines of the file. Answers take a log-normally distributed time.
+ *
+ * <p>The random generator of every answer is seeded with the prompt, so the same corpus always gets
+ * the same plans and latencies, no matter in which order the runs ask for them. Only single-file
+ * prompts are supported.
+ */
+class SyntheticAgentBrain implements AgentBrain {
+  private final ObjectMapper objectMapper;
+  private final long seed;
+  private final Duration medianLatency;
+  private final double latencySigma;
+  private final int minPlanSize;
+  private final int maxPlanSize;
+
+  /**
+   * Creates a new instance of the SyntheticAgentBrain.
+   *
+   * @param objectMapper the mapper used for serializing action plans.
+   * @param seed the seed mixed into the seed of every answer.
+   * @param medianLatency the median time of an answer.
+   * @param latencySigma the standard deviation of the logarithm of the answer time, 0 makes every
+   *     answer take the median time.
+   * @param minPlanSize the minimum number of action items in a plan.
+   * @param maxPlanSize the maximum number of action items in a plan.
+   */
+  SyntheticAgentBrain(
+      ObjectMapper objectMapper,
+      long seed,
+      Duration medianLatency,
+      double latencySigma,
+      int minPlanSize,
+      int maxPlanSize) {
+    this.objectMapper = objectMapper;
+    this.seed = seed;
+    this.medianLatency = medianLatency;
+    this.latencySigma = latencySigma;
+    this.minPlanSize = minPlanSize;
+    this.maxPlanSize = maxPlanSize;
+  }
+
+  @Override
+  public BrainMessage getNextAnswer(List<BrainMessage> messages) {
+    BrainMessage lastMessage = messages.get(messages.size() - 1);
+    Random random = new Random(seed * 31 + lastMessage.content().hashCode());
+    long latencyNanos =
+        (long) (medianLatency.toNanos() * Math.exp(latencySigma * random.nextGaussian()));
+    Uninterruptibles.sleepUninterruptibly(latencyNanos, TimeUnit.NANOSECONDS);
+    if (lastMessage.messageType() != USER) {
+      return new BrainMessage(ASSISTANT, "nextFile");
+    }
+    if (lastMessage.content().isEmpty()) {
+      return new BrainMessage(ASSISTANT, "finish");
+    }
+    return new BrainMessage(ASSISTANT, generateActionPlan(lastMessage.content(), random));
+  }
+
+  private String generateActionPlan(String numberedFileContent, Random random) {
+    int linesCount = numberedFileContent.split("\\R").length;
+    int planSize = minPlanSize + random.nextInt(maxPlanSize - minPlanSize + 1);
+    List<ActionItem> actionItems = new ArrayList<>(planSize);
+    for (int i = 0; i < planSize; i++) {
+      actionItems.add(
+          new AddCommentAction(1 + random.nextInt(linesCount), "Synthetic comment " + i));
+    }
+    try {
+      return objectMapper
+          .writerFor(new TypeReference<List<ActionItem>>() {})
+          .writeValueAsString(actionItems);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Failed to serialize synthetic action plan", e);
+    }
+  }
+
+  @Override
+  public BrainMessage getSystemStartMessage() {
+    return new BrainMessage(SYSTEM, "Synthetic brain, answers without calling a model.");
+  }
+
+  @Override
+  public BrainMessage getMultiFileSystemStartMessage() {
+    throw new UnsupportedOperationException("Synthetic brain doesn't support multi-file prompts");
+  }
+
+  @Override
+  public String getModelName() {
+    return "synthetic";
+  }
+}
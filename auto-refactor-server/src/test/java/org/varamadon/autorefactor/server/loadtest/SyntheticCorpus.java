@@ -0,0 +1,72 @@
+package org.varamadon.autorefactor.server.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates Java-like source files of a synthetic repository. Every file is a class with methods
+ * made of branches, loops and assignments, so prompts look like real code to the components that
+ * estimate tokens or complexity. Files of the same seed are always the same, and files of
+ * different repositories or positions never share a content.
+ */
+final class SyntheticCorpus {
+  private SyntheticCorpus() {}
+
+  /**
+   * Generates the files of a repository.
+   *
+   * @param repositoryId the identifier of the repository, part of the class names.
+   * @param seed the seed of the random generator.
+   * @param filesCount the number of files.
+   * @param minLines the minimum number of lines of a file.
+   * @param maxLines the maximum number of lines of a file.
+   * @return the contents of the files.
+   */
+  static List<String> generate(
+      String repositoryId, long seed, int filesCount, int minLines, int maxLines) {
+    Random random = new Random(seed * 31 + repositoryId.hashCode());
+    List<String> files = new ArrayList<>(filesCount);
+    for (int i = 0; i < filesCount; i++) {
+      int linesCount = minLines + random.nextInt(maxLines - minLines + 1);
+      String className = repositoryId.replaceAll("\\W", "_") + "_Class" + i;
+      files.add(generateFile(className, linesCount, random));
+    }
+    return files;
+  }
+
+  private static String generateFile(String className, int linesCount, Random random) {
+    StringBuilder file = new StringBuilder();
+    file.append("package org.example.synthetic;\n\n");
+    file.append("public class ").append(className).append(" {\n");
+    int lines = 4;
+    int method = 0;
+    while (lines < linesCount) {
+      file.append("  public int method").append(method++).append("(int value) {\n");
+      file.append("    int result = value;\n");
+      lines += 2;
+      int statements = 2 + random.nextInt(12);
+      for (int i = 0; i < statements && lines < linesCount; i++) {
+        String block =
+            switch (random.nextInt(3)) {
+              case 0 -> "    if (result > " + random.nextInt(100) + ") {\n";
+              case 1 -> "    for (int i = 0; i < " + random.nextInt(10) + "; i++) {\n";
+              default -> "    {\n";
+            };
+        file.append(block);
+        file.append("      result = result * ")
+            .append(1 + random.nextInt(9))
+            .append(" + ")
+            .append(random.nextInt(1000))
+            .append(";\n");
+        file.append("    }\n");
+        lines += 3;
+      }
+      file.append("    return result;\n");
+      file.append("  }\n");
+      lines += 2;
+    }
+    file.append("}\n");
+    return file.toString();
+  }
+}
@@ -0,0 +1,38 @@
+package org.varamadon.autorefactor.shared.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Action plan for several files that were sent in one prompt. Action items are grouped by the
+ * number of the file in the prompt, starting from 1, and serialized as a JSON object with the file
+ * numbers as keys.
+ */
+public record MultiFileActionPlan(Map<Integer, List<ActionItem>> actionItemsByFile) {
+  @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+  public MultiFileActionPlan {}
+
+  @Override
+  @JsonValue
+  public Map<Integer, List<ActionItem>> actionItemsByFile() {
+    return actionItemsByFile;
+  }
+
+  /**
+   * Splits this plan into one {@link ActionPlan} per file. Files without action items get an empty
+   * plan, action items for unknown file numbers are dropped.
+   *
+   * @param fileHashes hashes of the files in the order they were sent in the prompt.
+   */
+  public List<ActionPlan> split(List<String> fileHashes) {
+    List<ActionPlan> actionPlans = new ArrayList<>(fileHashes.size());
+    for (int i = 0; i < fileHashes.size(); i++) {
+      List<ActionItem> actionItems = actionItemsByFile.getOrDefault(i + 1, List.of());
+      actionPlans.add(new ActionPlan(fileHashes.get(i), actionItems));
+    }
+    return actionPlans;
+  }
+}
@@ -0,0 +1,25 @@
+package org.varamadon.autorefactor.shared.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * Source file sent by the client, together with the SHA-256 hash of its content and the number of
+ * UTF-16 chars of the content, as returned by {@link String#length()}. The hash identifies the file
+ * in the action plans sent back to the client, so the server doesn't hash the content again if the
+ * char count matches it.
+ *
+ * <p>When a single file is sent as a plain text body, its hash and char count are sent in the
+ * {@link #HASH_HEADER} and {@link #CHAR_COUNT_HEADER} headers.
+ */
+public record SourceFile(String hash, int charCount, String content) {
+  public static final String HASH_HEADER = "X-Content-SHA256";
+  public static final String CHAR_COUNT_HEADER = "X-Content-Char-Count";
+
+  /** Marks that there are no more files left to process. */
+  public static final SourceFile EMPTY = new SourceFile("", 0, "");
+
+  @JsonIgnore
+  public boolean isEmpty() {
+    return content.isEmpty();
+  }
+}
@@ -3,8 +3,10 @@ package org.varamadon.autorefactor.shared.model;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.util.List;
+import java.util.Map;
 import org.junit.jupiter.api.Test;
 
 public class SerializationTest {
@@ -31,4 +33,58 @@ public class SerializationTest {
     String serializedItem = mapper.writeValueAsString(item);
     assertEquals(item, mapper.readValue(serializedItem, ActionItem.class));
   }
+
+  @Test
+  void multiFileActionPlanDeserializationTest() throws JsonProcessingException {
+    ObjectMapper mapper = new ObjectMapper();
+
+    String serializedPlan =
+        """
+        {
+          "1": [{"type": "addComment", "line": 3, "content": "comment"}],
+          "3": [{"type": "renameVariable", "line": 4, "oldName": "d", "newName": "delta"}]
+        }
+        """;
+    MultiFileActionPlan plan = mapper.readValue(serializedPlan, MultiFileActionPlan.class);
+
+    assertEquals(
+        List.of(
+            new ActionPlan("hash1", List.of(new AddCommentAction(3, "comment"))),
+            new ActionPlan("hash2", List.of()),
+            new ActionPlan("hash3", List.of(new RenameVariableAction(4, "d", "delta")))),
+        plan.split(List.of("hash1", "hash2", "hash3")));
+    String reserializedPlan = mapper.writeValueAsString(plan);
+    assertEquals(plan, mapper.readValue(reserializedPlan, MultiFileActionPlan.class));
+  }
+
+  @Test
+  void multiFileActionPlanSerializationTest() throws JsonProcessingException {
+    ObjectMapper mapper = new ObjectMapper();
+
+    MultiFileActionPlan plan =
+        new MultiFileActionPlan(Map.of(2, List.of(new RenameMethodAction(5, "old", "new"))));
+
+    assertEquals(
+        "{\"2\":[{\"type\":\"renameMethod\",\"line\":5,\"oldName\":\"old\",\"newName\":\"new\"}]}",
+        mapper.writeValueAsString(plan));
+  }
+
+  @Test
+  void sourceFilesSerializationTest() throws JsonProcessingException {
+    ObjectMapper mapper = new ObjectMapper();
+
+    List<SourceFile> files =
+        List.of(
+            new SourceFile("hash1", 10, "class A {}"), new SourceFile("hash2", 10, "class B {}"));
+
+    String serializedFiles = mapper.writeValueAsString(files);
+    assertEquals(
+        files, mapper.readValue(serializedFiles, new TypeReference<List<SourceFile>>() {}));
+    assertEquals(
+        "{\"hash\":\"hash1\",\"charCount\":10,\"content\":\"class A {}\"}",
+        mapper.writeValueAsString(files.get(0)));
+    assertEquals(
+        new SourceFile("hash1", 0, "class A {}"),
+        mapper.readValue("{\"hash\":\"hash1\",\"content\":\"class A {}\"}", SourceFile.class));
+  }
 }
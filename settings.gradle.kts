@@ -3,4 +3,4 @@ pluginManagement {
         kotlin("jvm") version "2.0.21"
     }
 }
-include("auto-refactor-server", "auto-refactor-client", "auto-refactor-shared")
+include("auto-refactor-server", "auto-refactor-client", "auto-refactor-shared", "auto-refactor-benchmarks")